@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.BinaryCodec;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Fare;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Position;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.Trip;
+import de.schildbach.pte.service.ResultJsonWriter;
+
+/**
+ * <p>
+ * Compares {@link BinaryCodec} with Java serialization and with the JSON the service writes using its
+ * {@link ResultJsonWriter}, on trips and departures. JSON is decoded into a Jackson tree, as the result classes cannot
+ * be bound by Jackson.
+ * </p>
+ * 
+ * <p>
+ * The encode benchmarks report the encoded size in bytes as the secondary result {@code encodedBytes}; allocation
+ * per operation is reported by the {@code gc} profiler.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BinaryCodecBenchmark {
+    private static final long T0 = 1483272000000L; // 2017-01-01 12:00 UTC
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ResultJsonWriter JSON_WRITER = new ResultJsonWriter(OBJECT_MAPPER,
+            Collections.<ResultJsonWriter.Field> emptySet());
+
+    @State(Scope.Benchmark)
+    public static class Sample {
+        @Param({ "trips", "departures" })
+        String kind;
+
+        Object result;
+        byte[] binary;
+        byte[] serialized;
+        byte[] json;
+
+        @Setup
+        public void setUp() throws IOException {
+            result = "trips".equals(kind) ? queryTripsResult(30, 30) : queryDeparturesResult(100);
+            binary = BinaryCodec.encode(result);
+            serialized = serialize(result);
+            json = writeJson(result);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        /** size of the last encoded result */
+        public long encodedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            encodedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] binaryEncode(final Sample sample, final EncodedSize size) throws IOException {
+        final byte[] encoded = BinaryCodec.encode(sample.result);
+        size.encodedBytes = encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public Object binaryDecode(final Sample sample) throws IOException {
+        return BinaryCodec.decode(sample.binary);
+    }
+
+    @Benchmark
+    public byte[] javaSerialize(final Sample sample, final EncodedSize size) throws IOException {
+        final byte[] encoded = serialize(sample.result);
+        size.encodedBytes = encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public Object javaDeserialize(final Sample sample) throws IOException, ClassNotFoundException {
+        final ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(sample.serialized));
+        try {
+            return is.readObject();
+        } finally {
+            is.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] jsonWrite(final Sample sample, final EncodedSize size) throws IOException {
+        final byte[] encoded = writeJson(sample.result);
+        size.encodedBytes = encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public Object jsonRead(final Sample sample) throws IOException {
+        return OBJECT_MAPPER.readTree(sample.json);
+    }
+
+    private static byte[] writeJson(final Object result) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final JsonGenerator generator = OBJECT_MAPPER.getJsonFactory().createJsonGenerator(bytes, JsonEncoding.UTF8);
+        JSON_WRITER.write(generator, result);
+        generator.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] serialize(final Object object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream os = new ObjectOutputStream(bytes);
+        os.writeObject(object);
+        os.close();
+        return bytes.toByteArray();
+    }
+
+    private static QueryTripsResult queryTripsResult(final int numTrips, final int numIntermediateStops) {
+        final Style style = new Style(Style.Shape.RECT, Style.parseColor("#e30613"), Style.WHITE);
+        final Line line = new Line("de:vbb:S7", "vbb", Product.SUBURBAN_TRAIN, "S7", style,
+                EnumSet.of(Line.Attr.BICYCLE_CARRIAGE));
+        final Location origin = new Location(LocationType.ADDRESS, null, 52520000, 13405000, "Berlin",
+                "Alexanderplatz 1");
+        final List<Location> stations = new ArrayList<>();
+        for (int i = 0; i < numIntermediateStops + 2; i++)
+            stations.add(new Location(LocationType.STATION, Integer.toString(900000000 + i), 52520000 + i * 1000,
+                    13405000 - i * 1500, "Berlin", "Station " + i, EnumSet.of(Product.SUBURBAN_TRAIN, Product.BUS)));
+
+        final List<Trip> trips = new ArrayList<>();
+        for (int t = 0; t < numTrips; t++) {
+            long time = T0 + t * 600000;
+            final List<Trip.Leg> legs = new ArrayList<>();
+            legs.add(new Trip.Individual(Trip.Individual.Type.WALK, origin, new Date(time), stations.get(0),
+                    new Date(time + 240000), null, 320));
+            time += 300000;
+
+            final Stop departureStop = new Stop(stations.get(0), true, new Date(time), new Date(time + 60000),
+                    new Position("1"), new Position("2", "A"));
+            final List<Stop> intermediateStops = new ArrayList<>();
+            final List<Point> path = new ArrayList<>();
+            for (int s = 1; s <= numIntermediateStops; s++) {
+                time += 120000;
+                final Location station = stations.get(s);
+                intermediateStops.add(new Stop(station, new Date(time), new Date(time + 60000), new Position("1"),
+                        null, s % 5 == 0, new Date(time + 30000), new Date(time + 90000), new Position("1"), null,
+                        false));
+                path.add(new Point(station.lat, station.lon));
+                path.add(new Point(station.lat + 300, station.lon - 450));
+            }
+            time += 120000;
+            final Stop arrivalStop = new Stop(stations.get(numIntermediateStops + 1), false, new Date(time), null,
+                    new Position("3"), null);
+            legs.add(new Trip.Public(line, stations.get(stations.size() - 1), departureStop, arrivalStop,
+                    intermediateStops, path, null));
+
+            final List<Fare> fares = Arrays.asList(new Fare("VBB", Fare.Type.ADULT, Currency.getInstance("EUR"),
+                    2.8f, "Zone", "AB"));
+            trips.add(new Trip(null, origin, arrivalStop.location, legs, fares, new int[] { 1, 2 }, 0));
+        }
+
+        final ResultHeader header = new ResultHeader(NetworkId.RT, "hafas", "1.0", null, T0, null);
+        return new QueryTripsResult(header, "http://example.com/trips", origin, null, stations.get(1),
+                new Context(), trips);
+    }
+
+    private static QueryDeparturesResult queryDeparturesResult(final int numDepartures) {
+        final Location station = new Location(LocationType.STATION, "900100003", 52521481, 13411124, "Berlin",
+                "Alexanderplatz");
+        final List<Departure> departures = new ArrayList<>();
+        final List<LineDestination> lines = new ArrayList<>();
+        for (int i = 0; i < numDepartures; i++) {
+            final Line line = new Line("de:vbb:" + (i % 10), "vbb", Product.BUS, Integer.toString(100 + i % 10),
+                    new Style(Style.YELLOW, Style.BLACK));
+            final Location destination = new Location(LocationType.STATION, Integer.toString(900200000 + i % 10),
+                    "Berlin", "Destination " + (i % 10));
+            departures.add(new Departure(new Date(T0 + i * 60000), i % 3 == 0 ? new Date(T0 + i * 60000 + 45000)
+                    : null, line, new Position(Integer.toString(i % 4 + 1)), destination, null,
+                    i % 7 == 0 ? "Diversion" : null));
+            if (i < 10)
+                lines.add(new LineDestination(line, destination));
+        }
+        final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.VBB, "hafas"));
+        result.stationDepartures.add(new StationDepartures(station, departures, lines));
+        return result;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Context implements QueryTripsContext {
+        public final String ident = "C0";
+
+        @Override
+        public boolean canQueryLater() {
+            return true;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.HttpUrl;
+
+/**
+ * <p>
+ * Loopback HTTP server answering every request with the same recorded upstream response, so that a provider pointed
+ * at {@link #baseUrl()} parses it on each call.
+ * </p>
+ * 
+ * <p>
+ * Responses live in the {@code corpus} resource folder, which the build fills with the parser fixtures of the enabler
+ * tests. Every benchmark names the file it needs.
+ * </p>
+ */
+public final class CorpusServer implements Closeable {
+    private final HttpServer server;
+
+    public CorpusServer(final byte[] body, final String contentType) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                ByteStreams.exhaust(is);
+                is.close();
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        });
+        server.start();
+    }
+
+    public static CorpusServer serve(final String name, final String contentType) throws IOException {
+        return new CorpusServer(load(name), contentType);
+    }
+
+    public static byte[] load(final String name) throws IOException {
+        final InputStream is = CorpusServer.class.getResourceAsStream("/corpus/" + name);
+        if (is == null)
+            throw new IllegalStateException("missing recorded response corpus/" + name);
+        try {
+            return ByteStreams.toByteArray(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    public HttpUrl baseUrl() {
+        return new HttpUrl.Builder().scheme("http").host(server.getAddress().getHostString())
+                .port(server.getAddress().getPort()).addPathSegment("").build();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.schildbach.pte.AbstractHafasMobileProvider;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+
+import okhttp3.HttpUrl;
+
+/**
+ * HAFAS mobile JSON: {@code TripSearch} and {@code StationBoard} from {@code mgate.exe}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HafasMobileBenchmark {
+    private static final Product[] PRODUCTS_MAP = { Product.SUBURBAN_TRAIN, Product.SUBWAY, Product.TRAM, Product.BUS,
+            Product.FERRY, Product.HIGH_SPEED_TRAIN, Product.REGIONAL_TRAIN, Product.ON_DEMAND, null, null };
+
+    static class Provider extends AbstractHafasMobileProvider {
+        public Provider(final HttpUrl apiBase) {
+            super(NetworkId.BVG, apiBase, PRODUCTS_MAP);
+            setApiVersion("1.11");
+            setApiAuthorization("{\"type\":\"AID\",\"aid\":\"benchmark\"}");
+            setApiClient("{\"id\":\"BVG\"}");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TripSearch {
+        CorpusServer server;
+        NetworkProvider provider;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = CorpusServer.serve("hafas-mobile-tripsearch.json", "application/json; charset=UTF-8");
+            provider = new Provider(server.baseUrl());
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class StationBoard {
+        CorpusServer server;
+        NetworkProvider provider;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = CorpusServer.serve("hafas-mobile-stationboard.json", "application/json; charset=UTF-8");
+            provider = new Provider(server.baseUrl());
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public QueryTripsResult tripSearch(final TripSearch state) throws IOException {
+        return state.provider.queryTrips(new Location(LocationType.STATION, "900100003"), null,
+                new Location(LocationType.STATION, "900024101"), new Date(), true, Product.ALL, null, null, null,
+                null);
+    }
+
+    @Benchmark
+    public QueryDeparturesResult stationBoard(final StationBoard state) throws IOException {
+        return state.provider.queryDepartures("900100003", new Date(), 100, false);
+    }
+}
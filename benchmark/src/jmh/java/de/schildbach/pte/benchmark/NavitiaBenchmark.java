@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.ParisProvider;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsResult;
+
+/**
+ * Navitia JSON: {@code journeys}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NavitiaBenchmark {
+    @State(Scope.Benchmark)
+    public static class Journeys {
+        CorpusServer server;
+        NetworkProvider provider;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = CorpusServer.serve("navitia-journeys.json", "application/json; charset=UTF-8");
+            provider = new ParisProvider(server.baseUrl(), "benchmark");
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public QueryTripsResult journeys(final Journeys state) throws IOException {
+        return state.provider.queryTrips(new Location(LocationType.STATION, "stop_area:OIF:SA:8739305"), null,
+                new Location(LocationType.STATION, "stop_area:OIF:SA:59290"), new Date(), true, Product.ALL, null,
+                null, null, null);
+    }
+}
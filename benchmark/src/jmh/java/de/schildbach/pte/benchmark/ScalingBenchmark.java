@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.VrrProvider;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsResult;
+
+/**
+ * Parses trip responses from {@link SyntheticResponses} of growing size, to see how time and allocation (with the
+ * {@code gc} profiler) scale with the number of trips and intermediate stops.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScalingBenchmark {
+    private static final int LEGS = 3;
+
+    @State(Scope.Benchmark)
+    public static class HafasLegacy {
+        // the legacy parser buffers at most 384 KiB of uncompressed response
+        @Param({ "10", "100", "200" })
+        int trips;
+        @Param({ "0", "10" })
+        int stops;
+
+        CorpusServer server;
+        NetworkProvider provider;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = new CorpusServer(SyntheticResponses.hafasTripsBinary(trips, LEGS, stops),
+                    "application/octet-stream");
+            provider = new HafasLegacyBenchmark.Provider(server.baseUrl());
+            check(queryTrips(provider), trips);
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Efa {
+        @Param({ "10", "100", "1000" })
+        int trips;
+        @Param({ "0", "10", "50" })
+        int stops;
+        @Param({ "20" })
+        int pathPoints;
+
+        CorpusServer server;
+        NetworkProvider provider;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = new CorpusServer(SyntheticResponses.efaTripsXml(trips, LEGS, stops, pathPoints),
+                    "text/xml; charset=UTF-8");
+            provider = new VrrProvider(server.baseUrl());
+            check(queryTrips(provider), trips);
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HafasMobile {
+        @Param({ "10", "100", "1000" })
+        int trips;
+        @Param({ "0", "10", "50" })
+        int stops;
+
+        CorpusServer server;
+        NetworkProvider provider;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = new CorpusServer(SyntheticResponses.hafasMobileTripSearchJson(trips, LEGS, stops),
+                    "application/json; charset=UTF-8");
+            provider = new HafasMobileBenchmark.Provider(server.baseUrl());
+            check(queryTrips(provider), trips);
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public QueryTripsResult hafasLegacy(final HafasLegacy state) throws IOException {
+        return queryTrips(state.provider);
+    }
+
+    @Benchmark
+    public QueryTripsResult efa(final Efa state) throws IOException {
+        return queryTrips(state.provider);
+    }
+
+    @Benchmark
+    public QueryTripsResult hafasMobile(final HafasMobile state) throws IOException {
+        return queryTrips(state.provider);
+    }
+
+    static QueryTripsResult queryTrips(final NetworkProvider provider) throws IOException {
+        final Date date = new GregorianCalendar(SyntheticResponses.YEAR, SyntheticResponses.MONTH,
+                SyntheticResponses.DAY, 6, 0).getTime();
+        return provider.queryTrips(new Location(LocationType.STATION, "900000000"), null,
+                new Location(LocationType.STATION, "900000099"), date, true, Product.ALL, null, null, null, null);
+    }
+
+    private static void check(final QueryTripsResult result, final int expectedTrips) {
+        if (result.status != QueryTripsResult.Status.OK || result.trips.size() != expectedTrips)
+            throw new IllegalStateException("synthetic response not parsed as expected: " + result);
+    }
+}
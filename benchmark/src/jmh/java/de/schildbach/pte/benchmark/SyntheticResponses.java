@@ -0,0 +1,568 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Charsets;
+
+/**
+ * <p>
+ * Generates valid upstream responses of arbitrary size, for measuring how parsing scales with the number of trips,
+ * legs and intermediate stops.
+ * </p>
+ * 
+ * <p>
+ * All formats describe the same synthetic corridor: trip {@code t} leaves one minute after trip {@code t - 1}, each
+ * leg serves {@code stops} intermediate stops two minutes apart, and legs are connected by a four minute transfer.
+ * Stations are shared between trips, like alternatives along the same route. Products alternate between suburban
+ * train (product bit 0) and bus (product bit 3) per leg.
+ * </p>
+ */
+public final class SyntheticResponses {
+    /** Service day of all generated trips. */
+    public static final int YEAR = 2017, MONTH = Calendar.MAY, DAY = 2;
+
+    private static final int FIRST_DEPARTURE = 6 * 60;
+    private static final int HEADWAY = 1;
+    private static final int STOP_INTERVAL = 2;
+    private static final int TRANSFER = 4;
+    private static final int HAFAS_BINARY_MAX_SIZE = 384 * 1024;
+
+    private SyntheticResponses() {
+    }
+
+    static int numStations(final int legs, final int stops) {
+        return legs * (stops + 1) + 1;
+    }
+
+    static String stationName(final int station) {
+        return "Synthetic Station " + station;
+    }
+
+    static int stationId(final int station) {
+        return 900000000 + station;
+    }
+
+    static int lat(final int station) {
+        return 52000000 + station * 1000;
+    }
+
+    static int lon(final int station) {
+        return 13000000 + station * 1500;
+    }
+
+    /** Minutes after midnight of the service day, for stop {@code s} of leg {@code l}; 0 is the leg departure. */
+    static int minute(final int trip, final int leg, final int stop, final int stops) {
+        return FIRST_DEPARTURE + trip * HEADWAY + leg * ((stops + 1) * STOP_INTERVAL + TRANSFER)
+                + stop * STOP_INTERVAL;
+    }
+
+    static boolean isBus(final int leg) {
+        return leg % 2 == 1;
+    }
+
+    static String lineName(final int leg) {
+        return isBus(leg) ? "Bus " + (100 + leg) : "S " + (1 + leg);
+    }
+
+    /**
+     * HAFAS legacy binary trips as parsed by {@code AbstractHafasLegacyProvider.queryTripsBinary()}, gzipped. Note
+     * that the parser keeps the whole uncompressed response in a buffer of 384 KiB, so larger responses are refused.
+     */
+    public static byte[] hafasTripsBinary(final int trips, final int legs, final int stops) throws IOException {
+        final int numStations = numStations(legs, stops);
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final LittleEndianBuffer stringTable = new LittleEndianBuffer();
+        stringTable.writeByte(0); // pointer 0 means null
+
+        // stations
+        final LittleEndianBuffer stationTable = new LittleEndianBuffer();
+        for (int i = 0; i < numStations; i++) {
+            stationTable.writeShort(string(strings, stringTable, stationName(i)));
+            stationTable.writeInt(stationId(i));
+            stationTable.writeInt(lon(i));
+            stationTable.writeInt(lat(i));
+        }
+
+        // no comments
+        final LittleEndianBuffer commentTable = new LittleEndianBuffer();
+        commentTable.writeShort(0);
+
+        // a single service day entry running on the day of the result
+        final LittleEndianBuffer serviceDaysTable = new LittleEndianBuffer();
+        serviceDaysTable.writeShort(string(strings, stringTable, "daily"));
+        serviceDaysTable.writeShort(0);
+        serviceDaysTable.writeShort(1);
+        serviceDaysTable.writeByte(0x80);
+
+        // attribute lists, in units of 4 bytes; the first one is empty
+        final LittleEndianBuffer attrs = new LittleEndianBuffer();
+        attrs.writeInt(0);
+        final int[] legAttrs = new int[legs];
+        for (int l = 0; l < legs; l++) {
+            legAttrs[l] = attrs.size() / 4;
+            attrs.writeShort(string(strings, stringTable, "Direction"));
+            attrs.writeShort(string(strings, stringTable, stationName((l + 1) * (stops + 1))));
+            attrs.writeShort(string(strings, stringTable, "Class"));
+            attrs.writeShort(string(strings, stringTable, isBus(l) ? "8" : "1"));
+            attrs.writeShort(string(strings, stringTable, "Category"));
+            attrs.writeShort(string(strings, stringTable, isBus(l) ? "Bus" : "S"));
+            attrs.writeInt(0);
+        }
+
+        // trips and legs
+        final LittleEndianBuffer tripTable = new LittleEndianBuffer();
+        final LittleEndianBuffer legTable = new LittleEndianBuffer();
+        final int legsOffset = trips * 12;
+        final int platform = string(strings, stringTable, "1");
+        for (int t = 0; t < trips; t++) {
+            tripTable.writeShort(0);
+            tripTable.writeInt(legsOffset + legTable.size());
+            tripTable.writeShort(legs);
+            tripTable.writeShort(legs - 1);
+            final int duration = minute(0, legs - 1, stops + 1, stops) - minute(0, 0, 0, stops);
+            tripTable.writeShort(duration / 60 * 100 + duration % 60);
+            for (int l = 0; l < legs; l++) {
+                legTable.writeShort(hafasTime(minute(t, l, 0, stops)));
+                legTable.writeShort(l * (stops + 1));
+                legTable.writeShort(hafasTime(minute(t, l, stops + 1, stops)));
+                legTable.writeShort((l + 1) * (stops + 1));
+                legTable.writeShort(2); // public transport
+                legTable.writeShort(string(strings, stringTable, lineName(l)));
+                legTable.writeShort(platform);
+                legTable.writeShort(platform);
+                legTable.writeShort(legAttrs[l]);
+                legTable.writeShort(0); // comments
+            }
+        }
+
+        // trip details: header, index, per trip realtime data, intermediate stops
+        final int tripDetailsHeaderSize = 14;
+        final int tripDetailsSize = 12 + legs * 16;
+        final int stopsOffset = tripDetailsHeaderSize + trips * 2 + trips * tripDetailsSize;
+        final LittleEndianBuffer tripDetails = new LittleEndianBuffer();
+        tripDetails.writeShort(1); // version
+        tripDetails.writeShort(0);
+        tripDetails.writeShort(tripDetailsHeaderSize);
+        tripDetails.writeShort(12); // leg offset
+        tripDetails.writeShort(16); // leg size
+        tripDetails.writeShort(26); // stop size
+        tripDetails.writeShort(stopsOffset);
+        for (int t = 0; t < trips; t++)
+            tripDetails.writeShort(tripDetailsHeaderSize + trips * 2 + t * tripDetailsSize);
+        final LittleEndianBuffer stopTable = new LittleEndianBuffer();
+        int stopIndex = 0;
+        for (int t = 0; t < trips; t++) {
+            tripDetails.writeShort(0); // realtime status
+            tripDetails.writeShort(0); // delay
+            tripDetails.writeShort(0); // leg index
+            tripDetails.writeShort(0xffff);
+            tripDetails.writeShort(0); // leg status
+            tripDetails.writeShort(0);
+            final int delay = t % 3;
+            for (int l = 0; l < legs; l++) {
+                tripDetails.writeShort(hafasTime(minute(t, l, 0, stops) + delay));
+                tripDetails.writeShort(hafasTime(minute(t, l, stops + 1, stops) + delay));
+                tripDetails.writeShort(platform);
+                tripDetails.writeShort(platform);
+                tripDetails.writeShort(0); // not cancelled
+                tripDetails.writeShort(0);
+                tripDetails.writeShort(stops > 0 ? stopIndex : 0);
+                tripDetails.writeShort(stops);
+                for (int s = 1; s <= stops; s++) {
+                    final int minute = minute(t, l, s, stops);
+                    stopTable.writeShort(hafasTime(minute));
+                    stopTable.writeShort(hafasTime(minute));
+                    stopTable.writeShort(platform);
+                    stopTable.writeShort(platform);
+                    stopTable.writeInt(0);
+                    stopTable.writeShort(hafasTime(minute + delay));
+                    stopTable.writeShort(hafasTime(minute + delay));
+                    stopTable.writeShort(0);
+                    stopTable.writeShort(0);
+                    stopTable.writeShort(0); // not cancelled
+                    stopTable.writeShort(0);
+                    stopTable.writeShort(l * (stops + 1) + s);
+                    stopIndex++;
+                }
+            }
+        }
+        tripDetails.write(stopTable);
+
+        // no disruptions
+        final LittleEndianBuffer disruptions = new LittleEndianBuffer();
+        disruptions.writeShort(0);
+
+        final int encoding = string(strings, stringTable, "UTF-8");
+        final int requestId = string(strings, stringTable, "synthetic");
+        final int ld = string(strings, stringTable, "synthetic");
+        final int departureName = string(strings, stringTable, stationName(0));
+        final int arrivalName = string(strings, stringTable, stationName(numStations - 1));
+
+        // layout
+        final int headerSize = 0x4a;
+        final int stringTablePtr = headerSize + tripTable.size() + legTable.size();
+        final int serviceDaysTablePtr = stringTablePtr + stringTable.size();
+        final int stationTablePtr = serviceDaysTablePtr + serviceDaysTable.size();
+        final int commentTablePtr = stationTablePtr + stationTable.size();
+        final int tripDetailsPtr = commentTablePtr + commentTable.size();
+        final int attrsPtr = tripDetailsPtr + tripDetails.size();
+        final int disruptionsPtr = attrsPtr + attrs.size();
+        final int extensionHeaderPtr = disruptionsPtr + disruptions.size();
+
+        final LittleEndianBuffer out = new LittleEndianBuffer();
+        out.writeShort(6); // version
+        writeHafasLocation(out, departureName, 0);
+        writeHafasLocation(out, arrivalName, numStations - 1);
+        out.writeShort(trips);
+        out.writeInt(serviceDaysTablePtr);
+        out.writeInt(stringTablePtr);
+        final int date = hafasDate();
+        out.writeShort(date);
+        out.writeShort(date);
+        out.pad(0x36);
+        out.writeInt(stationTablePtr);
+        out.writeInt(commentTablePtr);
+        out.pad(0x46);
+        out.writeInt(extensionHeaderPtr);
+        out.write(tripTable);
+        out.write(legTable);
+        out.write(stringTable);
+        out.write(serviceDaysTable);
+        out.write(stationTable);
+        out.write(commentTable);
+        out.write(tripDetails);
+        out.write(attrs);
+        out.write(disruptions);
+
+        // extension header
+        out.writeInt(0x2c);
+        out.writeInt(0);
+        out.writeShort(1); // sequence number
+        out.writeShort(requestId);
+        out.writeInt(tripDetailsPtr);
+        out.writeShort(0); // error code
+        out.writeShort(0);
+        out.writeInt(disruptionsPtr);
+        out.pad(extensionHeaderPtr + 0x20);
+        out.writeShort(encoding);
+        out.writeShort(ld);
+        out.writeInt(attrsPtr);
+        out.pad(extensionHeaderPtr + 0x2c);
+        if (out.size() > HAFAS_BINARY_MAX_SIZE)
+            throw new IllegalArgumentException("response of " + out.size() + " bytes exceeds parser buffer");
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(out.toByteArray());
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeHafasLocation(final LittleEndianBuffer out, final int name, final int station) {
+        out.writeShort(name);
+        out.writeShort(0);
+        out.writeShort(1); // station
+        out.writeInt(lon(station));
+        out.writeInt(lat(station));
+    }
+
+    private static int string(final Map<String, Integer> strings, final LittleEndianBuffer table, final String string) {
+        final Integer existing = strings.get(string);
+        if (existing != null)
+            return existing;
+        final int pointer = table.size();
+        if (pointer > 0xffff)
+            throw new IllegalStateException("HAFAS string table exceeds 64 KiB");
+        table.write(string.getBytes(Charsets.UTF_8));
+        table.writeByte(0);
+        strings.put(string, pointer);
+        return pointer;
+    }
+
+    private static int hafasTime(final int minute) {
+        return minute / 60 * 100 + minute % 60;
+    }
+
+    private static int hafasDate() {
+        final Calendar epoch = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        epoch.clear();
+        epoch.set(1980, Calendar.JANUARY, 1);
+        final Calendar date = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        date.clear();
+        date.set(YEAR, MONTH, DAY);
+        return (int) ((date.getTimeInMillis() - epoch.getTimeInMillis()) / 86400000L) + 1;
+    }
+
+    /**
+     * EFA {@code itdTripRequest} XML as parsed by {@code AbstractEfaProvider.queryTrips()}, with every leg carrying
+     * a stop sequence and a path of {@code pathPoints} coordinates.
+     */
+    public static byte[] efaTripsXml(final int trips, final int legs, final int stops, final int pathPoints) {
+        final int numStations = numStations(legs, stops);
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<itdRequest version=\"10.2.2.48\" now=\"").append(String.format(Locale.ENGLISH,
+                "%04d-%02d-%02dT06:00:00", YEAR, MONTH + 1, DAY)).append("\" sessionID=\"0\" serverID=\"synthetic\">");
+        xml.append("<itdTripRequest requestID=\"1\">");
+        efaOdv(xml, "origin", 0);
+        efaOdv(xml, "destination", numStations - 1);
+        xml.append("<itdTripDateTime><itdDateTime>");
+        efaDateTime(xml, FIRST_DEPARTURE, false);
+        xml.append("</itdDateTime></itdTripDateTime>");
+        xml.append("<itdTripOptions/>");
+        xml.append("<itdItinerary><itdRouteList>");
+        for (int t = 0; t < trips; t++) {
+            xml.append("<itdRoute changes=\"").append(legs - 1).append("\"><itdPartialRouteList>");
+            for (int l = 0; l < legs; l++) {
+                final int departure = l * (stops + 1);
+                final int arrival = (l + 1) * (stops + 1);
+                xml.append("<itdPartialRoute type=\"IT\">");
+                efaPoint(xml, "departure", departure);
+                efaDateTime(xml, minute(t, l, 0, stops), true);
+                xml.append("</itdPoint>");
+                efaPoint(xml, "arrival", arrival);
+                efaDateTime(xml, minute(t, l, stops + 1, stops), true);
+                xml.append("</itdPoint>");
+                final boolean bus = isBus(l);
+                xml.append("<itdMeansOfTransport name=\"").append(lineName(l)).append("\" shortname=\"")
+                        .append(bus ? 100 + l : 1 + l).append("\" symbol=\"")
+                        .append(bus ? Integer.toString(100 + l) : "S" + (1 + l)).append("\" productName=\"")
+                        .append(bus ? "Bus" : "S-Bahn").append("\" destination=\"").append(stationName(arrival))
+                        .append("\" destID=\"").append(stationId(arrival)).append("\" type=\"")
+                        .append(bus ? 5 : 1).append("\" motType=\"").append(bus ? 5 : 1).append("\">");
+                xml.append("<motDivaParams network=\"syn\" line=\"").append(l)
+                        .append("\" supplement=\" \" direction=\"H\" project=\"s17\"/>");
+                xml.append("</itdMeansOfTransport>");
+                xml.append("<itdStopSeq>");
+                for (int s = 0; s <= stops + 1; s++) {
+                    efaPoint(xml, null, departure + s);
+                    xml.append("<itdDateTime>");
+                    if (s > 0)
+                        efaDateTime(xml, minute(t, l, s, stops), false);
+                    else
+                        efaNoDateTime(xml);
+                    xml.append("</itdDateTime><itdDateTime>");
+                    if (s <= stops)
+                        efaDateTime(xml, minute(t, l, s, stops), false);
+                    else
+                        efaNoDateTime(xml);
+                    xml.append("</itdDateTime></itdPoint>");
+                }
+                xml.append("</itdStopSeq>");
+                if (pathPoints > 0) {
+                    xml.append("<itdPathCoordinates><coordEllipsoid>WGS84</coordEllipsoid>");
+                    xml.append("<coordType>GEO_DECIMAL</coordType>");
+                    xml.append("<itdCoordinateString decimal=\".\" cs=\",\" ts=\" \">");
+                    for (int p = 0; p < pathPoints; p++) {
+                        final double f = pathPoints > 1 ? (double) p / (pathPoints - 1) : 0;
+                        if (p > 0)
+                            xml.append(' ');
+                        xml.append(Math.round(lon(departure) + f * (lon(arrival) - lon(departure)))).append(".00000,")
+                                .append(Math.round(lat(departure) + f * (lat(arrival) - lat(departure))))
+                                .append(".00000");
+                    }
+                    xml.append("</itdCoordinateString></itdPathCoordinates>");
+                }
+                xml.append("</itdPartialRoute>");
+            }
+            xml.append("</itdPartialRouteList></itdRoute>");
+        }
+        xml.append("</itdRouteList></itdItinerary></itdTripRequest></itdRequest>");
+        return xml.toString().getBytes(Charsets.UTF_8);
+    }
+
+    private static void efaOdv(final StringBuilder xml, final String usage, final int station) {
+        xml.append("<itdOdv usage=\"").append(usage).append("\" type=\"stop\">");
+        xml.append("<itdOdvPlace state=\"identified\"><odvPlaceElem>Synthetic</odvPlaceElem></itdOdvPlace>");
+        xml.append("<itdOdvName state=\"identified\"><odvNameElem stateless=\"").append(stationId(station))
+                .append("\" objectName=\"").append(stationName(station)).append("\" locality=\"Synthetic\" x=\"")
+                .append(lon(station)).append(".00000\" y=\"").append(lat(station))
+                .append(".00000\" mapName=\"WGS84\">").append(stationName(station)).append("</odvNameElem>");
+        xml.append("</itdOdvName></itdOdv>");
+    }
+
+    private static void efaPoint(final StringBuilder xml, final String usage, final int station) {
+        xml.append("<itdPoint");
+        if (usage != null)
+            xml.append(" usage=\"").append(usage).append('"');
+        xml.append(" stopID=\"").append(stationId(station)).append("\" name=\"Synthetic, ")
+                .append(stationName(station)).append("\" nameWO=\"").append(stationName(station))
+                .append("\" locality=\"Synthetic\" platformName=\"1\" mapName=\"WGS84\" x=\"").append(lon(station))
+                .append(".00000\" y=\"").append(lat(station)).append(".00000\">");
+    }
+
+    private static void efaDateTime(final StringBuilder xml, final int minute, final boolean wrapped) {
+        final Calendar calendar = new GregorianCalendar(YEAR, MONTH, DAY);
+        calendar.add(Calendar.MINUTE, minute);
+        if (wrapped)
+            xml.append("<itdDateTime>");
+        xml.append("<itdDate year=\"").append(calendar.get(Calendar.YEAR)).append("\" month=\"")
+                .append(calendar.get(Calendar.MONTH) + 1).append("\" day=\"")
+                .append(calendar.get(Calendar.DAY_OF_MONTH)).append("\" weekday=\"")
+                .append(calendar.get(Calendar.DAY_OF_WEEK)).append("\"/>");
+        xml.append("<itdTime hour=\"").append(calendar.get(Calendar.HOUR_OF_DAY)).append("\" minute=\"")
+                .append(calendar.get(Calendar.MINUTE)).append("\"/>");
+        if (wrapped)
+            xml.append("</itdDateTime>");
+    }
+
+    private static void efaNoDateTime(final StringBuilder xml) {
+        xml.append("<itdDate year=\"-1\" month=\"-1\" day=\"-1\" weekday=\"-1\"/><itdTime hour=\"-1\" minute=\"-1\"/>");
+    }
+
+    /**
+     * HAFAS mobile {@code TripSearch} JSON as parsed by {@code AbstractHafasMobileProvider.jsonTripSearch()}, with
+     * the full pass list of every journey.
+     */
+    public static byte[] hafasMobileTripSearchJson(final int trips, final int legs, final int stops) {
+        final int numStations = numStations(legs, stops);
+        final StringBuilder json = new StringBuilder();
+        json.append("{\"ver\":\"1.11\",\"lang\":\"deu\",\"id\":\"synthetic\",\"svcResL\":[");
+        json.append("{\"meth\":\"TripSearch\",\"err\":\"OK\",\"res\":{\"common\":{\"locL\":[");
+        for (int i = 0; i < numStations; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"type\":\"S\",\"name\":\"").append(stationName(i)).append("\",\"extId\":\"")
+                    .append(stationId(i)).append("\",\"crd\":{\"x\":").append(lon(i)).append(",\"y\":")
+                    .append(lat(i)).append("},\"pCls\":9}");
+        }
+        json.append("],\"prodL\":[");
+        for (int l = 0; l < legs; l++) {
+            if (l > 0)
+                json.append(',');
+            json.append("{\"name\":\"").append(lineName(l)).append("\",\"cls\":").append(isBus(l) ? 8 : 1)
+                    .append(",\"oprX\":0}");
+        }
+        json.append("],\"opL\":[{\"name\":\"Synthetic\"}],\"remL\":[]},\"outConL\":[");
+        final String date = String.format(Locale.ENGLISH, "%04d%02d%02d", YEAR, MONTH + 1, DAY);
+        for (int t = 0; t < trips; t++) {
+            if (t > 0)
+                json.append(',');
+            json.append("{\"date\":\"").append(date).append("\",\"dep\":{\"locX\":0,\"dTimeS\":\"")
+                    .append(jsonTime(minute(t, 0, 0, stops))).append("\"},\"arr\":{\"locX\":")
+                    .append(numStations - 1).append(",\"aTimeS\":\"")
+                    .append(jsonTime(minute(t, legs - 1, stops + 1, stops))).append("\"},\"secL\":[");
+            for (int l = 0; l < legs; l++) {
+                final int departure = l * (stops + 1);
+                if (l > 0)
+                    json.append(',');
+                json.append("{\"type\":\"JNY\",\"dep\":");
+                jsonStop(json, departure, -1, minute(t, l, 0, stops));
+                json.append(",\"arr\":");
+                jsonStop(json, departure + stops + 1, minute(t, l, stops + 1, stops), -1);
+                json.append(",\"jny\":{\"prodX\":").append(l).append(",\"dirTxt\":\"")
+                        .append(stationName(departure + stops + 1)).append("\",\"stopL\":[");
+                for (int s = 0; s <= stops + 1; s++) {
+                    if (s > 0)
+                        json.append(',');
+                    final int minute = minute(t, l, s, stops);
+                    jsonStop(json, departure + s, s > 0 ? minute : -1, s <= stops ? minute : -1);
+                }
+                json.append("]}}");
+            }
+            json.append("]}");
+        }
+        json.append("],\"outCtxScrB\":\"synthetic-earlier\",\"outCtxScrF\":\"synthetic-later\"}}]}");
+        return json.toString().getBytes(Charsets.UTF_8);
+    }
+
+    private static void jsonStop(final StringBuilder json, final int station, final int arrival,
+            final int departure) {
+        json.append("{\"locX\":").append(station);
+        if (arrival >= 0)
+            json.append(",\"aTimeS\":\"").append(jsonTime(arrival)).append("\",\"aPlatfS\":\"1\"");
+        if (departure >= 0)
+            json.append(",\"dTimeS\":\"").append(jsonTime(departure)).append("\",\"dPlatfS\":\"1\"");
+        json.append('}');
+    }
+
+    private static String jsonTime(final int minute) {
+        final int day = minute / (24 * 60);
+        final int minuteOfDay = minute % (24 * 60);
+        return (day > 0 ? String.format(Locale.ENGLISH, "%02d", day) : "")
+                + String.format(Locale.ENGLISH, "%02d%02d00", minuteOfDay / 60, minuteOfDay % 60);
+    }
+
+    private static final class LittleEndianBuffer {
+        private byte[] buf = new byte[256];
+        private int size = 0;
+
+        private void ensure(final int extra) {
+            if (size + extra > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+
+        void writeByte(final int value) {
+            ensure(1);
+            buf[size++] = (byte) value;
+        }
+
+        void writeShort(final int value) {
+            if (value < 0 || value > 0xffff)
+                throw new IllegalStateException("value exceeds 16 bits: " + value);
+            ensure(2);
+            buf[size++] = (byte) value;
+            buf[size++] = (byte) (value >> 8);
+        }
+
+        void writeInt(final int value) {
+            ensure(4);
+            buf[size++] = (byte) value;
+            buf[size++] = (byte) (value >> 8);
+            buf[size++] = (byte) (value >> 16);
+            buf[size++] = (byte) (value >> 24);
+        }
+
+        void write(final byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void write(final LittleEndianBuffer other) {
+            write(other.toByteArray());
+        }
+
+        /** Fills with zeros up to the given absolute position. */
+        void pad(final int position) {
+            if (position < size)
+                throw new IllegalStateException("already at " + size + ", cannot pad to " + position);
+            while (size < position)
+                writeByte(0);
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+}
@@ -1735,8 +1735,8 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
             final String network = lineId.substring(0, lineId.indexOf(':'));
             final Line parsedLine = parseLine(lineId, network, productType, symbol, symbol, null, trainType, trainNum,
                     productName);
-            line = new Line(parsedLine.id, parsedLine.network, parsedLine.product, parsedLine.label,
-                    lineStyle(parsedLine.network, parsedLine.product, parsedLine.label));
+            line = internLine(parsedLine.id, parsedLine.network, parsedLine.product, parsedLine.label, null, null,
+                    null);
         }
 
         XmlPullUtil.skipExit(pp, "m");
@@ -1915,8 +1915,8 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
         final Line slLine = parseLine(slStateless, divaNetwork, slMotType, slSymbol, slNumber, slNumber, trainType,
                 slTrainNum, trainName);
 
-        final Line line = new Line(slLine.id, slLine.network, slLine.product, slLine.label,
-                lineStyle(slLine.network, slLine.product, slLine.label), itdMessage);
+        final Line line = internLine(slLine.id, slLine.network, slLine.product, slLine.label, null, null,
+                itdMessage);
         final boolean cancelled = "-9999".equals(itdDelay);
         return new LineDestinationAndCancelled(line, destination, cancelled);
     }
@@ -2629,8 +2629,7 @@ public abstract class AbstractEfaProvider extends AbstractNetworkProvider {
         final Set<Line.Attr> lineAttrs = new HashSet<>();
         if (wheelChairAccess || lowFloorVehicle)
             lineAttrs.add(Line.Attr.WHEEL_CHAIR_ACCESS);
-        final Line styledLine = new Line(line.id, line.network, line.product, line.label,
-                lineStyle(line.network, line.product, line.label), lineAttrs);
+        final Line styledLine = internLine(line.id, line.network, line.product, line.label, null, lineAttrs, null);
 
         final Stop departure = new Stop(departureLocation, true,
                 departureTargetTime != null ? departureTargetTime : departureTime,
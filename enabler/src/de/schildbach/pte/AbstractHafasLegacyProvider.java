@@ -3039,14 +3039,12 @@ public abstract class AbstractHafasLegacyProvider extends AbstractHafasProvider
     protected Line newLine(final String network, final Product product, final String normalizedName,
             final String comment, final Line.Attr... attrs) {
         if (attrs.length == 0) {
-            return new Line(null, network, product, normalizedName, lineStyle(network, product, normalizedName),
-                    comment);
+            return internLine(null, network, product, normalizedName, null, null, comment);
         } else {
             final Set<Line.Attr> attrSet = new HashSet<>();
             for (final Line.Attr attr : attrs)
                 attrSet.add(attr);
-            return new Line(null, network, product, normalizedName, lineStyle(network, product, normalizedName),
-                    attrSet, comment);
+            return internLine(null, network, product, normalizedName, null, attrSet, comment);
         }
     }
 }
\ No newline at end of file
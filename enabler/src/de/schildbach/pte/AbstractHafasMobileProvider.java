@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
@@ -33,6 +34,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +45,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
 
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Fare;
@@ -56,6 +60,7 @@ import de.schildbach.pte.dto.QueryDeparturesResult;
 import de.schildbach.pte.dto.QueryTripsContext;
 import de.schildbach.pte.dto.QueryTripsResult;
 import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StatelessQueryTripsContext;
 import de.schildbach.pte.dto.StationDepartures;
 import de.schildbach.pte.dto.Stop;
 import de.schildbach.pte.dto.SuggestLocationsResult;
@@ -78,6 +83,12 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
     @Nullable
     public String apiClient;
 
+    private static final int MAX_BATCH_SIZE = 16;
+    private long batchWindowMs = 0;
+    private final Object batchLock = new Object();
+    @Nullable
+    private MgateBatch openBatch = null;
+
     public AbstractHafasMobileProvider(final NetworkId network, final HttpUrl apiBase, final Product[] productsMap) {
         super(network, productsMap);
         this.mgateEndpoint = apiBase.newBuilder().addPathSegment("mgate.exe").build();
@@ -98,6 +109,17 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
         return this;
     }
 
+    /**
+     * Collects {@code StationBoard}, {@code LocMatch} and {@code LocGeoPos} calls arriving within the given window,
+     * from any thread, into one mgate request of up to 16 service requests. The first call of each batch waits out
+     * the window, so this trades a little latency for fewer round trips under concurrent load. Zero, the default,
+     * sends every call on its own.
+     */
+    public AbstractHafasMobileProvider setBatchWindow(final long batchWindowMs) {
+        this.batchWindowMs = batchWindowMs;
+        return this;
+    }
+
     @Override
     public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
             final int maxDistance, final int maxLocations) throws IOException {
@@ -135,60 +157,106 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
 
     protected final NearbyLocationsResult jsonLocGeoPos(final EnumSet<LocationType> types, final int lat, final int lon)
             throws IOException {
-        final boolean getPOIs = types.contains(LocationType.POI);
-        final String request = wrapJsonApiRequest("LocGeoPos",
-                "{\"ring\":" //
-                        + "{\"cCrd\":{\"x\":" + lon + ",\"y\":" + lat + "}}," //
-                        + "\"getPOIs\":" + getPOIs + "}", //
-                false);
-
         final HttpUrl url = checkNotNull(mgateEndpoint);
-        final CharSequence page = httpClient.get(url, request, "application/json");
+        final JSONObject head = jsonServiceRequest("LocGeoPos", jsonLocGeoPosRequest(types, lat, lon), false);
 
         try {
-            final JSONObject head = new JSONObject(page.toString());
-            final String headErr = head.optString("err", null);
-            if (headErr != null)
-                throw new RuntimeException(headErr);
             final ResultHeader header = new ResultHeader(network, SERVER_PRODUCT, head.getString("ver"), null, 0, null);
 
             final JSONArray svcResList = head.getJSONArray("svcResL");
             checkState(svcResList.length() == 1);
-            final JSONObject svcRes = svcResList.optJSONObject(0);
-            checkState("LocGeoPos".equals(svcRes.getString("meth")));
-            final String err = svcRes.getString("err");
-            if (!"OK".equals(err)) {
-                final String errTxt = svcRes.getString("errTxt");
-                throw new RuntimeException(err + " " + errTxt);
-            }
-            final JSONObject res = svcRes.getJSONObject("res");
+            final List<Location> locations = parseLocGeoPosRes(svcResList.optJSONObject(0), types);
 
-            final JSONObject common = res.getJSONObject("common");
-            /* final List<String[]> remarks = */ parseRemList(common.getJSONArray("remL"));
+            return new NearbyLocationsResult(header, locations);
+        } catch (final JSONException x) {
+            throw new ParserException("cannot parse json: '" + head + "' on " + url, x);
+        }
+    }
 
-            final JSONArray locL = res.optJSONArray("locL");
-            final List<Location> locations;
-            if (locL != null) {
-                locations = parseLocList(locL);
+    private String jsonLocGeoPosRequest(final EnumSet<LocationType> types, final int lat, final int lon) {
+        final boolean getPOIs = types.contains(LocationType.POI);
+        return "{\"ring\":" //
+                + "{\"cCrd\":{\"x\":" + lon + ",\"y\":" + lat + "}}," //
+                + "\"getPOIs\":" + getPOIs + "}";
+    }
 
-                // filter unwanted location types
-                for (Iterator<Location> i = locations.iterator(); i.hasNext();) {
-                    final Location location = i.next();
-                    if (!types.contains(location.type))
-                        i.remove();
-                }
-            } else {
-                locations = Collections.emptyList();
-            }
+    private List<Location> parseLocGeoPosRes(final JSONObject svcRes, final EnumSet<LocationType> types)
+            throws JSONException {
+        checkState("LocGeoPos".equals(svcRes.getString("meth")));
+        final String err = svcRes.getString("err");
+        if (!"OK".equals(err)) {
+            final String errTxt = svcRes.getString("errTxt");
+            throw new RuntimeException(err + " " + errTxt);
+        }
+        final JSONObject res = svcRes.getJSONObject("res");
 
-            return new NearbyLocationsResult(header, locations);
-        } catch (final JSONException x) {
-            throw new ParserException("cannot parse json: '" + page + "' on " + url, x);
+        final JSONObject common = res.getJSONObject("common");
+        /* final List<String[]> remarks = */ parseRemList(common.getJSONArray("remL"));
+
+        final JSONArray locL = res.optJSONArray("locL");
+        if (locL == null)
+            return Collections.emptyList();
+        final List<Location> locations = parseLocList(locL);
+
+        // filter unwanted location types
+        for (Iterator<Location> i = locations.iterator(); i.hasNext();) {
+            final Location location = i.next();
+            if (!types.contains(location.type))
+                i.remove();
         }
+        return locations;
     }
 
     protected final QueryDeparturesResult jsonStationBoard(final String stationId, final @Nullable Date time,
             final int maxDepartures, final boolean equivs) throws IOException {
+        final HttpUrl url = checkNotNull(mgateEndpoint);
+        final JSONObject head = jsonServiceRequest("StationBoard",
+                jsonStationBoardRequest(stationId, time, maxDepartures, equivs), false);
+
+        try {
+            final ResultHeader header = new ResultHeader(network, SERVER_PRODUCT, head.getString("ver"), null, 0, null);
+
+            final JSONArray svcResList = head.getJSONArray("svcResL");
+            checkState(svcResList.length() == 1);
+            return parseStationBoardRes(header, svcResList.optJSONObject(0), stationId, equivs);
+        } catch (final JSONException x) {
+            throw new ParserException("cannot parse json: '" + head + "' on " + url, x);
+        }
+    }
+
+    /**
+     * Queries the departures of several stations with as few mgate requests as possible, each carrying up to 16
+     * {@code StationBoard} service requests. Unlike {@link #setBatchWindow(long)}, this doesn't wait for other
+     * callers. Results are in the order of the given station ids.
+     */
+    public List<QueryDeparturesResult> queryDepartures(final List<String> stationIds, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final HttpUrl url = checkNotNull(mgateEndpoint);
+        final List<QueryDeparturesResult> results = new ArrayList<>(stationIds.size());
+        for (final List<String> chunk : Lists.partition(stationIds, MAX_BATCH_SIZE)) {
+            final List<String> reqs = new ArrayList<>(chunk.size());
+            for (final String stationId : chunk)
+                reqs.add(jsonStationBoardRequest(stationId, time, maxDepartures, equivs));
+            final JSONObject head = jsonServiceRequests(Collections.nCopies(chunk.size(), "StationBoard"), reqs,
+                    false);
+
+            try {
+                final ResultHeader header = new ResultHeader(network, SERVER_PRODUCT, head.getString("ver"), null, 0,
+                        null);
+
+                final JSONArray svcResList = head.getJSONArray("svcResL");
+                checkState(svcResList.length() == chunk.size());
+                for (int i = 0; i < chunk.size(); i++)
+                    results.add(parseStationBoardRes(header, svcResList.getJSONObject(i), chunk.get(i), equivs));
+            } catch (final JSONException x) {
+                throw new ParserException("cannot parse json: '" + head + "' on " + url, x);
+            }
+        }
+        return results;
+    }
+
+    private String jsonStationBoardRequest(final String stationId, final @Nullable Date time, final int maxDepartures,
+            final boolean equivs) {
         final Calendar c = new GregorianCalendar(timeZone);
         c.setTime(time);
         final CharSequence jsonDate = jsonDate(c);
@@ -197,143 +265,109 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
         final CharSequence stbFltrEquiv = Boolean.toString(!equivs);
         final CharSequence maxJny = Integer.toString(maxDepartures != 0 ? maxDepartures : DEFAULT_MAX_DEPARTURES);
         final CharSequence getPasslist = Boolean.toString(true); // traffic expensive
-        final String request = wrapJsonApiRequest("StationBoard",
-                "{\"type\":\"DEP\"," //
-                        + "\"date\":\"" + jsonDate + "\"," //
-                        + "\"time\":\"" + jsonTime + "\"," //
-                        + "\"stbLoc\":{\"type\":\"S\"," + "\"state\":\"F\"," // F/M
-                        + "\"extId\":" + JSONObject.quote(normalizedStationId.toString()) + "}," //
-                        + "\"stbFltrEquiv\":" + stbFltrEquiv + ",\"maxJny\":" + maxJny + ",\"getPasslist\":"
-                        + getPasslist + "}",
-                false);
+        final String req = "{\"type\":\"DEP\"," //
+                + "\"date\":\"" + jsonDate + "\"," //
+                + "\"time\":\"" + jsonTime + "\"," //
+                + "\"stbLoc\":{\"type\":\"S\"," + "\"state\":\"F\"," // F/M
+                + "\"extId\":" + JSONObject.quote(normalizedStationId.toString()) + "}," //
+                + "\"stbFltrEquiv\":" + stbFltrEquiv + ",\"maxJny\":" + maxJny + ",\"getPasslist\":" + getPasslist
+                + "}";
+        return req;
+    }
 
-        final HttpUrl url = checkNotNull(mgateEndpoint);
-        final CharSequence page = httpClient.get(url, request, "application/json");
+    private QueryDeparturesResult parseStationBoardRes(final ResultHeader header, final JSONObject svcRes,
+            final String stationId, final boolean equivs) throws JSONException {
+        final Calendar c = new GregorianCalendar(timeZone);
+        final QueryDeparturesResult result = new QueryDeparturesResult(header);
+
+        checkState("StationBoard".equals(svcRes.getString("meth")));
+        final String err = svcRes.getString("err");
+        if (!"OK".equals(err)) {
+            final String errTxt = svcRes.getString("errTxt");
+            log.debug("Hafas error: {} {}", err, errTxt);
+            if ("LOCATION".equals(err) && "HCI Service: location missing or invalid".equals(errTxt))
+                return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
+            if ("FAIL".equals(err) && "HCI Service: request failed".equals(errTxt))
+                return new QueryDeparturesResult(header, QueryDeparturesResult.Status.SERVICE_DOWN);
+            throw new RuntimeException(err + " " + errTxt);
+        } else if ("1.10".equals(apiVersion) && svcRes.toString().length() == 170) {
+            // horrible hack, because API version 1.10 doesn't signal invalid stations via error
+            return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
+        }
+        final JSONObject res = svcRes.getJSONObject("res");
+
+        final JSONObject common = res.getJSONObject("common");
+        /* final List<String[]> remarks = */ parseRemList(common.getJSONArray("remL"));
+        final List<String> operators = parseOpList(common.getJSONArray("opL"));
+        final List<Line> lines = parseProdList(common.getJSONArray("prodL"), operators);
+        final JSONArray locList = common.getJSONArray("locL");
+        final List<Location> locations = parseLocList(locList);
+
+        final JSONArray jnyList = res.optJSONArray("jnyL");
+        if (jnyList != null) {
+            for (int iJny = 0; iJny < jnyList.length(); iJny++) {
+                final JSONObject jny = jnyList.getJSONObject(iJny);
+                final JSONObject stbStop = jny.getJSONObject("stbStop");
+
+                final String stbStopPlatformS = stbStop.optString("dPlatfS", null);
+                c.clear();
+                ParserUtils.parseIsoDate(c, jny.getString("date"));
+                final Date baseDate = c.getTime();
 
-        try {
-            final JSONObject head = new JSONObject(page.toString());
-            final String headErr = head.optString("err", null);
-            if (headErr != null)
-                throw new RuntimeException(headErr);
-            final ResultHeader header = new ResultHeader(network, SERVER_PRODUCT, head.getString("ver"), null, 0, null);
-            final QueryDeparturesResult result = new QueryDeparturesResult(header);
+                final Date plannedTime = parseJsonTime(c, baseDate, stbStop.getString("dTimeS"));
 
-            final JSONArray svcResList = head.getJSONArray("svcResL");
-            checkState(svcResList.length() == 1);
-            final JSONObject svcRes = svcResList.optJSONObject(0);
-            checkState("StationBoard".equals(svcRes.getString("meth")));
-            final String err = svcRes.getString("err");
-            if (!"OK".equals(err)) {
-                final String errTxt = svcRes.getString("errTxt");
-                log.debug("Hafas error: {} {}", err, errTxt);
-                if ("LOCATION".equals(err) && "HCI Service: location missing or invalid".equals(errTxt))
-                    return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
-                if ("FAIL".equals(err) && "HCI Service: request failed".equals(errTxt))
-                    return new QueryDeparturesResult(header, QueryDeparturesResult.Status.SERVICE_DOWN);
-                throw new RuntimeException(err + " " + errTxt);
-            } else if ("1.10".equals(apiVersion) && svcRes.toString().length() == 170) {
-                // horrible hack, because API version 1.10 doesn't signal invalid stations via error
-                return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
-            }
-            final JSONObject res = svcRes.getJSONObject("res");
+                final Date predictedTime = parseJsonTime(c, baseDate, stbStop.optString("dTimeR", null));
 
-            final JSONObject common = res.getJSONObject("common");
-            /* final List<String[]> remarks = */ parseRemList(common.getJSONArray("remL"));
-            final List<String> operators = parseOpList(common.getJSONArray("opL"));
-            final List<Line> lines = parseProdList(common.getJSONArray("prodL"), operators);
-            final JSONArray locList = common.getJSONArray("locL");
-            final List<Location> locations = parseLocList(locList);
-
-            final JSONArray jnyList = res.optJSONArray("jnyL");
-            if (jnyList != null) {
-                for (int iJny = 0; iJny < jnyList.length(); iJny++) {
-                    final JSONObject jny = jnyList.getJSONObject(iJny);
-                    final JSONObject stbStop = jny.getJSONObject("stbStop");
-
-                    final String stbStopPlatformS = stbStop.optString("dPlatfS", null);
-                    c.clear();
-                    ParserUtils.parseIsoDate(c, jny.getString("date"));
-                    final Date baseDate = c.getTime();
-
-                    final Date plannedTime = parseJsonTime(c, baseDate, stbStop.getString("dTimeS"));
-
-                    final Date predictedTime = parseJsonTime(c, baseDate, stbStop.optString("dTimeR", null));
-
-                    final Line line = lines.get(stbStop.getInt("dProdX"));
-
-                    final Location location = equivs ? locations.get(stbStop.getInt("locX"))
-                            : new Location(LocationType.STATION, stationId);
-                    final Position position = normalizePosition(stbStopPlatformS);
-
-                    final String jnyDirTxt = jny.getString("dirTxt");
-                    final JSONArray stopList = jny.optJSONArray("stopL");
-                    final Location destination;
-                    if (stopList != null) {
-                        final int lastStopIdx = stopList.getJSONObject(stopList.length() - 1).getInt("locX");
-                        final String lastStopName = locList.getJSONObject(lastStopIdx).getString("name");
-                        if (jnyDirTxt.equals(lastStopName))
-                            destination = locations.get(lastStopIdx);
-                        else
-                            destination = new Location(LocationType.ANY, null, null, jnyDirTxt);
-                    } else {
-                        destination = new Location(LocationType.ANY, null, null, jnyDirTxt);
-                    }
+                final Line line = lines.get(stbStop.getInt("dProdX"));
 
-                    final Departure departure = new Departure(plannedTime, predictedTime, line, position, destination,
-                            null, null);
+                final Location location = equivs ? locations.get(stbStop.getInt("locX"))
+                        : new Location(LocationType.STATION, stationId);
+                final Position position = normalizePosition(stbStopPlatformS);
 
-                    StationDepartures stationDepartures = findStationDepartures(result.stationDepartures, location);
-                    if (stationDepartures == null) {
-                        stationDepartures = new StationDepartures(location, new ArrayList<Departure>(8), null);
-                        result.stationDepartures.add(stationDepartures);
-                    }
+                final String jnyDirTxt = jny.getString("dirTxt");
+                final JSONArray stopList = jny.optJSONArray("stopL");
+                final Location destination;
+                if (stopList != null) {
+                    final int lastStopIdx = stopList.getJSONObject(stopList.length() - 1).getInt("locX");
+                    final String lastStopName = locList.getJSONObject(lastStopIdx).getString("name");
+                    if (jnyDirTxt.equals(lastStopName))
+                        destination = locations.get(lastStopIdx);
+                    else
+                        destination = new Location(LocationType.ANY, null, null, jnyDirTxt);
+                } else {
+                    destination = new Location(LocationType.ANY, null, null, jnyDirTxt);
+                }
+
+                final Departure departure = new Departure(plannedTime, predictedTime, line, position, destination,
+                        null, null);
 
-                    stationDepartures.departures.add(departure);
+                StationDepartures stationDepartures = findStationDepartures(result.stationDepartures, location);
+                if (stationDepartures == null) {
+                    stationDepartures = new StationDepartures(location, new ArrayList<Departure>(8), null);
+                    result.stationDepartures.add(stationDepartures);
                 }
+
+                stationDepartures.departures.add(departure);
             }
+        }
 
-            // sort departures
-            for (final StationDepartures stationDepartures : result.stationDepartures)
-                Collections.sort(stationDepartures.departures, Departure.TIME_COMPARATOR);
+        // sort departures
+        for (final StationDepartures stationDepartures : result.stationDepartures)
+            Collections.sort(stationDepartures.departures, Departure.TIME_COMPARATOR);
 
-            return result;
-        } catch (final JSONException x) {
-            throw new ParserException("cannot parse json: '" + page + "' on " + url, x);
-        }
+        return result;
     }
 
     protected final SuggestLocationsResult jsonLocMatch(final CharSequence constraint) throws IOException {
-        final String request = wrapJsonApiRequest("LocMatch",
-                "{\"input\":{\"field\":\"S\",\"loc\":{\"name\":" + JSONObject.quote(checkNotNull(constraint).toString())
-                        + ",\"meta\":false},\"maxLoc\":" + DEFAULT_MAX_LOCATIONS + "}}",
-                true);
-
         final HttpUrl url = checkNotNull(mgateEndpoint);
-        final CharSequence page = httpClient.get(url, request, "application/json");
+        final JSONObject head = jsonServiceRequest("LocMatch", jsonLocMatchRequest(constraint), true);
 
         try {
-            final JSONObject head = new JSONObject(page.toString());
-            final String headErr = head.optString("err", null);
-            if (headErr != null)
-                throw new RuntimeException(headErr);
             final ResultHeader header = new ResultHeader(network, SERVER_PRODUCT, head.getString("ver"), null, 0, null);
 
             final JSONArray svcResList = head.getJSONArray("svcResL");
             checkState(svcResList.length() == 1);
-            final JSONObject svcRes = svcResList.optJSONObject(0);
-            checkState("LocMatch".equals(svcRes.getString("meth")));
-            final String err = svcRes.getString("err");
-            if (!"OK".equals(err)) {
-                final String errTxt = svcRes.getString("errTxt");
-                throw new RuntimeException(err + " " + errTxt);
-            }
-            final JSONObject res = svcRes.getJSONObject("res");
-
-            final JSONObject common = res.getJSONObject("common");
-            /* final List<String[]> remarks = */ parseRemList(common.getJSONArray("remL"));
-
-            final JSONObject match = res.getJSONObject("match");
-            final List<Location> locations = parseLocList(match.optJSONArray("locL"));
+            final List<Location> locations = parseLocMatchRes(svcResList.optJSONObject(0));
             final List<SuggestedLocation> suggestedLocations = new ArrayList<>(locations.size());
             for (final Location location : locations)
                 suggestedLocations.add(new SuggestedLocation(location));
@@ -341,48 +375,115 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
 
             return new SuggestLocationsResult(header, suggestedLocations);
         } catch (final JSONException x) {
-            throw new ParserException("cannot parse json: '" + page + "' on " + url, x);
+            throw new ParserException("cannot parse json: '" + head + "' on " + url, x);
         }
     }
 
+    private String jsonLocMatchRequest(final CharSequence constraint) {
+        return "{\"input\":{\"field\":\"S\",\"loc\":{\"name\":" + JSONObject.quote(checkNotNull(constraint).toString())
+                + ",\"meta\":false},\"maxLoc\":" + DEFAULT_MAX_LOCATIONS + "}}";
+    }
+
+    private List<Location> parseLocMatchRes(final JSONObject svcRes) throws JSONException {
+        checkState("LocMatch".equals(svcRes.getString("meth")));
+        final String err = svcRes.getString("err");
+        if (!"OK".equals(err)) {
+            final String errTxt = svcRes.getString("errTxt");
+            throw new RuntimeException(err + " " + errTxt);
+        }
+        final JSONObject res = svcRes.getJSONObject("res");
+
+        final JSONObject common = res.getJSONObject("common");
+        /* final List<String[]> remarks = */ parseRemList(common.getJSONArray("remL"));
+
+        final JSONObject match = res.getJSONObject("match");
+        return parseLocList(match.optJSONArray("locL"));
+    }
+
     private static final Joiner JOINER = Joiner.on(' ').skipNulls();
 
-    private Location jsonTripSearchIdentify(final Location location) throws IOException {
-        if (location.hasName()) {
-            final List<Location> locations = jsonLocMatch(JOINER.join(location.place, location.name)).getLocations();
-            if (!locations.isEmpty())
-                return locations.get(0);
+    /**
+     * Identifies all given locations that lack an id, with at most two mgate requests. The first carries a
+     * {@code LocMatch} for each location that has a name. The second carries a {@code LocGeoPos} for each location that
+     * has coordinates but no name, or a name that did not match. Locations that are {@code null} or cannot be
+     * identified yield {@code null}.
+     */
+    private Location[] jsonTripSearchIdentify(final Location... locations) throws IOException {
+        final Location[] identified = new Location[locations.length];
+        final List<Integer> byName = new ArrayList<>();
+        final List<String> locMatchReqs = new ArrayList<>();
+        for (int i = 0; i < locations.length; i++) {
+            final Location location = locations[i];
+            if (location == null)
+                continue;
+            if (location.hasId()) {
+                identified[i] = location;
+            } else if (location.hasName()) {
+                byName.add(i);
+                locMatchReqs.add(jsonLocMatchRequest(JOINER.join(location.place, location.name)));
+            }
+        }
+        if (!byName.isEmpty()) {
+            final JSONObject head = jsonServiceRequests(Collections.nCopies(byName.size(), "LocMatch"), locMatchReqs,
+                    true);
+            try {
+                final JSONArray svcResList = head.getJSONArray("svcResL");
+                checkState(svcResList.length() == byName.size());
+                for (int j = 0; j < byName.size(); j++) {
+                    final List<Location> matches = parseLocMatchRes(svcResList.getJSONObject(j));
+                    if (!matches.isEmpty())
+                        identified[byName.get(j)] = matches.get(0);
+                }
+            } catch (final JSONException x) {
+                throw new ParserException("cannot parse json: '" + head + "' on " + mgateEndpoint, x);
+            }
+        }
+
+        final List<Integer> byCoord = new ArrayList<>();
+        final List<String> locGeoPosReqs = new ArrayList<>();
+        for (int i = 0; i < locations.length; i++) {
+            final Location location = locations[i];
+            if (location != null && identified[i] == null && location.hasLocation()) {
+                byCoord.add(i);
+                locGeoPosReqs.add(jsonLocGeoPosRequest(EnumSet.allOf(LocationType.class), location.lat, location.lon));
+            }
         }
-        if (location.hasLocation()) {
-            final List<Location> locations = jsonLocGeoPos(EnumSet.allOf(LocationType.class), location.lat,
-                    location.lon).locations;
-            if (!locations.isEmpty())
-                return locations.get(0);
+        if (!byCoord.isEmpty()) {
+            final JSONObject head = jsonServiceRequests(Collections.nCopies(byCoord.size(), "LocGeoPos"),
+                    locGeoPosReqs, false);
+            try {
+                final JSONArray svcResList = head.getJSONArray("svcResL");
+                checkState(svcResList.length() == byCoord.size());
+                for (int j = 0; j < byCoord.size(); j++) {
+                    final List<Location> nearby = parseLocGeoPosRes(svcResList.getJSONObject(j),
+                            EnumSet.allOf(LocationType.class));
+                    if (!nearby.isEmpty())
+                        identified[byCoord.get(j)] = nearby.get(0);
+                }
+            } catch (final JSONException x) {
+                throw new ParserException("cannot parse json: '" + head + "' on " + mgateEndpoint, x);
+            }
         }
-        return null;
+
+        return identified;
     }
 
     protected final QueryTripsResult jsonTripSearch(Location from, @Nullable Location via, Location to, final Date time,
             final boolean dep, final @Nullable Set<Product> products, final String moreContext) throws IOException {
-        if (!from.hasId()) {
-            from = jsonTripSearchIdentify(from);
-            if (from == null)
+        if (!from.hasId() || (via != null && !via.hasId()) || !to.hasId()) {
+            final Location[] identified = jsonTripSearchIdentify(from, via, to);
+            if (identified[0] == null)
                 return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
                         QueryTripsResult.Status.UNKNOWN_FROM);
-        }
-
-        if (via != null && !via.hasId()) {
-            via = jsonTripSearchIdentify(via);
-            if (via == null)
+            if (via != null && identified[1] == null)
                 return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
                         QueryTripsResult.Status.UNKNOWN_VIA);
-        }
-
-        if (!to.hasId()) {
-            to = jsonTripSearchIdentify(to);
-            if (to == null)
+            if (identified[2] == null)
                 return new QueryTripsResult(new ResultHeader(network, SERVER_PRODUCT),
                         QueryTripsResult.Status.UNKNOWN_TO);
+            from = identified[0];
+            via = identified[1];
+            to = identified[2];
         }
 
         final Calendar c = new GregorianCalendar(timeZone);
@@ -567,12 +668,138 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
         return null;
     }
 
+    /**
+     * Sends a single service request and returns the mgate response. If a batch window is set, the request may
+     * travel together with concurrent ones, in which case the returned {@code svcResL} holds just its own result.
+     */
+    private JSONObject jsonServiceRequest(final String meth, final String req, final boolean formatted)
+            throws IOException {
+        if (batchWindowMs <= 0)
+            return jsonServiceRequests(Collections.singletonList(meth), Collections.singletonList(req), formatted);
+
+        final MgateBatch batch;
+        final int index;
+        final boolean leader;
+        synchronized (batchLock) {
+            leader = openBatch == null;
+            if (leader)
+                openBatch = new MgateBatch();
+            batch = openBatch;
+            index = batch.add(meth, req);
+            if (index + 1 >= MAX_BATCH_SIZE)
+                openBatch = null;
+        }
+
+        if (leader) {
+            boolean interrupted = false;
+            try {
+                Thread.sleep(batchWindowMs);
+            } catch (final InterruptedException x) {
+                interrupted = true;
+            }
+            synchronized (batchLock) {
+                if (openBatch == batch)
+                    openBatch = null;
+            }
+            batch.execute();
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        return batch.result(index);
+    }
+
+    private JSONObject jsonServiceRequests(final List<String> meths, final List<String> reqs, final boolean formatted)
+            throws IOException {
+        final String request = wrapJsonApiRequests(meths, reqs, formatted);
+
+        final HttpUrl url = checkNotNull(mgateEndpoint);
+        final CharSequence page = httpClient.get(url, request, "application/json");
+
+        try {
+            final JSONObject head = new JSONObject(page.toString());
+            final String headErr = head.optString("err", null);
+            if (headErr != null)
+                throw new RuntimeException(headErr);
+            return head;
+        } catch (final JSONException x) {
+            throw new ParserException("cannot parse json: '" + page + "' on " + url, x);
+        }
+    }
+
+    /**
+     * Service requests collected during one batch window. The first caller sends them all and the other callers
+     * wait for its response.
+     */
+    private final class MgateBatch {
+        private final List<String> meths = new ArrayList<>();
+        private final List<String> reqs = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private JSONObject head;
+        private IOException ioException;
+        private RuntimeException runtimeException;
+
+        private int add(final String meth, final String req) {
+            meths.add(meth);
+            reqs.add(req);
+            return meths.size() - 1;
+        }
+
+        private void execute() {
+            try {
+                head = jsonServiceRequests(meths, reqs, false);
+            } catch (final IOException x) {
+                ioException = x;
+            } catch (final RuntimeException x) {
+                runtimeException = x;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private JSONObject result(final int index) throws IOException {
+            try {
+                done.await();
+            } catch (final InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for batched " + meths.get(index));
+            }
+            if (ioException != null)
+                throw ioException;
+            if (runtimeException != null)
+                throw runtimeException;
+
+            try {
+                final JSONArray svcResList = head.getJSONArray("svcResL");
+                checkState(svcResList.length() == meths.size());
+                final JSONObject single = new JSONObject();
+                single.put("ver", head.getString("ver"));
+                single.put("svcResL", new JSONArray().put(svcResList.getJSONObject(index)));
+                return single;
+            } catch (final JSONException x) {
+                throw new ParserException("cannot parse json: '" + head + "' on " + mgateEndpoint, x);
+            }
+        }
+    }
+
     private String wrapJsonApiRequest(final String meth, final String req, final boolean formatted) {
+        return wrapJsonApiRequests(Collections.singletonList(meth), Collections.singletonList(req), formatted);
+    }
+
+    private String wrapJsonApiRequests(final List<String> meths, final List<String> reqs, final boolean formatted) {
+        checkState(meths.size() == reqs.size());
+        final StringBuilder svcReqL = new StringBuilder();
+        for (int i = 0; i < meths.size(); i++) {
+            if (i > 0)
+                svcReqL.append(',');
+            svcReqL.append("{\"cfg\":{\"polyEnc\":\"GPA\"},\"meth\":\"").append(meths.get(i)).append("\",\"req\":")
+                    .append(reqs.get(i)).append('}');
+        }
         return "{" //
                 + "\"auth\":" + checkNotNull(apiAuthorization) + "," //
                 + "\"client\":" + checkNotNull(apiClient) + "," //
                 + "\"ver\":\"" + checkNotNull(apiVersion) + "\",\"lang\":\"eng\"," //
-                + "\"svcReqL\":[{\"cfg\":{\"polyEnc\":\"GPA\"},\"meth\":\"" + meth + "\",\"req\":" + req + "}]," //
+                + "\"svcReqL\":[" + svcReqL + "]," //
                 + "\"formatted\":" + formatted + "}";
     }
 
@@ -736,11 +963,11 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
             normalizedName = "S" + name.substring(2);
         else
             normalizedName = name;
-        return new Line(null, operator, product, normalizedName, lineStyle(operator, product, normalizedName));
+        return internLine(null, operator, product, normalizedName, null, null, null);
     }
 
     @SuppressWarnings("serial")
-    public static class JsonContext implements QueryTripsContext {
+    public static class JsonContext implements StatelessQueryTripsContext {
         public final Location from, via, to;
         public final Date date;
         public final boolean dep;
@@ -769,5 +996,23 @@ public abstract class AbstractHafasMobileProvider extends AbstractHafasProvider
         public boolean canQueryEarlier() {
             return earlierContext != null;
         }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof JsonContext))
+                return false;
+            final JsonContext other = (JsonContext) o;
+            return Objects.equal(from, other.from) && Objects.equal(via, other.via) && Objects.equal(to, other.to)
+                    && Objects.equal(date, other.date) && dep == other.dep && Objects.equal(products, other.products)
+                    && Objects.equal(laterContext, other.laterContext)
+                    && Objects.equal(earlierContext, other.earlierContext);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(from, via, to, date, dep, products, laterContext, earlierContext);
+        }
     }
 }
\ No newline at end of file
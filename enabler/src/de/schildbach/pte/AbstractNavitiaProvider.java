@@ -23,20 +23,29 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Line;
@@ -52,6 +61,7 @@ import de.schildbach.pte.dto.QueryDeparturesResult;
 import de.schildbach.pte.dto.QueryTripsContext;
 import de.schildbach.pte.dto.QueryTripsResult;
 import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StatelessQueryTripsContext;
 import de.schildbach.pte.dto.StationDepartures;
 import de.schildbach.pte.dto.Stop;
 import de.schildbach.pte.dto.Style;
@@ -64,6 +74,8 @@ import de.schildbach.pte.dto.Trip.Leg;
 import de.schildbach.pte.dto.Trip.Public;
 import de.schildbach.pte.exception.NotFoundException;
 import de.schildbach.pte.exception.ParserException;
+import de.schildbach.pte.util.AreaPolygon;
+import de.schildbach.pte.util.MappedResultStore;
 
 import okhttp3.HttpUrl;
 
@@ -79,6 +91,20 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
     protected HttpUrl apiBase = HttpUrl.parse("https://api.navitia.io/").newBuilder().addPathSegment(SERVER_VERSION)
             .build();
 
+    // stop point to stop area mappings of all regions, keyed by region and stop point id
+    private static final int MAX_STOP_AREA_IDS = 200000;
+    private static final long STOP_AREA_ID_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int STOP_POINTS_PAGE_SIZE = 1000;
+    private static final Cache<String, String> stopAreaIds = CacheBuilder.newBuilder()
+            .maximumSize(MAX_STOP_AREA_IDS).build();
+    private static volatile @Nullable MappedResultStore store = null;
+
+    // areas of all regions, simplified to a tolerance of about ten meters
+    private static final long AREA_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int AREA_TOLERANCE = 100;
+    private static final Cache<String, AreaPolygon> areas = CacheBuilder.newBuilder()
+            .expireAfterWrite(AREA_TTL_MS, TimeUnit.MILLISECONDS).build();
+
     private enum PlaceType {
         ADDRESS, ADMINISTRATIVE_REGION, POI, STOP_POINT, STOP_AREA
     }
@@ -96,7 +122,7 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
     }
 
     @SuppressWarnings("serial")
-    private static class Context implements QueryTripsContext {
+    private static class Context implements StatelessQueryTripsContext {
         private final Location from;
         private final Location to;
         private final String prevQueryUri;
@@ -119,6 +145,23 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
             return (from != null && to != null && prevQueryUri != null);
         }
 
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Context))
+                return false;
+            final Context other = (Context) o;
+            return Objects.equal(from, other.from) && Objects.equal(to, other.to)
+                    && Objects.equal(prevQueryUri, other.prevQueryUri)
+                    && Objects.equal(nextQueryUri, other.nextQueryUri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(from, to, prevQueryUri, nextQueryUri);
+        }
+
         @Override
         public String toString() {
             return getClass().getName() + "[" + from + "|" + to + "|" + prevQueryUri + "|" + nextQueryUri + "]";
@@ -140,6 +183,20 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
 
     protected abstract String region();
 
+    /**
+     * Persists the stop point to stop area mappings and the areas of all Navitia providers in the given store, so
+     * they survive restarts. Pass {@code null} to keep them in memory only.
+     */
+    public static void setStore(final @Nullable MappedResultStore store) {
+        AbstractNavitiaProvider.store = store;
+    }
+
+    // forgets the mappings and areas held in memory, like a restart; for tests
+    static void invalidateMemory() {
+        stopAreaIds.invalidateAll();
+        areas.invalidateAll();
+    }
+
     protected int computeForegroundColor(final String lineColor) {
         int bgColor = Style.parseColor(lineColor);
         return Style.deriveForegroundColor(bgColor);
@@ -223,6 +280,8 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
                 if (admin.length() > 0)
                     place = Strings.emptyToNull(admin.getJSONObject(0).optString("name"));
             }
+            if (placeType == PlaceType.STOP_POINT && location.has("stop_area"))
+                putStopAreaId(id, location.getJSONObject("stop_area").getString("id"));
             Set<Product> products = null;
             if (location.has("stop_area") && location.getJSONObject("stop_area").has("physical_modes")) {
                 products = EnumSet.noneOf(Product.class);
@@ -641,6 +700,10 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
     }
 
     private String getStopAreaId(final String stopPointId) throws IOException {
+        final String cached = cachedStopAreaId(stopPointId);
+        if (cached != null)
+            return cached;
+
         final HttpUrl.Builder url = url().addPathSegment("stop_points").addPathSegment(stopPointId);
         url.addQueryParameter("depth", "1");
         final CharSequence page = httpClient.get(url.build());
@@ -650,12 +713,84 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
             final JSONArray stopPoints = head.getJSONArray("stop_points");
             final JSONObject stopPoint = stopPoints.getJSONObject(0);
             final JSONObject stopArea = stopPoint.getJSONObject("stop_area");
-            return stopArea.getString("id");
+            final String stopAreaId = stopArea.getString("id");
+            putStopAreaId(stopPointId, stopAreaId);
+            return stopAreaId;
         } catch (final JSONException jsonExc) {
             throw new ParserException(jsonExc);
         }
     }
 
+    /**
+     * Loads the stop area of every stop point of this region by paging through the {@code stop_points} listing, so
+     * that departures of stop points including equivalent stations need no extra round trip to map them.
+     * 
+     * @return number of stop points loaded
+     */
+    public int preloadStopAreaIds() throws IOException {
+        int count = 0;
+        for (int startPage = 0;; startPage++) {
+            final HttpUrl.Builder url = url().addPathSegment("stop_points");
+            url.addQueryParameter("count", Integer.toString(STOP_POINTS_PAGE_SIZE));
+            url.addQueryParameter("start_page", Integer.toString(startPage));
+            url.addQueryParameter("depth", "1");
+            url.addQueryParameter("disable_geojson", "true");
+            final CharSequence page = httpClient.get(url.build());
+
+            try {
+                final JSONObject head = new JSONObject(page.toString());
+                final JSONArray stopPoints = head.getJSONArray("stop_points");
+                for (int i = 0; i < stopPoints.length(); i++) {
+                    final JSONObject stopPoint = stopPoints.getJSONObject(i);
+                    final JSONObject stopArea = stopPoint.optJSONObject("stop_area");
+                    if (stopArea != null) {
+                        putStopAreaId(stopPoint.getString("id"), stopArea.getString("id"));
+                        count++;
+                    }
+                }
+
+                final JSONObject pagination = head.getJSONObject("pagination");
+                final int itemsPerPage = pagination.getInt("items_per_page");
+                final int totalResult = pagination.getInt("total_result");
+                if (stopPoints.length() == 0 || itemsPerPage <= 0 || (startPage + 1) * itemsPerPage >= totalResult)
+                    return count;
+            } catch (final JSONException jsonExc) {
+                throw new ParserException(jsonExc);
+            }
+        }
+    }
+
+    private @Nullable String cachedStopAreaId(final String stopPointId) {
+        final String key = region() + '|' + stopPointId;
+        final String stopAreaId = stopAreaIds.getIfPresent(key);
+        if (stopAreaId != null)
+            return stopAreaId;
+
+        final MappedResultStore store = AbstractNavitiaProvider.store;
+        if (store == null)
+            return null;
+        final byte[] stored = store.get(key, System.currentTimeMillis());
+        if (stored == null)
+            return null;
+        final String storedStopAreaId = new String(stored, Charsets.UTF_8);
+        stopAreaIds.put(key, storedStopAreaId);
+        return storedStopAreaId;
+    }
+
+    private void putStopAreaId(final String stopPointId, final String stopAreaId) {
+        final String key = region() + '|' + stopPointId;
+        if (stopAreaId.equals(stopAreaIds.asMap().put(key, stopAreaId)))
+            return;
+
+        final MappedResultStore store = AbstractNavitiaProvider.store;
+        if (store != null) {
+            final long now = System.currentTimeMillis();
+            final byte[] value = stopAreaId.getBytes(Charsets.UTF_8);
+            if (!Arrays.equals(value, store.get(key, now)))
+                store.put(key, value, now + STOP_AREA_ID_TTL_MS, now);
+        }
+    }
+
     @Override
     protected boolean hasCapability(final Capability capability) {
         if (capability == Capability.SUGGEST_LOCATIONS || capability == Capability.NEARBY_LOCATIONS
@@ -1076,44 +1211,54 @@ public abstract class AbstractNavitiaProvider extends AbstractNetworkProvider {
 
     @Override
     public Point[] getArea() throws IOException {
+        return getAreaPolygon().toPoints();
+    }
+
+    /**
+     * Area of this region. It is fetched once and shared by all providers of the region, and persisted if a store
+     * has been set.
+     */
+    public AreaPolygon getAreaPolygon() throws IOException {
+        try {
+            return areas.get(region(), new Callable<AreaPolygon>() {
+                @Override
+                public AreaPolygon call() throws IOException {
+                    return loadAreaPolygon();
+                }
+            });
+        } catch (final ExecutionException | UncheckedExecutionException x) {
+            Throwables.propagateIfPossible(x.getCause(), IOException.class);
+            throw new RuntimeException(x.getCause());
+        }
+    }
+
+    private AreaPolygon loadAreaPolygon() throws IOException {
+        final String key = "area|" + region();
+        final MappedResultStore store = AbstractNavitiaProvider.store;
+        if (store != null) {
+            final byte[] stored = store.get(key, System.currentTimeMillis());
+            if (stored != null)
+                return AreaPolygon.fromBytes(stored);
+        }
+
         final HttpUrl.Builder url = url();
         final CharSequence page = httpClient.get(url.build());
 
+        final AreaPolygon area;
         try {
-            // Get shape string.
             final JSONObject head = new JSONObject(page.toString());
             final JSONArray regions = head.getJSONArray("regions");
             final JSONObject regionInfo = regions.getJSONObject(0);
             final String shape = regionInfo.getString("shape");
+            area = new AreaPolygon(AreaPolygon.simplify(AreaPolygon.parseWktRing(shape), AREA_TOLERANCE));
+        } catch (final JSONException | IllegalArgumentException x) {
+            throw new ParserException(x);
+        }
 
-            // Parse string using JSON tokenizer for coordinates.
-            List<Point> pointList = new ArrayList<>();
-            final JSONTokener shapeTokener = new JSONTokener(shape);
-            shapeTokener.skipTo('(');
-            shapeTokener.next();
-            shapeTokener.next();
-            char c = shapeTokener.next();
-            while (c != ')') {
-                // Navitia coordinates are in (longitude, latitude) order.
-                final String lonString = shapeTokener.nextTo(' ');
-                shapeTokener.next();
-                final String latString = shapeTokener.nextTo(",)");
-                c = shapeTokener.next();
-
-                // Append new point with (latitude, longitude) order.
-                final double lat = Double.parseDouble(latString);
-                final double lon = Double.parseDouble(lonString);
-                pointList.add(Point.fromDouble(lat, lon));
-            }
-
-            // Fill point array.
-            final Point[] pointArray = new Point[pointList.size()];
-            for (int i = 0; i < pointList.size(); ++i)
-                pointArray[i] = pointList.get(i);
-
-            return pointArray;
-        } catch (final JSONException jsonExc) {
-            throw new ParserException(jsonExc);
+        if (store != null) {
+            final long now = System.currentTimeMillis();
+            store.put(key, area.toBytes(), now + AREA_TTL_MS, now);
         }
+        return area;
     }
 }
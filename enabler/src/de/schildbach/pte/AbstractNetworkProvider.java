@@ -20,7 +20,9 @@ package de.schildbach.pte;
 import java.io.IOException;
 import java.net.Proxy;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
@@ -30,13 +32,21 @@ import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
 
+import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.Position;
 import de.schildbach.pte.dto.Product;
 import de.schildbach.pte.dto.Style;
 import de.schildbach.pte.util.HttpClient;
+import de.schildbach.pte.util.HttpTape;
+
+import okhttp3.HttpUrl;
 
 /**
  * @author Andreas Schildbach
@@ -50,6 +60,12 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
     protected int numTripsRequested = 6;
     private @Nullable Map<String, Style> styles = null;
 
+    private static final int MAX_INTERNED_LINES = 2000;
+    private final Cache<List<Object>, Line> internedLines = CacheBuilder.newBuilder()
+            .maximumSize(MAX_INTERNED_LINES).build();
+    private final Cache<List<Object>, Optional<Style>> internedStyles = CacheBuilder.newBuilder()
+            .maximumSize(MAX_INTERNED_LINES).build();
+
     protected static final Set<Product> ALL_EXCEPT_HIGHSPEED = EnumSet
             .complementOf(EnumSet.of(Product.HIGH_SPEED_TRAIN));
 
@@ -88,6 +104,16 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
         return this;
     }
 
+    public AbstractNetworkProvider setHttpTape(final HttpTape httpTape) {
+        httpClient.setTape(httpTape);
+        return this;
+    }
+
+    public AbstractNetworkProvider setUpstreamOverride(final HttpUrl upstreamOverride) {
+        httpClient.setUpstreamOverride(upstreamOverride);
+        return this;
+    }
+
     protected AbstractNetworkProvider setRequestUrlEncoding(final Charset requestUrlEncoding) {
         this.requestUrlEncoding = requestUrlEncoding;
         return this;
@@ -162,6 +188,37 @@ public abstract class AbstractNetworkProvider implements NetworkProvider {
         return Standard.STYLES.get(product);
     }
 
+    /**
+     * Returns a line styled by {@link #lineStyle(String, Product, String)}. Lines with equal fields are shared
+     * across all results of this provider, and the style is only resolved once per distinct line.
+     */
+    protected Line internLine(final @Nullable String id, final @Nullable String network,
+            final @Nullable Product product, final @Nullable String label, final @Nullable String name,
+            final @Nullable Set<Line.Attr> attrs, final @Nullable String message) {
+        // the caller may still change its set after interning
+        final Set<Line.Attr> attrsCopy = attrs != null ? Sets.immutableEnumSet(attrs) : null;
+        final List<Object> key = Arrays.<Object> asList(id, network, product, label, name, attrsCopy, message);
+        final Line interned = internedLines.getIfPresent(key);
+        if (interned != null)
+            return interned;
+
+        final Line line = new Line(id, network, product, label, name, internedLineStyle(network, product, label),
+                attrsCopy, message);
+        final Line previous = internedLines.asMap().putIfAbsent(key, line);
+        return previous != null ? previous : line;
+    }
+
+    private @Nullable Style internedLineStyle(final @Nullable String network, final @Nullable Product product,
+            final @Nullable String label) {
+        final List<Object> key = Arrays.<Object> asList(network, product, label);
+        Optional<Style> style = internedStyles.getIfPresent(key);
+        if (style == null) {
+            style = Optional.fromNullable(lineStyle(network, product, label));
+            internedStyles.put(key, style);
+        }
+        return style.orNull();
+    }
+
     @Override
     public Point[] getArea() throws IOException {
         return null;
@@ -106,28 +106,23 @@ public final class BvgProvider extends AbstractHafasMobileProvider {
     @Override
     protected Line newLine(final String operator, final Product product, final String name) {
         if (product == Product.SUBURBAN_TRAIN && "S41".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.CIRCLE_CLOCKWISE));
+            return internLine(null, operator, product, name, null, Sets.newHashSet(Attr.CIRCLE_CLOCKWISE), null);
         if (product == Product.SUBURBAN_TRAIN && "S42".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.CIRCLE_ANTICLOCKWISE));
+            return internLine(null, operator, product, name, null, Sets.newHashSet(Attr.CIRCLE_ANTICLOCKWISE), null);
 
         if (product == Product.BUS && "S41".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.SERVICE_REPLACEMENT, Attr.CIRCLE_CLOCKWISE));
+            return internLine(null, operator, product, name, null,
+                    Sets.newHashSet(Attr.SERVICE_REPLACEMENT, Attr.CIRCLE_CLOCKWISE), null);
         if (product == Product.BUS && "S42".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.SERVICE_REPLACEMENT, Attr.CIRCLE_ANTICLOCKWISE));
+            return internLine(null, operator, product, name, null,
+                    Sets.newHashSet(Attr.SERVICE_REPLACEMENT, Attr.CIRCLE_ANTICLOCKWISE), null);
 
         if (product == Product.BUS && "TXL".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.LINE_AIRPORT));
+            return internLine(null, operator, product, name, null, Sets.newHashSet(Attr.LINE_AIRPORT), null);
         if (product == Product.SUBURBAN_TRAIN && "S9".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.LINE_AIRPORT));
+            return internLine(null, operator, product, name, null, Sets.newHashSet(Attr.LINE_AIRPORT), null);
         if (product == Product.SUBURBAN_TRAIN && "S45".equals(name))
-            return new Line(null, operator, product, name, lineStyle(operator, product, name),
-                    Sets.newHashSet(Attr.LINE_AIRPORT));
+            return internLine(null, operator, product, name, null, Sets.newHashSet(Attr.LINE_AIRPORT), null);
 
         return super.newLine(operator, product, name);
     }
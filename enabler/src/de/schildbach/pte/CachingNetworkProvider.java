@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.util.ResultCache;
+
+/**
+ * Decorates a provider so that successful results of location and area queries are served from a
+ * {@link ResultCache}. Each operation has its own time to live; an operation with a time to live of {@code 0} is not
+ * cached. Departures are not cached by default, as they are live data.
+ */
+public class CachingNetworkProvider extends ForwardingNetworkProvider {
+    public enum Operation {
+        SUGGEST_LOCATIONS, NEARBY_LOCATIONS, DEPARTURES, AREA
+    }
+
+    private final ResultCache cache;
+    private final Map<Operation, Long> ttls = new EnumMap<>(Operation.class);
+
+    private static final char KEY_SEP = '|';
+
+    public CachingNetworkProvider(final NetworkProvider delegate, final ResultCache cache) {
+        super(delegate);
+        this.cache = checkNotNull(cache);
+        ttls.put(Operation.SUGGEST_LOCATIONS, TimeUnit.DAYS.toMillis(1));
+        ttls.put(Operation.NEARBY_LOCATIONS, TimeUnit.DAYS.toMillis(1));
+        ttls.put(Operation.DEPARTURES, 0L);
+        ttls.put(Operation.AREA, TimeUnit.DAYS.toMillis(7));
+    }
+
+    public CachingNetworkProvider setTtl(final Operation operation, final long ttl, final TimeUnit unit) {
+        ttls.put(checkNotNull(operation), unit.toMillis(ttl));
+        return this;
+    }
+
+    @Override
+    public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+            final int maxDistance, final int maxLocations) throws IOException {
+        final String key = key(Operation.NEARBY_LOCATIONS, types, location.type, location.id, location.lat,
+                location.lon, maxDistance, maxLocations);
+        final NearbyLocationsResult cached = get(Operation.NEARBY_LOCATIONS, key, NearbyLocationsResult.class);
+        if (cached != null)
+            return cached;
+
+        final NearbyLocationsResult result = super.queryNearbyLocations(types, location, maxDistance, maxLocations);
+        if (result.status == NearbyLocationsResult.Status.OK)
+            put(Operation.NEARBY_LOCATIONS, key, result);
+        return result;
+    }
+
+    @Override
+    public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final String key = key(Operation.DEPARTURES, stationId, time != null ? time.getTime() : null, maxDepartures,
+                equivs);
+        final QueryDeparturesResult cached = get(Operation.DEPARTURES, key, QueryDeparturesResult.class);
+        if (cached != null)
+            return cached;
+
+        final QueryDeparturesResult result = super.queryDepartures(stationId, time, maxDepartures, equivs);
+        if (result.status == QueryDeparturesResult.Status.OK)
+            put(Operation.DEPARTURES, key, result);
+        return result;
+    }
+
+    @Override
+    public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+        final String key = key(Operation.SUGGEST_LOCATIONS, constraint);
+        final SuggestLocationsResult cached = get(Operation.SUGGEST_LOCATIONS, key, SuggestLocationsResult.class);
+        if (cached != null)
+            return cached;
+
+        final SuggestLocationsResult result = super.suggestLocations(constraint);
+        if (result.status == SuggestLocationsResult.Status.OK)
+            put(Operation.SUGGEST_LOCATIONS, key, result);
+        return result;
+    }
+
+    @Override
+    public Point[] getArea() throws IOException {
+        final String key = key(Operation.AREA);
+        final Point[] cached = get(Operation.AREA, key, Point[].class);
+        if (cached != null)
+            return cached;
+
+        final Point[] area = super.getArea();
+        if (area != null)
+            put(Operation.AREA, key, area);
+        return area;
+    }
+
+    private String key(final Operation operation, final Object... params) {
+        final StringBuilder key = new StringBuilder(id().name()).append(KEY_SEP).append(operation.name());
+        for (final Object param : params)
+            key.append(KEY_SEP).append(param);
+        return key.toString();
+    }
+
+    private @Nullable <T> T get(final Operation operation, final String key, final Class<T> type) {
+        if (ttls.get(operation) <= 0)
+            return null;
+        final Object cached = cache.get(key);
+        return type.isInstance(cached) ? type.cast(cached) : null;
+    }
+
+    private void put(final Operation operation, final String key, final Object result) {
+        final long ttl = ttls.get(operation);
+        if (ttl > 0)
+            cache.put(key, result, ttl);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.StatelessQueryTripsContext;
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * <p>
+ * Decorates a provider so that the next page of trips is fetched in the background as soon as a page has been
+ * returned, and is handed out when {@link #queryMoreTrips(QueryTripsContext, boolean)} asks for later trips.
+ * </p>
+ * 
+ * <p>
+ * Only pages with a {@link StatelessQueryTripsContext} are prefetched. Other contexts may advance a session on the
+ * server (e.g. EFA or HAFAS XML) or change when used, so a speculative request would make the page asked for next
+ * come out wrong. Prefetched pages are matched by {@link Object#equals(Object)} of their context, so they are also
+ * claimed with a copy of the context, e.g. one rebuilt from a token.
+ * </p>
+ * 
+ * <p>
+ * Prefetching is adaptive: the provider keeps a moving average of how often a page is actually followed up by a
+ * request for later trips, and only prefetches while that rate is above a threshold. The number of prefetches in
+ * flight is bounded by a concurrency budget; if the budget is exhausted, no prefetch is issued.
+ * </p>
+ * 
+ * <p>
+ * While a prefetched page waits for its follow-up, the intermediate stops of its trips are held in the compact form
+ * of {@link Trip#compactIntermediateStops()}.
+ * </p>
+ */
+public class PrefetchingNetworkProvider extends ForwardingNetworkProvider {
+    private final ListeningExecutorService executor;
+    private final Semaphore budget;
+    private final double minFollowUpRate;
+    private final double smoothing;
+    private double followUpRate;
+    private final Cache<StatelessQueryTripsContext, Pending> pendings;
+
+    private static final int DEFAULT_MAX_PENDING = 1000;
+    private static final long DEFAULT_EXPIRY_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final double DEFAULT_MIN_FOLLOW_UP_RATE = 0.3;
+    private static final double DEFAULT_SMOOTHING = 0.05;
+
+    private static final Logger log = LoggerFactory.getLogger(PrefetchingNetworkProvider.class);
+
+    public PrefetchingNetworkProvider(final NetworkProvider delegate, final ExecutorService executor,
+            final int maxConcurrentPrefetches) {
+        this(delegate, executor, maxConcurrentPrefetches, DEFAULT_MIN_FOLLOW_UP_RATE, DEFAULT_SMOOTHING,
+                DEFAULT_MAX_PENDING, DEFAULT_EXPIRY_MS);
+    }
+
+    /**
+     * @param executor
+     *            executor to run prefetches on, owned by the caller
+     * @param maxConcurrentPrefetches
+     *            maximum number of prefetches in flight
+     * @param minFollowUpRate
+     *            minimum observed rate of follow-up requests for prefetching to happen, between {@code 0} (always
+     *            prefetch) and {@code 1}
+     * @param smoothing
+     *            weight of a single observation in the moving average of the follow-up rate
+     * @param maxPending
+     *            maximum number of pages remembered for a follow-up request
+     * @param expiryMs
+     *            time after which an unclaimed page is discarded and counted as not followed up
+     */
+    public PrefetchingNetworkProvider(final NetworkProvider delegate, final ExecutorService executor,
+            final int maxConcurrentPrefetches, final double minFollowUpRate, final double smoothing,
+            final int maxPending, final long expiryMs) {
+        super(delegate);
+        checkArgument(maxConcurrentPrefetches > 0, "maxConcurrentPrefetches must be positive");
+        checkArgument(minFollowUpRate >= 0 && minFollowUpRate <= 1, "minFollowUpRate out of range");
+        checkArgument(smoothing > 0 && smoothing <= 1, "smoothing out of range");
+        this.executor = MoreExecutors.listeningDecorator(checkNotNull(executor));
+        this.budget = new Semaphore(maxConcurrentPrefetches);
+        this.minFollowUpRate = minFollowUpRate;
+        this.smoothing = smoothing;
+        this.followUpRate = 1;
+        this.pendings = CacheBuilder.newBuilder().maximumSize(maxPending)
+                .expireAfterWrite(expiryMs, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<StatelessQueryTripsContext, Pending>() {
+                    @Override
+                    public void onRemoval(
+                            final RemovalNotification<StatelessQueryTripsContext, Pending> notification) {
+                        // pages claimed by a follow-up request are removed explicitly, all others expire
+                        final RemovalCause cause = notification.getCause();
+                        if (cause != RemovalCause.REPLACED)
+                            observe(cause == RemovalCause.EXPLICIT);
+                    }
+                }).build();
+    }
+
+    @Override
+    public QueryTripsResult queryTrips(final Location from, final @Nullable Location via, final Location to,
+            final Date date, final boolean dep, final @Nullable Set<Product> products,
+            final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+            final @Nullable Accessibility accessibility, final @Nullable Set<Option> options) throws IOException {
+        final QueryTripsResult result = super.queryTrips(from, via, to, date, dep, products, optimize, walkSpeed,
+                accessibility, options);
+        track(result);
+        return result;
+    }
+
+    @Override
+    public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later) throws IOException {
+        if (!later || !(context instanceof StatelessQueryTripsContext))
+            return super.queryMoreTrips(context, later);
+
+        QueryTripsResult result = null;
+        final Pending pending = pendings.asMap().remove(context);
+        if (pending != null && pending.future != null) {
+            try {
+                result = pending.future.get();
+            } catch (final InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for prefetched trips");
+            } catch (final ExecutionException x) {
+                log.info("prefetching later trips failed, querying again", x.getCause());
+            }
+        }
+        if (result == null)
+            result = super.queryMoreTrips(context, later);
+
+        track(result);
+        return result;
+    }
+
+    /** Moving average of how often a page is followed up by a request for later trips. */
+    public synchronized double followUpRate() {
+        return followUpRate;
+    }
+
+    private synchronized void observe(final boolean followedUp) {
+        followUpRate += smoothing * ((followedUp ? 1 : 0) - followUpRate);
+    }
+
+    private void track(final QueryTripsResult result) {
+        if (result.status != QueryTripsResult.Status.OK)
+            return;
+        if (!(result.context instanceof StatelessQueryTripsContext))
+            return;
+        final StatelessQueryTripsContext context = (StatelessQueryTripsContext) result.context;
+        if (!context.canQueryLater())
+            return;
+
+        pendings.put(context, new Pending(followUpRate() >= minFollowUpRate ? prefetch(context) : null));
+    }
+
+    private @Nullable ListenableFuture<QueryTripsResult> prefetch(final StatelessQueryTripsContext context) {
+        if (!budget.tryAcquire())
+            return null;
+
+        try {
+            return executor.submit(new Callable<QueryTripsResult>() {
+                @Override
+                public QueryTripsResult call() throws IOException {
+                    try {
+                        final QueryTripsResult result = delegate.queryMoreTrips(context, true);
+                        // not shared with anyone yet
+                        if (result.status == QueryTripsResult.Status.OK && result.trips != null)
+                            for (final Trip trip : result.trips)
+                                trip.compactIntermediateStops();
+                        return result;
+                    } finally {
+                        budget.release();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException x) {
+            budget.release();
+            return null;
+        }
+    }
+
+    private static final class Pending {
+        public final @Nullable ListenableFuture<QueryTripsResult> future;
+
+        public Pending(final @Nullable ListenableFuture<QueryTripsResult> future) {
+            this.future = future;
+        }
+    }
+}
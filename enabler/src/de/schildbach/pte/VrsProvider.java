@@ -38,6 +38,11 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,6 +55,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Fare;
@@ -152,6 +166,24 @@ public class VrsProvider extends AbstractNetworkProvider {
     protected static final HttpUrl API_BASE = HttpUrl.parse("http://android.vrsinfo.de/index.php");
     protected static final String SERVER_PRODUCT = "vrs";
 
+    // fetches serving lines while the departures are being queried; if all threads are busy, the caller fetches
+    // them itself before the departures
+    private static final int STATION_LINES_THREADS = 8;
+    private static final ListeningExecutorService STATION_LINES_EXECUTOR;
+
+    static {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(STATION_LINES_THREADS, STATION_LINES_THREADS, 60,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("vrs-station-lines-%d").build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        STATION_LINES_EXECUTOR = MoreExecutors.listeningDecorator(executor);
+    }
+
+    // serving lines only change with timetable updates
+    private final Cache<String, List<LineDestination>> stationLines = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.DAYS).build();
+
     @SuppressWarnings("serial")
     protected static final List<Pattern> NAME_WITH_POSITION_PATTERNS = new ArrayList<Pattern>() {
         {
@@ -433,100 +465,132 @@ public class VrsProvider extends AbstractNetworkProvider {
         if (time != null) {
             url.addQueryParameter("t", formatDate(time));
         }
-        final CharSequence page = httpClient.get(url.build());
-
+        final ListenableFuture<List<LineDestination>> linesForStation = queryLinesForStationAsync(stationId);
         try {
-            final JSONObject head = new JSONObject(page.toString());
-            final String error = Strings.emptyToNull(head.optString("error", "").trim());
-            if (error != null) {
-                if (error.equals("ASS2-Server lieferte leere Antwort."))
-                    return new QueryDeparturesResult(new ResultHeader(NetworkId.VRS, SERVER_PRODUCT),
-                            QueryDeparturesResult.Status.SERVICE_DOWN);
-                else if (error.equals("Leere ASS-ID und leere Koordinate"))
-                    return new QueryDeparturesResult(new ResultHeader(NetworkId.VRS, SERVER_PRODUCT),
-                            QueryDeparturesResult.Status.INVALID_STATION);
-                else if (error.equals("Keine Abfahrten gefunden."))
-                    return new QueryDeparturesResult(new ResultHeader(NetworkId.VRS, SERVER_PRODUCT),
-                            QueryDeparturesResult.Status.INVALID_STATION);
-                else
-                    throw new IllegalStateException("unknown error: " + error);
-            }
-            final JSONArray timetable = head.getJSONArray("timetable");
-            final ResultHeader header = new ResultHeader(NetworkId.VRS, SERVER_PRODUCT);
-            final QueryDeparturesResult result = new QueryDeparturesResult(header);
-            // for all stations
-            if (timetable.length() == 0) {
-                return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
-            }
-            for (int iStation = 0; iStation < timetable.length(); iStation++) {
-                final List<Departure> departures = new ArrayList<Departure>();
-                final JSONObject station = timetable.getJSONObject(iStation);
-                final Location location = parseLocationAndPosition(station.getJSONObject("stop")).location;
-                final JSONArray events = station.getJSONArray("events");
-                final List<LineDestination> lines = new ArrayList<LineDestination>();
-                // for all departures
-                for (int iEvent = 0; iEvent < events.length(); iEvent++) {
-                    final JSONObject event = events.getJSONObject(iEvent);
-                    Date plannedTime = null;
-                    Date predictedTime = null;
-                    if (event.has("departureScheduled")) {
-                        plannedTime = parseDateTime(event.getString("departureScheduled"));
-                        predictedTime = parseDateTime(event.getString("departure"));
-                    } else {
-                        plannedTime = parseDateTime(event.getString("departure"));
-                    }
-                    final JSONObject lineObj = event.getJSONObject("line");
-                    final Line line = parseLine(lineObj);
-                    Position position = null;
-                    final JSONObject post = event.optJSONObject("post");
-                    if (post != null) {
-                        final String postName = post.getString("name");
-                        for (Pattern pattern : NAME_WITH_POSITION_PATTERNS) {
-                            Matcher matcher = pattern.matcher(postName);
-                            if (matcher.matches()) {
-                                position = new Position(matcher.group(2));
-                                break;
+            final CharSequence page = httpClient.get(url.build());
+
+            try {
+                final JSONObject head = new JSONObject(page.toString());
+                final String error = Strings.emptyToNull(head.optString("error", "").trim());
+                if (error != null) {
+                    if (error.equals("ASS2-Server lieferte leere Antwort."))
+                        return new QueryDeparturesResult(new ResultHeader(NetworkId.VRS, SERVER_PRODUCT),
+                                QueryDeparturesResult.Status.SERVICE_DOWN);
+                    else if (error.equals("Leere ASS-ID und leere Koordinate"))
+                        return new QueryDeparturesResult(new ResultHeader(NetworkId.VRS, SERVER_PRODUCT),
+                                QueryDeparturesResult.Status.INVALID_STATION);
+                    else if (error.equals("Keine Abfahrten gefunden."))
+                        return new QueryDeparturesResult(new ResultHeader(NetworkId.VRS, SERVER_PRODUCT),
+                                QueryDeparturesResult.Status.INVALID_STATION);
+                    else
+                        throw new IllegalStateException("unknown error: " + error);
+                }
+                final JSONArray timetable = head.getJSONArray("timetable");
+                final ResultHeader header = new ResultHeader(NetworkId.VRS, SERVER_PRODUCT);
+                final QueryDeparturesResult result = new QueryDeparturesResult(header);
+                // for all stations
+                if (timetable.length() == 0) {
+                    return new QueryDeparturesResult(header, QueryDeparturesResult.Status.INVALID_STATION);
+                }
+                for (int iStation = 0; iStation < timetable.length(); iStation++) {
+                    final List<Departure> departures = new ArrayList<Departure>();
+                    final JSONObject station = timetable.getJSONObject(iStation);
+                    final Location location = parseLocationAndPosition(station.getJSONObject("stop")).location;
+                    final JSONArray events = station.getJSONArray("events");
+                    final List<LineDestination> lines = new ArrayList<LineDestination>();
+                    // for all departures
+                    for (int iEvent = 0; iEvent < events.length(); iEvent++) {
+                        final JSONObject event = events.getJSONObject(iEvent);
+                        Date plannedTime = null;
+                        Date predictedTime = null;
+                        if (event.has("departureScheduled")) {
+                            plannedTime = parseDateTime(event.getString("departureScheduled"));
+                            predictedTime = parseDateTime(event.getString("departure"));
+                        } else {
+                            plannedTime = parseDateTime(event.getString("departure"));
+                        }
+                        final JSONObject lineObj = event.getJSONObject("line");
+                        final Line line = parseLine(lineObj);
+                        Position position = null;
+                        final JSONObject post = event.optJSONObject("post");
+                        if (post != null) {
+                            final String postName = post.getString("name");
+                            for (Pattern pattern : NAME_WITH_POSITION_PATTERNS) {
+                                Matcher matcher = pattern.matcher(postName);
+                                if (matcher.matches()) {
+                                    position = new Position(matcher.group(2));
+                                    break;
+                                }
                             }
+                            if (position == null)
+                                log.info("Could not extract position from '{}'", postName);
                         }
-                        if (position == null)
-                            log.info("Could not extract position from '{}'", postName);
-                    }
-                    final Location destination = new Location(LocationType.STATION, null /* id */, null /* place */,
-                            lineObj.getString("direction"));
+                        final Location destination = new Location(LocationType.STATION, null /* id */, null /* place */,
+                                lineObj.getString("direction"));
 
-                    final LineDestination lineDestination = new LineDestination(line, destination);
-                    if (!lines.contains(lineDestination)) {
-                        lines.add(lineDestination);
+                        final LineDestination lineDestination = new LineDestination(line, destination);
+                        if (!lines.contains(lineDestination)) {
+                            lines.add(lineDestination);
+                        }
+                        final Departure d = new Departure(plannedTime, predictedTime, line, position, destination, null,
+                                null);
+                        departures.add(d);
                     }
-                    final Departure d = new Departure(plannedTime, predictedTime, line, position, destination, null,
-                            null);
-                    departures.add(d);
+
+                    if (stationId.equals(location.id))
+                        addLinesForStation(lines, getLinesForStation(linesForStation));
+                    else
+                        addLinesForStation(lines, queryLinesForStation(location.id));
+
+                    result.stationDepartures.add(new StationDepartures(location, departures, lines));
                 }
 
-                queryLinesForStation(location.id, lines);
+                return result;
+            } catch (final JSONException x) {
+                throw new RuntimeException("cannot parse: '" + page + "' on " + url, x);
+            } catch (final ParseException e) {
+                throw new RuntimeException("cannot parse: '" + page + "' on " + url, e);
+            }
+        } finally {
+            // no-op if the lines were used, otherwise stops the lookup nobody is waiting for
+            linesForStation.cancel(true);
+        }
+    }
 
-                result.stationDepartures.add(new StationDepartures(location, departures, lines));
+    private ListenableFuture<List<LineDestination>> queryLinesForStationAsync(final String stationId) {
+        final List<LineDestination> cached = stationLines.getIfPresent(stationId);
+        if (cached != null)
+            return Futures.immediateFuture(cached);
+        return STATION_LINES_EXECUTOR.submit(new Callable<List<LineDestination>>() {
+            @Override
+            public List<LineDestination> call() throws IOException {
+                return queryLinesForStation(stationId);
             }
+        });
+    }
 
-            return result;
-        } catch (final JSONException x) {
-            throw new RuntimeException("cannot parse: '" + page + "' on " + url, x);
-        } catch (final ParseException e) {
-            throw new RuntimeException("cannot parse: '" + page + "' on " + url, e);
+    private static List<LineDestination> getLinesForStation(final ListenableFuture<List<LineDestination>> future)
+            throws IOException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (final ExecutionException x) {
+            Throwables.propagateIfPossible(x.getCause(), IOException.class);
+            throw new RuntimeException(x.getCause());
         }
     }
 
-    private void queryLinesForStation(String stationId, List<LineDestination> lineDestinations) throws IOException {
-        Set<String> lineNumbersAlreadyKnown = new HashSet<String>();
-        for (LineDestination lineDestionation : lineDestinations) {
-            lineNumbersAlreadyKnown.add(lineDestionation.line.label);
-        }
+    private List<LineDestination> queryLinesForStation(final String stationId) throws IOException {
+        final List<LineDestination> cached = stationLines.getIfPresent(stationId);
+        if (cached != null)
+            return cached;
+
         final HttpUrl.Builder url = API_BASE.newBuilder();
         url.addQueryParameter("eID", "tx_vrsinfo_his_info");
         url.addQueryParameter("i", stationId);
 
         final CharSequence page = httpClient.get(url.build());
 
+        final List<LineDestination> lineDestinations = new ArrayList<LineDestination>();
         try {
             final JSONObject head = new JSONObject(page.toString());
             final JSONObject his = head.optJSONObject("his");
@@ -536,9 +600,6 @@ public class VrsProvider extends AbstractNetworkProvider {
                     for (int iLine = 0; iLine < lines.length(); iLine++) {
                         final JSONObject line = lines.getJSONObject(iLine);
                         final String number = processLineNumber(line.getString("number"));
-                        if (lineNumbersAlreadyKnown.contains(number)) {
-                            continue;
-                        }
                         final Product product = productFromLineNumber(number);
                         String direction = null;
                         final JSONArray postings = line.optJSONArray("postings");
@@ -562,6 +623,22 @@ public class VrsProvider extends AbstractNetworkProvider {
         } catch (final JSONException x) {
             throw new RuntimeException("cannot parse: '" + page + "' on " + url, x);
         }
+        final List<LineDestination> result = Collections.unmodifiableList(lineDestinations);
+        stationLines.put(stationId, result);
+        return result;
+    }
+
+    // adds the serving lines of a station that did not show up among its departures
+    private static void addLinesForStation(final List<LineDestination> lineDestinations,
+            final List<LineDestination> linesForStation) {
+        Set<String> lineNumbersAlreadyKnown = new HashSet<String>();
+        for (LineDestination lineDestionation : lineDestinations) {
+            lineNumbersAlreadyKnown.add(lineDestionation.line.label);
+        }
+        for (final LineDestination lineDestination : linesForStation) {
+            if (!lineNumbersAlreadyKnown.contains(lineDestination.line.label))
+                lineDestinations.add(lineDestination);
+        }
         Collections.sort(lineDestinations, new LineDestinationComparator());
     }
 
@@ -0,0 +1,903 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * <p>
+ * Compact, versioned binary encoding of result objects. It is meant as a replacement for Java serialization when
+ * results are cached or transferred in bulk.
+ * </p>
+ * 
+ * <p>
+ * Within one encoded result, strings, locations, lines and styles are written once and referenced by index
+ * afterwards. Times are written as variable-length deltas to the previously written time, path coordinates as
+ * deltas to the previous point and product sets as bitmasks. Objects that are opaque to this package, like a
+ * {@link QueryTripsContext} or the context of a {@link ResultHeader}, are embedded using Java serialization.
+ * </p>
+ * 
+ * <p>
+ * Supported are {@link QueryTripsResult}, {@link QueryDeparturesResult}, {@link NearbyLocationsResult},
+ * {@link SuggestLocationsResult} and {@code Point[]} as returned by area queries.
+ * </p>
+ */
+public final class BinaryCodec {
+    private static final int MAGIC0 = 'P', MAGIC1 = 'T';
+    public static final int VERSION = 1;
+
+    private static final int TYPE_QUERY_TRIPS_RESULT = 1;
+    private static final int TYPE_QUERY_DEPARTURES_RESULT = 2;
+    private static final int TYPE_NEARBY_LOCATIONS_RESULT = 3;
+    private static final int TYPE_SUGGEST_LOCATIONS_RESULT = 4;
+    private static final int TYPE_AREA = 5;
+
+    private static final int LEG_PUBLIC = 0;
+    private static final int LEG_INDIVIDUAL = 1;
+
+    private static final int REF_NULL = 0;
+    private static final int REF_NEW = 1;
+    private static final int REF_OFFSET = 2;
+
+    private BinaryCodec() {
+    }
+
+    public static byte[] encode(final Object result) throws IOException {
+        checkNotNull(result);
+        final Writer writer = new Writer();
+        writer.writeByte(MAGIC0);
+        writer.writeByte(MAGIC1);
+        writer.writeByte(VERSION);
+        if (result instanceof QueryTripsResult) {
+            writer.writeByte(TYPE_QUERY_TRIPS_RESULT);
+            writer.writeQueryTripsResult((QueryTripsResult) result);
+        } else if (result instanceof QueryDeparturesResult) {
+            writer.writeByte(TYPE_QUERY_DEPARTURES_RESULT);
+            writer.writeQueryDeparturesResult((QueryDeparturesResult) result);
+        } else if (result instanceof NearbyLocationsResult) {
+            writer.writeByte(TYPE_NEARBY_LOCATIONS_RESULT);
+            writer.writeNearbyLocationsResult((NearbyLocationsResult) result);
+        } else if (result instanceof SuggestLocationsResult) {
+            writer.writeByte(TYPE_SUGGEST_LOCATIONS_RESULT);
+            writer.writeSuggestLocationsResult((SuggestLocationsResult) result);
+        } else if (result instanceof Point[]) {
+            writer.writeByte(TYPE_AREA);
+            writer.writePoints(Arrays.asList((Point[]) result));
+        } else {
+            throw new IllegalArgumentException("cannot encode: " + result.getClass().getName());
+        }
+        return writer.toByteArray();
+    }
+
+    public static Object decode(final byte[] bytes) throws IOException {
+        final Reader reader = new Reader(bytes);
+        if (reader.readByte() != MAGIC0 || reader.readByte() != MAGIC1)
+            throw new IOException("not an encoded result");
+        final int version = reader.readByte();
+        if (version != VERSION)
+            throw new IOException("unsupported version: " + version);
+        try {
+            final int type = reader.readByte();
+            if (type == TYPE_QUERY_TRIPS_RESULT)
+                return reader.readQueryTripsResult();
+            else if (type == TYPE_QUERY_DEPARTURES_RESULT)
+                return reader.readQueryDeparturesResult();
+            else if (type == TYPE_NEARBY_LOCATIONS_RESULT)
+                return reader.readNearbyLocationsResult();
+            else if (type == TYPE_SUGGEST_LOCATIONS_RESULT)
+                return reader.readSuggestLocationsResult();
+            else if (type == TYPE_AREA)
+                return reader.readPoints().toArray(new Point[0]);
+            else
+                throw new IOException("unknown type: " + type);
+        } catch (final RuntimeException x) {
+            // constructors reject inconsistent data
+            throw new IOException("cannot decode result", x);
+        }
+    }
+
+    public static <T> T decode(final byte[] bytes, final Class<T> type) throws IOException {
+        final Object result = decode(bytes);
+        if (!type.isInstance(result))
+            throw new IOException("expected " + type.getName() + ", got " + result.getClass().getName());
+        return type.cast(result);
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Writer {
+        private byte[] buf = new byte[512];
+        private int pos = 0;
+        private long lastTime = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<List<Object>, Integer> locations = new HashMap<>();
+        private final Map<List<Object>, Integer> lines = new HashMap<>();
+        private final Map<Style, Integer> styles = new IdentityHashMap<>();
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(final int length) {
+            if (pos + length > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + length));
+        }
+
+        public void writeByte(final int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        public void writeBytes(final byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        public void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        public void writeVarInt(final int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        public void writeSignedVarLong(final long value) {
+            writeVarLong(zigZag(value));
+        }
+
+        public void writeFixedInt(final int value) {
+            ensure(4);
+            buf[pos++] = (byte) (value >>> 24);
+            buf[pos++] = (byte) (value >>> 16);
+            buf[pos++] = (byte) (value >>> 8);
+            buf[pos++] = (byte) value;
+        }
+
+        public void writeBoolean(final boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        public void writeCount(final @Nullable List<?> list) {
+            writeVarInt(list != null ? list.size() + 1 : 0);
+        }
+
+        /** Writes a back reference and returns {@code true} if the object is new and its body has to follow. */
+        private <K> boolean writeRef(final Map<K, Integer> table, final @Nullable K key) {
+            if (key == null) {
+                writeVarInt(REF_NULL);
+                return false;
+            }
+            final Integer index = table.get(key);
+            if (index != null) {
+                writeVarInt(index + REF_OFFSET);
+                return false;
+            }
+            table.put(key, table.size());
+            writeVarInt(REF_NEW);
+            return true;
+        }
+
+        public void writeString(final @Nullable String string) {
+            if (writeRef(strings, string)) {
+                final byte[] bytes = string.getBytes(Charsets.UTF_8);
+                writeVarInt(bytes.length);
+                writeBytes(bytes);
+            }
+        }
+
+        public <E extends Enum<E>> void writeEnum(final @Nullable E value) {
+            writeVarInt(value != null ? value.ordinal() + 1 : 0);
+        }
+
+        public <E extends Enum<E>> void writeEnumSet(final @Nullable Set<E> set) {
+            if (set == null) {
+                writeVarLong(0);
+                return;
+            }
+            long mask = 0;
+            for (final E value : set)
+                mask |= 1L << value.ordinal();
+            writeVarLong((mask << 1) | 1);
+        }
+
+        public void writeTime(final @Nullable Date time) {
+            if (time == null) {
+                writeVarLong(0);
+                return;
+            }
+            final long t = time.getTime();
+            final long delta = t - lastTime;
+            lastTime = t;
+            if (delta % 1000 == 0)
+                writeVarLong((zigZag(delta / 1000) << 2) | 1);
+            else
+                writeVarLong((zigZag(delta) << 2) | 2);
+        }
+
+        public void writeIntArray(final @Nullable int[] array) {
+            if (array == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(array.length + 1);
+            for (final int value : array)
+                writeSignedVarLong(value);
+        }
+
+        public void writeOpaque(final @Nullable Object object) throws IOException {
+            if (object == null) {
+                writeVarInt(0);
+                return;
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final ObjectOutputStream os = new ObjectOutputStream(bytes);
+            os.writeObject(object);
+            os.close();
+            writeVarInt(bytes.size() + 1);
+            writeBytes(bytes.toByteArray());
+        }
+
+        public void writeHeader(final @Nullable ResultHeader header) throws IOException {
+            writeBoolean(header != null);
+            if (header == null)
+                return;
+            writeString(header.network.name());
+            writeString(header.serverProduct);
+            writeString(header.serverVersion);
+            writeString(header.serverName);
+            writeSignedVarLong(header.serverTime);
+            writeOpaque(header.context);
+        }
+
+        public void writeLocation(final @Nullable Location location) {
+            final List<Object> key = location != null ? Arrays.<Object> asList(location.type, location.id,
+                    location.lat, location.lon, location.place, location.name, location.products) : null;
+            if (writeRef(locations, key)) {
+                writeEnum(location.type);
+                writeString(location.id);
+                writeSignedVarLong(location.lat);
+                writeSignedVarLong(location.lon);
+                writeString(location.place);
+                writeString(location.name);
+                writeEnumSet(location.products);
+            }
+        }
+
+        public void writeLocations(final @Nullable List<Location> locations) {
+            writeCount(locations);
+            if (locations != null)
+                for (final Location location : locations)
+                    writeLocation(location);
+        }
+
+        public void writeStyle(final @Nullable Style style) {
+            if (writeRef(styles, style)) {
+                writeEnum(style.shape);
+                writeFixedInt(style.backgroundColor);
+                writeFixedInt(style.backgroundColor2);
+                writeFixedInt(style.foregroundColor);
+                writeFixedInt(style.borderColor);
+            }
+        }
+
+        public void writeLine(final Line line) {
+            final List<Object> key = Arrays.<Object> asList(line.id, line.network, line.product, line.label,
+                    line.name, line.style, line.attrs, line.message);
+            if (writeRef(lines, key)) {
+                writeString(line.id);
+                writeString(line.network);
+                writeEnum(line.product);
+                writeString(line.label);
+                writeString(line.name);
+                writeStyle(line.style);
+                writeEnumSet(line.attrs);
+                writeString(line.message);
+            }
+        }
+
+        public void writePosition(final @Nullable Position position) {
+            writeString(position != null ? position.name : null);
+            if (position != null)
+                writeString(position.section);
+        }
+
+        public void writePoints(final @Nullable List<Point> points) {
+            writeCount(points);
+            if (points == null)
+                return;
+            int lat = 0, lon = 0;
+            for (final Point point : points) {
+                writeSignedVarLong(point.lat - lat);
+                writeSignedVarLong(point.lon - lon);
+                lat = point.lat;
+                lon = point.lon;
+            }
+        }
+
+        public void writeStop(final Stop stop) {
+            writeLocation(stop.location);
+            writeVarInt((stop.arrivalCancelled ? 1 : 0) | (stop.departureCancelled ? 2 : 0));
+            writeTime(stop.plannedArrivalTime);
+            writeTime(stop.predictedArrivalTime);
+            writePosition(stop.plannedArrivalPosition);
+            writePosition(stop.predictedArrivalPosition);
+            writeTime(stop.plannedDepartureTime);
+            writeTime(stop.predictedDepartureTime);
+            writePosition(stop.plannedDeparturePosition);
+            writePosition(stop.predictedDeparturePosition);
+        }
+
+        public void writeFare(final Fare fare) {
+            writeString(fare.network);
+            writeEnum(fare.type);
+            writeString(fare.currency.getCurrencyCode());
+            writeFixedInt(Float.floatToIntBits(fare.fare));
+            writeString(fare.unitName);
+            writeString(fare.units);
+        }
+
+        public void writeLeg(final Trip.Leg leg) {
+            if (leg instanceof Trip.Public) {
+                final Trip.Public publicLeg = (Trip.Public) leg;
+                writeByte(LEG_PUBLIC);
+                writeLine(publicLeg.line);
+                writeLocation(publicLeg.destination);
+                writeStop(publicLeg.departureStop);
+                writeStop(publicLeg.arrivalStop);
+                final List<Stop> intermediateStops = publicLeg.intermediateStops;
+                writeCount(intermediateStops);
+                if (intermediateStops != null)
+                    for (final Stop stop : intermediateStops)
+                        writeStop(stop);
+                writePoints(publicLeg.path);
+                writeString(publicLeg.message);
+            } else if (leg instanceof Trip.Individual) {
+                final Trip.Individual individualLeg = (Trip.Individual) leg;
+                writeByte(LEG_INDIVIDUAL);
+                writeEnum(individualLeg.type);
+                writeLocation(individualLeg.departure);
+                writeTime(individualLeg.departureTime);
+                writeLocation(individualLeg.arrival);
+                writeTime(individualLeg.arrivalTime);
+                writePoints(individualLeg.path);
+                writeSignedVarLong(individualLeg.distance);
+            } else {
+                throw new IllegalArgumentException("cannot encode leg: " + leg.getClass().getName());
+            }
+        }
+
+        public void writeTrip(final Trip trip) {
+            writeString(trip.getId());
+            writeLocation(trip.from);
+            writeLocation(trip.to);
+            writeCount(trip.legs);
+            for (final Trip.Leg leg : trip.legs)
+                writeLeg(leg);
+            writeCount(trip.fares);
+            if (trip.fares != null)
+                for (final Fare fare : trip.fares)
+                    writeFare(fare);
+            writeIntArray(trip.capacity);
+            writeVarLong(trip.numChanges != null ? zigZag(trip.numChanges) + 1 : 0);
+        }
+
+        public void writeQueryTripsResult(final QueryTripsResult result) throws IOException {
+            writeHeader(result.header);
+            writeEnum(result.status);
+            if (result.status == QueryTripsResult.Status.OK) {
+                writeString(result.queryUri);
+                writeLocation(result.from);
+                writeLocation(result.via);
+                writeLocation(result.to);
+                writeOpaque(result.context);
+                writeCount(result.trips);
+                for (final Trip trip : result.trips)
+                    writeTrip(trip);
+            } else if (result.status == QueryTripsResult.Status.AMBIGUOUS) {
+                writeLocations(result.ambiguousFrom);
+                writeLocations(result.ambiguousVia);
+                writeLocations(result.ambiguousTo);
+            }
+        }
+
+        public void writeDeparture(final Departure departure) {
+            writeTime(departure.plannedTime);
+            writeTime(departure.predictedTime);
+            writeLine(departure.line);
+            writePosition(departure.position);
+            writeLocation(departure.destination);
+            writeIntArray(departure.capacity);
+            writeString(departure.message);
+        }
+
+        public void writeQueryDeparturesResult(final QueryDeparturesResult result) throws IOException {
+            writeHeader(result.header);
+            writeEnum(result.status);
+            writeCount(result.stationDepartures);
+            for (final StationDepartures stationDepartures : result.stationDepartures) {
+                writeLocation(stationDepartures.location);
+                writeCount(stationDepartures.departures);
+                for (final Departure departure : stationDepartures.departures)
+                    writeDeparture(departure);
+                final List<LineDestination> lines = stationDepartures.lines;
+                writeCount(lines);
+                if (lines != null) {
+                    for (final LineDestination line : lines) {
+                        writeLine(line.line);
+                        writeLocation(line.destination);
+                    }
+                }
+            }
+        }
+
+        public void writeNearbyLocationsResult(final NearbyLocationsResult result) throws IOException {
+            writeHeader(result.header);
+            writeEnum(result.status);
+            writeLocations(result.locations);
+        }
+
+        public void writeSuggestLocationsResult(final SuggestLocationsResult result) throws IOException {
+            writeHeader(result.header);
+            writeEnum(result.status);
+            final List<SuggestedLocation> suggestedLocations = result.suggestedLocations;
+            writeCount(suggestedLocations);
+            if (suggestedLocations != null) {
+                for (final SuggestedLocation suggestedLocation : suggestedLocations) {
+                    writeLocation(suggestedLocation.location);
+                    writeSignedVarLong(suggestedLocation.priority);
+                }
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos = 0;
+        private long lastTime = 0;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Location> locations = new ArrayList<>();
+        private final List<Line> lines = new ArrayList<>();
+        private final List<Style> styles = new ArrayList<>();
+
+        public Reader(final byte[] buf) {
+            this.buf = checkNotNull(buf);
+        }
+
+        public int readByte() throws EOFException {
+            if (pos >= buf.length)
+                throw new EOFException();
+            return buf[pos++] & 0xFF;
+        }
+
+        public byte[] readBytes(final int length) throws EOFException {
+            if (length < 0 || pos + length > buf.length)
+                throw new EOFException();
+            final byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        public long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("malformed varint");
+        }
+
+        public int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        public long readSignedVarLong() throws IOException {
+            return unZigZag(readVarLong());
+        }
+
+        public int readSignedVarInt() throws IOException {
+            return (int) readSignedVarLong();
+        }
+
+        public int readFixedInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        /** Returns the number of elements, or {@code -1} for a {@code null} list. */
+        public int readCount() throws IOException {
+            return readVarInt() - 1;
+        }
+
+        private <T> T lookup(final List<T> table, final int ref) throws IOException {
+            final int index = ref - REF_OFFSET;
+            if (index < 0 || index >= table.size())
+                throw new IOException("dangling reference: " + index);
+            return table.get(index);
+        }
+
+        public @Nullable String readString() throws IOException {
+            final int ref = readVarInt();
+            if (ref == REF_NULL)
+                return null;
+            if (ref != REF_NEW)
+                return lookup(strings, ref);
+            final String string = new String(readBytes(readVarInt()), Charsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        public <E extends Enum<E>> E readEnum(final Class<E> type) throws IOException {
+            final int value = readVarInt();
+            if (value == 0)
+                return null;
+            final E[] constants = type.getEnumConstants();
+            if (value > constants.length)
+                throw new IOException("unknown " + type.getSimpleName() + ": " + (value - 1));
+            return constants[value - 1];
+        }
+
+        public <E extends Enum<E>> Set<E> readEnumSet(final Class<E> type) throws IOException {
+            final long value = readVarLong();
+            if (value == 0)
+                return null;
+            final long mask = value >>> 1;
+            final Set<E> set = EnumSet.noneOf(type);
+            for (final E constant : type.getEnumConstants())
+                if ((mask & (1L << constant.ordinal())) != 0)
+                    set.add(constant);
+            return set;
+        }
+
+        public @Nullable Date readTime() throws IOException {
+            final long value = readVarLong();
+            if (value == 0)
+                return null;
+            final long delta = unZigZag(value >>> 2);
+            lastTime += (value & 3) == 1 ? delta * 1000 : delta;
+            return new Date(lastTime);
+        }
+
+        public @Nullable int[] readIntArray() throws IOException {
+            final int length = readCount();
+            if (length < 0)
+                return null;
+            final int[] array = new int[length];
+            for (int i = 0; i < length; i++)
+                array[i] = readSignedVarInt();
+            return array;
+        }
+
+        public @Nullable Object readOpaque() throws IOException {
+            final int length = readCount();
+            if (length < 0)
+                return null;
+            final ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(readBytes(length)));
+            try {
+                return is.readObject();
+            } catch (final ClassNotFoundException x) {
+                throw new IOException(x);
+            } finally {
+                is.close();
+            }
+        }
+
+        public @Nullable ResultHeader readHeader() throws IOException {
+            if (!readBoolean())
+                return null;
+            final NetworkId network = NetworkId.valueOf(readString());
+            final String serverProduct = readString();
+            final String serverVersion = readString();
+            final String serverName = readString();
+            final long serverTime = readSignedVarLong();
+            final Object context = readOpaque();
+            return new ResultHeader(network, serverProduct, serverVersion, serverName, serverTime, context);
+        }
+
+        public @Nullable Location readLocation() throws IOException {
+            final int ref = readVarInt();
+            if (ref == REF_NULL)
+                return null;
+            if (ref != REF_NEW)
+                return lookup(locations, ref);
+            final LocationType type = readEnum(LocationType.class);
+            final String id = readString();
+            final int lat = readSignedVarInt();
+            final int lon = readSignedVarInt();
+            final String place = readString();
+            final String name = readString();
+            final Set<Product> products = readEnumSet(Product.class);
+            final Location location = new Location(type, id, lat, lon, place, name, products);
+            locations.add(location);
+            return location;
+        }
+
+        public @Nullable List<Location> readLocations() throws IOException {
+            final int count = readCount();
+            if (count < 0)
+                return null;
+            final List<Location> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                list.add(readLocation());
+            return list;
+        }
+
+        public @Nullable Style readStyle() throws IOException {
+            final int ref = readVarInt();
+            if (ref == REF_NULL)
+                return null;
+            if (ref != REF_NEW)
+                return lookup(styles, ref);
+            final Style.Shape shape = readEnum(Style.Shape.class);
+            final int backgroundColor = readFixedInt();
+            final int backgroundColor2 = readFixedInt();
+            final int foregroundColor = readFixedInt();
+            final int borderColor = readFixedInt();
+            final Style style = new Style(shape, backgroundColor, backgroundColor2, foregroundColor, borderColor);
+            styles.add(style);
+            return style;
+        }
+
+        public Line readLine() throws IOException {
+            final int ref = readVarInt();
+            if (ref == REF_NULL)
+                throw new IOException("line missing");
+            if (ref != REF_NEW)
+                return lookup(lines, ref);
+            final String id = readString();
+            final String network = readString();
+            final Product product = readEnum(Product.class);
+            final String label = readString();
+            final String name = readString();
+            final Style style = readStyle();
+            final Set<Line.Attr> attrs = readEnumSet(Line.Attr.class);
+            final String message = readString();
+            final Line line = new Line(id, network, product, label, name, style, attrs, message);
+            lines.add(line);
+            return line;
+        }
+
+        public @Nullable Position readPosition() throws IOException {
+            final String name = readString();
+            if (name == null)
+                return null;
+            return new Position(name, readString());
+        }
+
+        public @Nullable List<Point> readPoints() throws IOException {
+            final int count = readCount();
+            if (count < 0)
+                return null;
+            final List<Point> points = new ArrayList<>(count);
+            int lat = 0, lon = 0;
+            for (int i = 0; i < count; i++) {
+                lat += readSignedVarInt();
+                lon += readSignedVarInt();
+                points.add(new Point(lat, lon));
+            }
+            return points;
+        }
+
+        public Stop readStop() throws IOException {
+            final Location location = readLocation();
+            final int flags = readVarInt();
+            final Date plannedArrivalTime = readTime();
+            final Date predictedArrivalTime = readTime();
+            final Position plannedArrivalPosition = readPosition();
+            final Position predictedArrivalPosition = readPosition();
+            final Date plannedDepartureTime = readTime();
+            final Date predictedDepartureTime = readTime();
+            final Position plannedDeparturePosition = readPosition();
+            final Position predictedDeparturePosition = readPosition();
+            return new Stop(location, plannedArrivalTime, predictedArrivalTime, plannedArrivalPosition,
+                    predictedArrivalPosition, (flags & 1) != 0, plannedDepartureTime, predictedDepartureTime,
+                    plannedDeparturePosition, predictedDeparturePosition, (flags & 2) != 0);
+        }
+
+        public Fare readFare() throws IOException {
+            final String network = readString();
+            final Fare.Type type = readEnum(Fare.Type.class);
+            final Currency currency = Currency.getInstance(readString());
+            final float fare = Float.intBitsToFloat(readFixedInt());
+            final String unitName = readString();
+            final String units = readString();
+            return new Fare(network, type, currency, fare, unitName, units);
+        }
+
+        public Trip.Leg readLeg() throws IOException {
+            final int kind = readByte();
+            if (kind == LEG_PUBLIC) {
+                final Line line = readLine();
+                final Location destination = readLocation();
+                final Stop departureStop = readStop();
+                final Stop arrivalStop = readStop();
+                final int numIntermediateStops = readCount();
+                final List<Stop> intermediateStops;
+                if (numIntermediateStops >= 0) {
+                    intermediateStops = new ArrayList<>(numIntermediateStops);
+                    for (int i = 0; i < numIntermediateStops; i++)
+                        intermediateStops.add(readStop());
+                } else {
+                    intermediateStops = null;
+                }
+                final List<Point> path = readPoints();
+                final String message = readString();
+                return new Trip.Public(line, destination, departureStop, arrivalStop,
+                        CompactStopList.of(intermediateStops), path, message);
+            } else if (kind == LEG_INDIVIDUAL) {
+                final Trip.Individual.Type type = readEnum(Trip.Individual.Type.class);
+                final Location departure = readLocation();
+                final Date departureTime = readTime();
+                final Location arrival = readLocation();
+                final Date arrivalTime = readTime();
+                final List<Point> path = readPoints();
+                final int distance = readSignedVarInt();
+                return new Trip.Individual(type, departure, departureTime, arrival, arrivalTime, path, distance);
+            } else {
+                throw new IOException("unknown leg: " + kind);
+            }
+        }
+
+        public Trip readTrip() throws IOException {
+            final String id = readString();
+            final Location from = readLocation();
+            final Location to = readLocation();
+            final int numLegs = readCount();
+            final List<Trip.Leg> legs = new ArrayList<>(Math.max(numLegs, 0));
+            for (int i = 0; i < numLegs; i++)
+                legs.add(readLeg());
+            final int numFares = readCount();
+            final List<Fare> fares;
+            if (numFares >= 0) {
+                fares = new ArrayList<>(numFares);
+                for (int i = 0; i < numFares; i++)
+                    fares.add(readFare());
+            } else {
+                fares = null;
+            }
+            final int[] capacity = readIntArray();
+            final long numChanges = readVarLong();
+            return new Trip(id, from, to, legs, fares, capacity,
+                    numChanges != 0 ? (int) unZigZag(numChanges - 1) : null);
+        }
+
+        public QueryTripsResult readQueryTripsResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final QueryTripsResult.Status status = readEnum(QueryTripsResult.Status.class);
+            if (status == QueryTripsResult.Status.OK) {
+                final String queryUri = readString();
+                final Location from = readLocation();
+                final Location via = readLocation();
+                final Location to = readLocation();
+                final QueryTripsContext context = (QueryTripsContext) readOpaque();
+                final int numTrips = readCount();
+                final List<Trip> trips = new ArrayList<>(Math.max(numTrips, 0));
+                for (int i = 0; i < numTrips; i++)
+                    trips.add(readTrip());
+                return new QueryTripsResult(header, queryUri, from, via, to, context, trips);
+            } else if (status == QueryTripsResult.Status.AMBIGUOUS) {
+                final List<Location> ambiguousFrom = readLocations();
+                final List<Location> ambiguousVia = readLocations();
+                final List<Location> ambiguousTo = readLocations();
+                return new QueryTripsResult(header, ambiguousFrom, ambiguousVia, ambiguousTo);
+            } else {
+                return new QueryTripsResult(header, status);
+            }
+        }
+
+        public Departure readDeparture() throws IOException {
+            final Date plannedTime = readTime();
+            final Date predictedTime = readTime();
+            final Line line = readLine();
+            final Position position = readPosition();
+            final Location destination = readLocation();
+            final int[] capacity = readIntArray();
+            final String message = readString();
+            return new Departure(plannedTime, predictedTime, line, position, destination, capacity, message);
+        }
+
+        public QueryDeparturesResult readQueryDeparturesResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final QueryDeparturesResult.Status status = readEnum(QueryDeparturesResult.Status.class);
+            final QueryDeparturesResult result = status == QueryDeparturesResult.Status.OK
+                    ? new QueryDeparturesResult(header) : new QueryDeparturesResult(header, status);
+            final int numStations = readCount();
+            for (int i = 0; i < numStations; i++) {
+                final Location location = readLocation();
+                final int numDepartures = readCount();
+                final List<Departure> departures = new ArrayList<>(Math.max(numDepartures, 0));
+                for (int j = 0; j < numDepartures; j++)
+                    departures.add(readDeparture());
+                final int numLines = readCount();
+                final List<LineDestination> lines;
+                if (numLines >= 0) {
+                    lines = new ArrayList<>(numLines);
+                    for (int j = 0; j < numLines; j++) {
+                        final Line line = readLine();
+                        lines.add(new LineDestination(line, readLocation()));
+                    }
+                } else {
+                    lines = null;
+                }
+                result.stationDepartures.add(new StationDepartures(location, departures, lines));
+            }
+            return result;
+        }
+
+        public NearbyLocationsResult readNearbyLocationsResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final NearbyLocationsResult.Status status = readEnum(NearbyLocationsResult.Status.class);
+            final List<Location> locations = readLocations();
+            return status == NearbyLocationsResult.Status.OK ? new NearbyLocationsResult(header, locations)
+                    : new NearbyLocationsResult(header, status);
+        }
+
+        public SuggestLocationsResult readSuggestLocationsResult() throws IOException {
+            final ResultHeader header = readHeader();
+            final SuggestLocationsResult.Status status = readEnum(SuggestLocationsResult.Status.class);
+            final int count = readCount();
+            if (status != SuggestLocationsResult.Status.OK)
+                return new SuggestLocationsResult(header, status);
+            final List<SuggestedLocation> suggestedLocations = new ArrayList<>(Math.max(count, 0));
+            for (int i = 0; i < count; i++) {
+                final Location location = readLocation();
+                suggestedLocations.add(new SuggestedLocation(location, readSignedVarInt()));
+            }
+            return new SuggestLocationsResult(header, suggestedLocations);
+        }
+    }
+}
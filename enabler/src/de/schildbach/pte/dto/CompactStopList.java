@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import javax.annotation.Nullable;
+
+/**
+ * <p>
+ * Immutable list of stops stored as parallel primitive arrays, meant for the intermediate stops of
+ * {@link Trip.Public} legs that are kept around for a long time, e.g. in a cache.
+ * </p>
+ * 
+ * <p>
+ * Times are kept in a {@code long[]}, locations and positions as indices into tables of distinct instances, and
+ * cancellations in a bitset. {@link Stop} objects are created on demand by {@link #get(int)}.
+ * </p>
+ */
+public final class CompactStopList extends AbstractList<Stop> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 3436395722624939616L;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+    private static final int NO_POSITION = -1;
+
+    private static final int PLANNED_ARRIVAL = 0;
+    private static final int PREDICTED_ARRIVAL = 1;
+    private static final int PLANNED_DEPARTURE = 2;
+    private static final int PREDICTED_DEPARTURE = 3;
+    private static final int FIELDS = 4;
+
+    private final int size;
+    private final Location[] locations;
+    private final int[] locationIndices;
+    private final long[] times;
+    private final Position[] positions;
+    private final int[] positionIndices;
+    private final BitSet cancelled;
+
+    private CompactStopList(final List<Stop> stops) {
+        this.size = stops.size();
+        this.locationIndices = new int[size];
+        this.times = new long[size * FIELDS];
+        this.positionIndices = new int[size * FIELDS];
+        this.cancelled = new BitSet(size * 2);
+
+        final Map<Location, Integer> locationTable = new IdentityHashMap<>();
+        final List<Location> locations = new ArrayList<>();
+        final Map<Position, Integer> positionTable = new HashMap<>();
+        final List<Position> positions = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            final Stop stop = stops.get(i);
+
+            Integer locationIndex = locationTable.get(stop.location);
+            if (locationIndex == null) {
+                locationIndex = locations.size();
+                locationTable.put(stop.location, locationIndex);
+                locations.add(stop.location);
+            }
+            locationIndices[i] = locationIndex;
+
+            final int base = i * FIELDS;
+            times[base + PLANNED_ARRIVAL] = time(stop.plannedArrivalTime);
+            times[base + PREDICTED_ARRIVAL] = time(stop.predictedArrivalTime);
+            times[base + PLANNED_DEPARTURE] = time(stop.plannedDepartureTime);
+            times[base + PREDICTED_DEPARTURE] = time(stop.predictedDepartureTime);
+
+            positionIndices[base + PLANNED_ARRIVAL] = position(stop.plannedArrivalPosition, positionTable,
+                    positions);
+            positionIndices[base + PREDICTED_ARRIVAL] = position(stop.predictedArrivalPosition, positionTable,
+                    positions);
+            positionIndices[base + PLANNED_DEPARTURE] = position(stop.plannedDeparturePosition, positionTable,
+                    positions);
+            positionIndices[base + PREDICTED_DEPARTURE] = position(stop.predictedDeparturePosition, positionTable,
+                    positions);
+
+            cancelled.set(i * 2, stop.arrivalCancelled);
+            cancelled.set(i * 2 + 1, stop.departureCancelled);
+        }
+
+        this.locations = locations.toArray(new Location[locations.size()]);
+        this.positions = positions.toArray(new Position[positions.size()]);
+    }
+
+    /**
+     * Returns a compact copy of the given stops, or {@code null} if {@code stops} is {@code null}. Stops that are
+     * already compact are returned as they are.
+     */
+    public static @Nullable List<Stop> of(final @Nullable List<Stop> stops) {
+        if (stops == null || stops instanceof CompactStopList)
+            return stops;
+        return new CompactStopList(stops);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Stop get(final int index) {
+        checkElementIndex(index, size);
+        final int base = index * FIELDS;
+        return new Stop(locations[locationIndices[index]], date(times[base + PLANNED_ARRIVAL]),
+                date(times[base + PREDICTED_ARRIVAL]), position(positionIndices[base + PLANNED_ARRIVAL]),
+                position(positionIndices[base + PREDICTED_ARRIVAL]), cancelled.get(index * 2),
+                date(times[base + PLANNED_DEPARTURE]), date(times[base + PREDICTED_DEPARTURE]),
+                position(positionIndices[base + PLANNED_DEPARTURE]),
+                position(positionIndices[base + PREDICTED_DEPARTURE]), cancelled.get(index * 2 + 1));
+    }
+
+    /** Location of a stop, without creating the {@link Stop}. */
+    public Location getLocation(final int index) {
+        checkElementIndex(index, size);
+        return locations[locationIndices[index]];
+    }
+
+    private static long time(final @Nullable Date date) {
+        return date != null ? date.getTime() : NO_TIME;
+    }
+
+    private static @Nullable Date date(final long time) {
+        return time != NO_TIME ? new Date(time) : null;
+    }
+
+    private static int position(final @Nullable Position position, final Map<Position, Integer> table,
+            final List<Position> positions) {
+        if (position == null)
+            return NO_POSITION;
+        Integer index = table.get(position);
+        if (index == null) {
+            index = positions.size();
+            table.put(position, index);
+            positions.add(position);
+        }
+        return index;
+    }
+
+    private @Nullable Position position(final int index) {
+        return index != NO_POSITION ? positions[index] : null;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+/**
+ * <p>
+ * Context that carries everything needed to query more trips. Querying with it neither changes the context nor
+ * advances a session on the server, so it may be used any number of times, in any order, and speculatively.
+ * </p>
+ * 
+ * <p>
+ * Implementations compare equal if they query the same pages, so that copies, e.g. deserialized ones, can be matched
+ * with the original.
+ * </p>
+ */
+public interface StatelessQueryTripsContext extends QueryTripsContext {
+}
@@ -219,6 +219,26 @@ public final class Trip implements Serializable {
         }
     }
 
+    /**
+     * Replaces the intermediate stops of public legs by a {@link CompactStopList}, to save memory. As this changes the
+     * legs in place, it must only be called on trips that have not been handed out yet.
+     */
+    public void compactIntermediateStops() {
+        for (int i = 0; i < legs.size(); i++) {
+            final Trip.Leg leg = legs.get(i);
+
+            if (leg instanceof Trip.Public) {
+                final Trip.Public publicLeg = (Trip.Public) leg;
+                final List<Stop> intermediateStops = publicLeg.intermediateStops;
+
+                if (intermediateStops != null && !(intermediateStops instanceof CompactStopList))
+                    legs.set(i, new Trip.Public(publicLeg.line, publicLeg.destination, publicLeg.departureStop,
+                            publicLeg.arrivalStop, CompactStopList.of(intermediateStops), publicLeg.path,
+                            publicLeg.message));
+            }
+        }
+    }
+
     public Set<Product> products() {
         final Set<Product> products = EnumSet.noneOf(Product.class);
 
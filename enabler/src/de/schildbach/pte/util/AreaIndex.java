@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Point;
+
+/**
+ * <p>
+ * Answers which networks cover a coordinate, given the areas from {@link de.schildbach.pte.NetworkProvider#getArea()}.
+ * </p>
+ * 
+ * <p>
+ * Areas are kept as {@link AreaPolygon}s and registered in a sparse grid of one-degree cells. A lookup only tests the
+ * areas of one cell, first against their bounding box and then with a point-in-polygon test. The index can be written
+ * to and read from a stream, so areas need not be fetched again.
+ * </p>
+ * 
+ * <p>
+ * Some providers describe their area by two opposite corners of a bounding box, which is indexed as that box. Others
+ * only return a single centre point; without any extent these cannot be tested against, so they are skipped.
+ * </p>
+ */
+public final class AreaIndex {
+    private static final int FILE_MAGIC = 0x50544541; // PTEA
+    private static final int FILE_VERSION = 1;
+    private static final int CELL_SIZE = 1000000; // one degree
+
+    private final NetworkId[] networks;
+    private final AreaPolygon[] polygons;
+    private final Map<Long, int[]> cells = new HashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(AreaIndex.class);
+
+    /**
+     * @param areas
+     *            areas by network, each a polygon of at least three points or two opposite corners of a box; networks
+     *            without area or with only a centre point are skipped
+     */
+    public AreaIndex(final Map<NetworkId, Point[]> areas) {
+        final List<NetworkId> networks = new ArrayList<>(areas.size());
+        final List<AreaPolygon> polygons = new ArrayList<>(areas.size());
+        for (final Map.Entry<NetworkId, Point[]> entry : areas.entrySet()) {
+            final NetworkId network = checkNotNull(entry.getKey());
+            final Point[] area = entry.getValue();
+            if (area == null || area.length == 0)
+                continue;
+            if (area.length == 1) {
+                log.info("skipping area of {}: only a centre point", network);
+                continue;
+            }
+            networks.add(network);
+            polygons.add(area.length == 2 ? box(area[0], area[1]) : AreaPolygon.fromPoints(area));
+        }
+
+        final int size = networks.size();
+        this.networks = networks.toArray(new NetworkId[size]);
+        this.polygons = polygons.toArray(new AreaPolygon[size]);
+
+        final Map<Long, List<Integer>> cellLists = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final AreaPolygon polygon = this.polygons[i];
+            for (int latCell = cell(polygon.minLat); latCell <= cell(polygon.maxLat); latCell++) {
+                for (int lonCell = cell(polygon.minLon); lonCell <= cell(polygon.maxLon); lonCell++) {
+                    final Long key = cellKey(latCell, lonCell);
+                    List<Integer> list = cellLists.get(key);
+                    if (list == null) {
+                        list = new ArrayList<>(2);
+                        cellLists.put(key, list);
+                    }
+                    list.add(i);
+                }
+            }
+        }
+        for (final Map.Entry<Long, List<Integer>> entry : cellLists.entrySet()) {
+            final List<Integer> list = entry.getValue();
+            final int[] indices = new int[list.size()];
+            for (int i = 0; i < indices.length; i++)
+                indices[i] = list.get(i);
+            cells.put(entry.getKey(), indices);
+        }
+    }
+
+    /**
+     * @return networks whose area contains the coordinate, in the order they were given
+     */
+    public List<NetworkId> networksAt(final int lat, final int lon) {
+        final int[] candidates = cells.get(cellKey(cell(lat), cell(lon)));
+        if (candidates == null)
+            return new ArrayList<>(0);
+        final List<NetworkId> result = new ArrayList<>(candidates.length);
+        for (final int i : candidates)
+            if (polygons[i].contains(lat, lon))
+                result.add(networks[i]);
+        return result;
+    }
+
+    /**
+     * @return of the networks whose area contains the coordinate, the one with the smallest bounding box, or
+     *         {@code null} if there is none
+     */
+    public @Nullable NetworkId mostSpecificAt(final int lat, final int lon) {
+        final int[] candidates = cells.get(cellKey(cell(lat), cell(lon)));
+        if (candidates == null)
+            return null;
+        NetworkId result = null;
+        long resultSize = Long.MAX_VALUE;
+        for (final int i : candidates) {
+            final AreaPolygon polygon = polygons[i];
+            if (polygon.contains(lat, lon)) {
+                final long size = (long) (polygon.maxLat - polygon.minLat) * (polygon.maxLon - polygon.minLon);
+                if (size < resultSize) {
+                    result = networks[i];
+                    resultSize = size;
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return networks.length;
+    }
+
+    /** Areas in this index, by network. */
+    public Map<NetworkId, Point[]> areas() {
+        final Map<NetworkId, Point[]> areas = new LinkedHashMap<>();
+        for (int i = 0; i < networks.length; i++)
+            areas.put(networks[i], polygons[i].toPoints());
+        return areas;
+    }
+
+    public void write(final OutputStream os) throws IOException {
+        final DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(networks.length);
+        for (int i = 0; i < networks.length; i++) {
+            out.writeUTF(networks[i].name());
+            final Point[] polygon = polygons[i].toPoints();
+            out.writeInt(polygon.length);
+            for (final Point point : polygon) {
+                out.writeInt(point.lat);
+                out.writeInt(point.lon);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads an index written by {@link #write(OutputStream)}. Areas of networks that no longer exist are skipped.
+     */
+    public static AreaIndex read(final InputStream is) throws IOException {
+        final DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != FILE_MAGIC)
+            throw new IOException("not an area index");
+        final int version = in.readInt();
+        if (version != FILE_VERSION)
+            throw new IOException("unsupported area index version: " + version);
+        final int size = in.readInt();
+        checkArgument(size >= 0);
+        final Map<NetworkId, Point[]> areas = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            final String name = in.readUTF();
+            final Point[] polygon = new Point[in.readInt()];
+            for (int p = 0; p < polygon.length; p++)
+                polygon[p] = new Point(in.readInt(), in.readInt());
+            try {
+                areas.put(NetworkId.valueOf(name), polygon);
+            } catch (final IllegalArgumentException x) {
+                // network has been removed
+            }
+        }
+        return new AreaIndex(areas);
+    }
+
+    private static AreaPolygon box(final Point a, final Point b) {
+        final int minLat = Math.min(a.lat, b.lat), maxLat = Math.max(a.lat, b.lat);
+        final int minLon = Math.min(a.lon, b.lon), maxLon = Math.max(a.lon, b.lon);
+        return new AreaPolygon(new int[] { minLat, minLon, maxLat, minLon, maxLat, maxLon, minLat, maxLon });
+    }
+
+    private static int cell(final int coordinate) {
+        return coordinate >= 0 ? coordinate / CELL_SIZE : (coordinate - CELL_SIZE + 1) / CELL_SIZE;
+    }
+
+    private static long cellKey(final int latCell, final int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xffffffffL);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.schildbach.pte.dto.Point;
+
+/**
+ * <p>
+ * Polygon kept as a compact ring of interleaved latitude and longitude in micro-degrees, together with its bounding
+ * box, so that containment checks can reject most coordinates without looking at the ring.
+ * </p>
+ * 
+ * <p>
+ * Rings can be read from the well-known text (WKT) of a {@code POLYGON} or {@code MULTIPOLYGON}, reduced using the
+ * Douglas-Peucker algorithm, and encoded to bytes for persisting.
+ * </p>
+ */
+public final class AreaPolygon {
+    private final int[] ring;
+    public final int minLat, maxLat, minLon, maxLon;
+
+    /**
+     * @param ring
+     *            interleaved latitude and longitude in micro-degrees, of at least three points
+     */
+    public AreaPolygon(final int[] ring) {
+        checkArgument(ring.length % 2 == 0 && ring.length >= 6, "need at least three points");
+        this.ring = ring;
+        int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+        for (int i = 0; i < ring.length; i += 2) {
+            minLat = Math.min(minLat, ring[i]);
+            maxLat = Math.max(maxLat, ring[i]);
+            minLon = Math.min(minLon, ring[i + 1]);
+            maxLon = Math.max(maxLon, ring[i + 1]);
+        }
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+    }
+
+    public int size() {
+        return ring.length / 2;
+    }
+
+    /** Even-odd ray casting along the latitude axis, after a check against the bounding box. */
+    public boolean contains(final int lat, final int lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon)
+            return false;
+
+        boolean inside = false;
+        for (int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2) {
+            final int latI = ring[i], latJ = ring[j];
+            if ((latI > lat) != (latJ > lat)) {
+                final int lonI = ring[i + 1], lonJ = ring[j + 1];
+                final double crossLon = lonJ + (double) (lat - latJ) * (lonI - lonJ) / (latI - latJ);
+                if (lon < crossLon)
+                    inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @param points
+     *            at least three points
+     */
+    public static AreaPolygon fromPoints(final Point[] points) {
+        final int[] ring = new int[points.length * 2];
+        for (int p = 0; p < points.length; p++) {
+            ring[p * 2] = points[p].lat;
+            ring[p * 2 + 1] = points[p].lon;
+        }
+        return new AreaPolygon(ring);
+    }
+
+    public Point[] toPoints() {
+        final Point[] points = new Point[size()];
+        for (int p = 0; p < points.length; p++)
+            points[p] = new Point(ring[p * 2], ring[p * 2 + 1]);
+        return points;
+    }
+
+    public byte[] toBytes() {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + ring.length * 4);
+        buffer.putInt(ring.length);
+        buffer.asIntBuffer().put(ring);
+        return buffer.array();
+    }
+
+    public static AreaPolygon fromBytes(final byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int length = buffer.getInt();
+        checkArgument(length >= 0 && bytes.length == 4 + length * 4, "corrupt polygon");
+        final int[] ring = new int[length];
+        buffer.asIntBuffer().get(ring);
+        return new AreaPolygon(ring);
+    }
+
+    /**
+     * Reads the first ring of a WKT {@code POLYGON} or {@code MULTIPOLYGON}, i.e. the outer boundary of its first
+     * polygon. Coordinates are scanned directly into micro-degrees, without going through strings or doubles.
+     * 
+     * @return interleaved latitude and longitude in micro-degrees
+     */
+    public static int[] parseWktRing(final CharSequence wkt) {
+        final WktScanner scanner = new WktScanner(wkt);
+        scanner.skipTo('(');
+        while (scanner.peek() == '(' || Character.isWhitespace(scanner.peek()))
+            scanner.pos++;
+
+        int[] ring = new int[256];
+        int length = 0;
+        while (true) {
+            if (length + 2 > ring.length)
+                ring = Arrays.copyOf(ring, ring.length * 2);
+            // WKT coordinates are in (longitude, latitude) order
+            final int lon = scanner.nextMicroDegrees();
+            final int lat = scanner.nextMicroDegrees();
+            ring[length++] = lat;
+            ring[length++] = lon;
+
+            final char delimiter = scanner.nextDelimiter();
+            if (delimiter == ')')
+                return Arrays.copyOf(ring, length);
+            checkArgument(delimiter == ',', "unexpected '%s' at %s", delimiter, scanner.pos - 1);
+        }
+    }
+
+    /**
+     * Reduces a ring using the Douglas-Peucker algorithm, keeping only points that deviate more than the tolerance
+     * from the simplified outline. Rings that would collapse to less than three distinct points are returned as they
+     * are.
+     * 
+     * @param tolerance
+     *            maximum deviation in micro-degrees
+     */
+    public static int[] simplify(final int[] ring, final int tolerance) {
+        final int size = ring.length / 2;
+        if (size <= 4)
+            return ring;
+
+        final boolean[] keep = new boolean[size];
+        keep[0] = keep[size - 1] = true;
+        final double toleranceSquared = (double) tolerance * tolerance;
+        // pairs of first and last index of the spans still to be simplified
+        final int[] stack = new int[size * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            double maxDistanceSquared = toleranceSquared;
+            int farthest = -1;
+            for (int p = first + 1; p < last; p++) {
+                final double distanceSquared = distanceSquared(ring, p, first, last);
+                if (distanceSquared > maxDistanceSquared) {
+                    maxDistanceSquared = distanceSquared;
+                    farthest = p;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        int kept = 0;
+        for (final boolean k : keep)
+            if (k)
+                kept++;
+        if (kept < 4)
+            return ring;
+        final int[] simplified = new int[kept * 2];
+        for (int p = 0, s = 0; p < size; p++) {
+            if (keep[p]) {
+                simplified[s++] = ring[p * 2];
+                simplified[s++] = ring[p * 2 + 1];
+            }
+        }
+        return simplified;
+    }
+
+    /** Squared distance of point p to the segment from point a to point b. */
+    private static double distanceSquared(final int[] ring, final int p, final int a, final int b) {
+        final double lat = ring[p * 2], lon = ring[p * 2 + 1];
+        final double latA = ring[a * 2], lonA = ring[a * 2 + 1];
+        final double dLat = ring[b * 2] - latA, dLon = ring[b * 2 + 1] - lonA;
+        final double lengthSquared = dLat * dLat + dLon * dLon;
+        double t = lengthSquared > 0 ? ((lat - latA) * dLat + (lon - lonA) * dLon) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        final double eLat = lat - (latA + t * dLat), eLon = lon - (lonA + t * dLon);
+        return eLat * eLat + eLon * eLon;
+    }
+
+    private static final class WktScanner {
+        private final CharSequence wkt;
+        private int pos = 0;
+
+        private WktScanner(final CharSequence wkt) {
+            this.wkt = wkt;
+        }
+
+        private char peek() {
+            return pos < wkt.length() ? wkt.charAt(pos) : 0;
+        }
+
+        private void skipTo(final char c) {
+            while (pos < wkt.length() && wkt.charAt(pos) != c)
+                pos++;
+            checkArgument(pos < wkt.length(), "missing '%s'", c);
+        }
+
+        private char nextDelimiter() {
+            while (Character.isWhitespace(peek()))
+                pos++;
+            checkArgument(pos < wkt.length(), "unexpected end");
+            return wkt.charAt(pos++);
+        }
+
+        /** Scans a decimal number of degrees, rounded to micro-degrees. */
+        private int nextMicroDegrees() {
+            while (Character.isWhitespace(peek()))
+                pos++;
+            final int start = pos;
+            boolean negative = false;
+            if (peek() == '-') {
+                negative = true;
+                pos++;
+            } else if (peek() == '+') {
+                pos++;
+            }
+
+            long value = 0;
+            int digits = 0;
+            for (char c = peek(); c >= '0' && c <= '9'; c = peek()) {
+                value = value * 10 + (c - '0');
+                digits++;
+                pos++;
+            }
+            checkArgument(digits > 0 && digits <= 4, "not a coordinate at %s", start);
+            value *= 1000000;
+            if (peek() == '.') {
+                pos++;
+                int scale = 100000;
+                for (char c = peek(); c >= '0' && c <= '9'; c = peek()) {
+                    if (scale > 0)
+                        value += (c - '0') * scale;
+                    else if (scale == 0 && c >= '5')
+                        value++;
+                    scale = scale > 0 ? scale / 10 : -1;
+                    pos++;
+                }
+            }
+
+            final char c = peek();
+            if (c == 'e' || c == 'E') {
+                // rare enough to not bother
+                pos++;
+                if (peek() == '-' || peek() == '+')
+                    pos++;
+                while (peek() >= '0' && peek() <= '9')
+                    pos++;
+                return (int) Math.round(Double.parseDouble(wkt.subSequence(start, pos).toString()) * 1E6);
+            }
+
+            return (int) (negative ? -value : value);
+        }
+    }
+}
@@ -54,6 +54,7 @@ import okhttp3.CertificatePinner;
 import okhttp3.Cookie;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -79,6 +80,10 @@ public final class HttpClient {
     @Nullable
     private CertificatePinner certificatePinner = null;
     private boolean sslAcceptAllHostnames = false;
+    @Nullable
+    private HttpTape tape = null;
+    @Nullable
+    private HttpUrl upstreamOverride = null;
 
     private static final OkHttpClient OKHTTP_CLIENT;
     static {
@@ -134,6 +139,18 @@ public final class HttpClient {
         this.sslAcceptAllHostnames = sslAcceptAllHostnames;
     }
 
+    public void setTape(final HttpTape tape) {
+        this.tape = tape;
+    }
+
+    /**
+     * Sends all requests to the given server instead, keeping their path and query. The original host is passed in
+     * the {@code Host} header. Meant for running against a stand-in upstream.
+     */
+    public void setUpstreamOverride(final HttpUrl upstreamOverride) {
+        this.upstreamOverride = upstreamOverride;
+    }
+
     public CharSequence get(final HttpUrl url) throws IOException {
         return get(url, null, null);
     }
@@ -186,7 +203,8 @@ public final class HttpClient {
                 request.header("Cookie", sessionCookie.toString());
 
             final OkHttpClient okHttpClient;
-            if (proxy != null || trustAllCertificates || certificatePinner != null || sslAcceptAllHostnames) {
+            if (proxy != null || trustAllCertificates || certificatePinner != null || sslAcceptAllHostnames
+                    || tape != null || upstreamOverride != null) {
                 final OkHttpClient.Builder builder = OKHTTP_CLIENT.newBuilder();
                 if (proxy != null)
                     builder.proxy(proxy);
@@ -196,6 +214,10 @@ public final class HttpClient {
                     builder.certificatePinner(certificatePinner);
                 if (sslAcceptAllHostnames)
                     builder.hostnameVerifier(SSL_ACCEPT_ALL_HOSTNAMES);
+                if (tape != null)
+                    builder.addInterceptor(tape.interceptor());
+                if (upstreamOverride != null)
+                    builder.addInterceptor(upstreamOverrideInterceptor(upstreamOverride));
                 okHttpClient = builder.build();
             } else {
                 okHttpClient = OKHTTP_CLIENT;
@@ -259,6 +281,18 @@ public final class HttpClient {
         }
     }
 
+    private static Interceptor upstreamOverrideInterceptor(final HttpUrl upstream) {
+        return new Interceptor() {
+            @Override
+            public Response intercept(final Chain chain) throws IOException {
+                final Request request = chain.request();
+                final HttpUrl url = request.url().newBuilder().scheme(upstream.scheme()).host(upstream.host())
+                        .port(upstream.port()).build();
+                return chain.proceed(request.newBuilder().url(url).header("Host", request.url().host()).build());
+            }
+        };
+    }
+
     private static final Pattern P_REDIRECT_HTTP_EQUIV = Pattern.compile(
             "<META\\s+http-equiv=\"?refresh\"?\\s+content=\"\\d+;\\s*URL=([^\"]+)\"", Pattern.CASE_INSENSITIVE);
 
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+/**
+ * <p>
+ * Records the HTTP exchanges of an {@link HttpClient} to a file, or replays them from that file without touching the
+ * network.
+ * </p>
+ * 
+ * <p>
+ * A replayed request is answered by the recorded exchange with the same method, URL and body. Requests often contain
+ * the current time though, so if there is no exact match the exchanges recorded for the same method, host and path
+ * are handed out in recording order, starting over when they are used up. Query parameters can also be left out of
+ * matching altogether, see {@link #ignoreQueryParameter(String)}.
+ * </p>
+ */
+public final class HttpTape {
+    public enum Mode {
+        RECORD, REPLAY
+    }
+
+    private static final int FILE_MAGIC = 0x50544548; // PTEH
+    private static final int FILE_VERSION = 1;
+
+    private final File file;
+    private final Mode mode;
+    private final Set<String> ignoredQueryParameters = new HashSet<>();
+    private final List<Exchange> exchanges = new ArrayList<>();
+    private @Nullable Map<String, Exchange> exchangesByKey = null;
+    private final Map<String, Integer> nextByPath = new HashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(HttpTape.class);
+
+    private HttpTape(final File file, final Mode mode) {
+        this.file = checkNotNull(file);
+        this.mode = checkNotNull(mode);
+    }
+
+    /**
+     * Appends all exchanges to the given file, creating it if needed.
+     */
+    public static HttpTape record(final File file) {
+        return new HttpTape(file, Mode.RECORD);
+    }
+
+    /**
+     * Answers all requests from the exchanges recorded in the given file.
+     */
+    public static HttpTape replay(final File file) throws IOException {
+        final HttpTape tape = new HttpTape(file, Mode.REPLAY);
+        tape.load();
+        return tape;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public synchronized HttpTape ignoreQueryParameter(final String name) {
+        ignoredQueryParameters.add(checkNotNull(name));
+        exchangesByKey = null;
+        return this;
+    }
+
+    public synchronized int size() {
+        return exchanges.size();
+    }
+
+    Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(final Chain chain) throws IOException {
+                final Request request = chain.request();
+                if (mode == Mode.REPLAY)
+                    return replay(request);
+                else
+                    return record(request, chain.proceed(request));
+            }
+        };
+    }
+
+    private Response record(final Request request, final Response response) throws IOException {
+        final ResponseBody body = response.body();
+        final MediaType contentType = body.contentType();
+        final byte[] bytes = body.bytes();
+        final Exchange exchange = new Exchange(request.method(), request.url(), requestBody(request), response.code(),
+                response.message(), response.headers(), bytes);
+        synchronized (this) {
+            exchanges.add(exchange);
+            exchangesByKey = null;
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file, true)));
+            try {
+                if (file.length() == 0) {
+                    out.writeInt(FILE_MAGIC);
+                    out.writeInt(FILE_VERSION);
+                }
+                exchange.write(out);
+            } finally {
+                out.close();
+            }
+        }
+        return response.newBuilder().body(ResponseBody.create(contentType, bytes)).build();
+    }
+
+    private Response replay(final Request request) throws IOException {
+        final Response response = answer(request);
+        if (response == null)
+            throw new IOException("no recorded exchange for " + request.method() + " " + request.url());
+        return response;
+    }
+
+    /**
+     * Answers the given request from the recorded exchanges, or returns null if none matches. The scheme and port
+     * of the request are not taken into account.
+     */
+    public @Nullable Response answer(final Request request) throws IOException {
+        final Exchange exchange = find(request.method(), request.url(), requestBody(request));
+        if (exchange == null)
+            return null;
+        final String contentType = exchange.headers.get("Content-Type");
+        return new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(exchange.code)
+                .message(exchange.message).headers(exchange.headers)
+                .body(ResponseBody.create(contentType != null ? MediaType.parse(contentType) : null, exchange.body))
+                .build();
+    }
+
+    private synchronized @Nullable Exchange find(final String method, final HttpUrl url, final byte[] body) {
+        if (exchangesByKey == null) {
+            exchangesByKey = new HashMap<>();
+            for (final Exchange exchange : exchanges) {
+                final String key = key(exchange.method, exchange.url, exchange.requestBody);
+                if (!exchangesByKey.containsKey(key))
+                    exchangesByKey.put(key, exchange);
+            }
+        }
+        final Exchange exact = exchangesByKey.get(key(method, url, body));
+        if (exact != null)
+            return exact;
+
+        final String pathKey = pathKey(method, url);
+        final Integer next = nextByPath.get(pathKey);
+        final int size = exchanges.size();
+        for (int i = 0; i < size; i++) {
+            final int index = ((next != null ? next : 0) + i) % size;
+            final Exchange exchange = exchanges.get(index);
+            if (pathKey(exchange.method, exchange.url).equals(pathKey)) {
+                nextByPath.put(pathKey, index + 1);
+                return exchange;
+            }
+        }
+        return null;
+    }
+
+    private void load() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC)
+                throw new IOException("not a tape: " + file);
+            final int version = in.readInt();
+            if (version != FILE_VERSION)
+                throw new IOException("unsupported tape version " + version + ": " + file);
+            while (true) {
+                final String method;
+                try {
+                    method = in.readUTF();
+                } catch (final EOFException x) {
+                    break;
+                }
+                exchanges.add(Exchange.read(method, in));
+            }
+        } finally {
+            in.close();
+        }
+        log.info("loaded {} exchanges from {}", exchanges.size(), file);
+    }
+
+    private static byte[] requestBody(final Request request) throws IOException {
+        if (request.body() == null)
+            return new byte[0];
+        final Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        return buffer.readByteArray();
+    }
+
+    private String key(final String method, final HttpUrl url, final byte[] body) {
+        final StringBuilder key = new StringBuilder(pathKey(method, url));
+        for (final String name : url.queryParameterNames())
+            if (!ignoredQueryParameters.contains(name))
+                key.append('&').append(name).append('=').append(url.queryParameterValues(name));
+        key.append('\n').append(new String(body, Charsets.UTF_8));
+        return key.toString();
+    }
+
+    private static String pathKey(final String method, final HttpUrl url) {
+        return method + ' ' + url.host() + url.encodedPath();
+    }
+
+    private static final class Exchange {
+        final String method;
+        final HttpUrl url;
+        final byte[] requestBody;
+        final int code;
+        final String message;
+        final Headers headers;
+        final byte[] body;
+
+        Exchange(final String method, final HttpUrl url, final byte[] requestBody, final int code,
+                final String message, final Headers headers, final byte[] body) {
+            this.method = method;
+            this.url = url;
+            this.requestBody = requestBody;
+            this.code = code;
+            this.message = message;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeUTF(method);
+            out.writeUTF(url.toString());
+            writeBytes(out, requestBody);
+            out.writeShort(code);
+            out.writeUTF(message);
+            out.writeShort(headers.size());
+            for (int i = 0; i < headers.size(); i++) {
+                out.writeUTF(headers.name(i));
+                out.writeUTF(headers.value(i));
+            }
+            writeBytes(out, body);
+        }
+
+        static Exchange read(final String method, final DataInputStream in) throws IOException {
+            final HttpUrl url = HttpUrl.parse(in.readUTF());
+            final byte[] requestBody = readBytes(in);
+            final int code = in.readShort();
+            final String message = in.readUTF();
+            final Headers.Builder headers = new Headers.Builder();
+            for (int i = in.readShort(); i > 0; i--)
+                headers.add(in.readUTF(), in.readUTF());
+            final byte[] body = readBytes(in);
+            return new Exchange(method, url, requestBody, code, message, headers.build(), body);
+        }
+
+        private static void writeBytes(final DataOutputStream out, final byte[] bytes) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(final DataInputStream in) throws IOException {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Charsets;
+
+/**
+ * <p>
+ * Persistent key/value store backed by a memory-mapped file of fixed capacity. Records are only ever appended; an
+ * index from key to record offset is kept in memory and rebuilt by scanning the record headers when the store is
+ * opened, so values are only read when they are asked for.
+ * </p>
+ * 
+ * <p>
+ * Each record carries an expiry time and a checksum. A torn record at the end of the file, e.g. after a crash, ends
+ * the scan. If an append does not fit, the store is compacted in place: expired and overwritten records are
+ * dropped, and if that does not free enough space, the oldest records are evicted.
+ * </p>
+ */
+public final class MappedResultStore implements Closeable {
+    private static final int FILE_MAGIC = 0x50544543; // PTEC
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_MAGIC = 0x52454331; // REC1
+    private static final int RECORD_HEADER_SIZE = 24; // magic, key length, value length, expiry, crc
+    private static final int TERMINATOR_SIZE = 4;
+    private static final double COMPACTION_FILL_RATIO = 0.75;
+
+    private final File file;
+    private final int capacity;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Integer> index = new HashMap<>();
+    private int end;
+
+    public MappedResultStore(final File file, final int capacity) throws IOException {
+        checkArgument(capacity > FILE_HEADER_SIZE + RECORD_HEADER_SIZE + TERMINATOR_SIZE, "capacity too small");
+        this.file = checkNotNull(file);
+        this.capacity = capacity;
+        this.raf = new RandomAccessFile(file, "rw");
+        final boolean fresh = raf.length() < FILE_HEADER_SIZE;
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (!fresh && buffer.getInt(0) == FILE_MAGIC && buffer.getInt(4) == FILE_VERSION) {
+            rebuildIndex(System.currentTimeMillis());
+        } else {
+            buffer.putInt(0, FILE_MAGIC);
+            buffer.putInt(4, FILE_VERSION);
+            end = FILE_HEADER_SIZE;
+            buffer.putInt(end, 0);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized @Nullable byte[] get(final String key, final long now) {
+        final Integer offset = index.get(key);
+        if (offset == null)
+            return null;
+        if (buffer.getLong(offset + 12) <= now) {
+            index.remove(key);
+            return null;
+        }
+        final int keyLength = buffer.getInt(offset + 4);
+        final int valueLength = buffer.getInt(offset + 8);
+        final byte[] value = new byte[valueLength];
+        read(offset + RECORD_HEADER_SIZE + keyLength, value);
+        return value;
+    }
+
+    /** Expiry time of the value stored for a key, or {@code 0} if there is none. */
+    public synchronized long expiresAt(final String key) {
+        final Integer offset = index.get(key);
+        return offset != null ? buffer.getLong(offset + 12) : 0;
+    }
+
+    /**
+     * Appends a value. Values that cannot fit into the store, even after compaction, are silently dropped.
+     * 
+     * @return {@code true} if the value was stored
+     */
+    public synchronized boolean put(final String key, final byte[] value, final long expiresAt, final long now) {
+        final byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+        final int size = RECORD_HEADER_SIZE + keyBytes.length + value.length;
+        if (FILE_HEADER_SIZE + size + TERMINATOR_SIZE > capacity * COMPACTION_FILL_RATIO)
+            return false;
+
+        index.remove(key);
+        if (end + size + TERMINATOR_SIZE > capacity)
+            compact(now, size);
+
+        final int offset = end;
+        buffer.putInt(offset + 4, keyBytes.length);
+        buffer.putInt(offset + 8, value.length);
+        buffer.putLong(offset + 12, expiresAt);
+        write(offset + RECORD_HEADER_SIZE, keyBytes);
+        write(offset + RECORD_HEADER_SIZE + keyBytes.length, value);
+        buffer.putInt(offset + 20, checksum(offset, keyBytes.length, value.length));
+        buffer.putInt(offset + size, 0);
+        // the record only becomes visible with its magic
+        buffer.putInt(offset, RECORD_MAGIC);
+
+        end = offset + size;
+        index.put(key, offset);
+        return true;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /** Bytes occupied by records, including expired and overwritten ones. */
+    public synchronized int usedBytes() {
+        return end - FILE_HEADER_SIZE;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        raf.close();
+    }
+
+    private void rebuildIndex(final long now) {
+        int offset = FILE_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= capacity && buffer.getInt(offset) == RECORD_MAGIC) {
+            final int keyLength = buffer.getInt(offset + 4);
+            final int valueLength = buffer.getInt(offset + 8);
+            if (keyLength < 0 || valueLength < 0
+                    || (long) offset + RECORD_HEADER_SIZE + keyLength + valueLength + TERMINATOR_SIZE > capacity)
+                break;
+            if (buffer.getInt(offset + 20) != checksum(offset, keyLength, valueLength))
+                break;
+
+            final byte[] keyBytes = new byte[keyLength];
+            read(offset + RECORD_HEADER_SIZE, keyBytes);
+            final String key = new String(keyBytes, Charsets.UTF_8);
+            if (buffer.getLong(offset + 12) > now)
+                index.put(key, offset);
+            else
+                index.remove(key);
+
+            offset += RECORD_HEADER_SIZE + keyLength + valueLength;
+        }
+        end = offset;
+        buffer.putInt(end, 0);
+    }
+
+    private void compact(final long now, final int needed) {
+        final List<Integer> live = new ArrayList<>(index.size());
+        final Map<Integer, String> keys = new HashMap<>();
+        for (final Map.Entry<String, Integer> entry : index.entrySet()) {
+            final int offset = entry.getValue();
+            if (buffer.getLong(offset + 12) > now) {
+                live.add(offset);
+                keys.put(offset, entry.getKey());
+            }
+        }
+        Collections.sort(live);
+
+        long liveBytes = 0;
+        for (final int offset : live)
+            liveBytes += recordSize(offset);
+
+        // evict oldest records until there is some headroom
+        final long target = (long) (capacity * COMPACTION_FILL_RATIO) - FILE_HEADER_SIZE - needed - TERMINATOR_SIZE;
+        int first = 0;
+        while (liveBytes > target && first < live.size())
+            liveBytes -= recordSize(live.get(first++));
+
+        index.clear();
+        int dest = FILE_HEADER_SIZE;
+        for (int i = first; i < live.size(); i++) {
+            final int offset = live.get(i);
+            final int size = recordSize(offset);
+            if (dest != offset) {
+                final byte[] record = new byte[size];
+                read(offset, record);
+                buffer.putInt(dest + size, 0);
+                write(dest, record);
+            }
+            index.put(keys.get(offset), dest);
+            dest += size;
+        }
+        end = dest;
+        buffer.putInt(end, 0);
+    }
+
+    private int recordSize(final int offset) {
+        return RECORD_HEADER_SIZE + buffer.getInt(offset + 4) + buffer.getInt(offset + 8);
+    }
+
+    private int checksum(final int offset, final int keyLength, final int valueLength) {
+        final CRC32 crc = new CRC32();
+        final byte[] expiresAt = new byte[8];
+        read(offset + 12, expiresAt);
+        crc.update(expiresAt);
+        final byte[] payload = new byte[keyLength + valueLength];
+        read(offset + RECORD_HEADER_SIZE, payload);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void read(final int offset, final byte[] dst) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(dst);
+    }
+
+    private void write(final int offset, final byte[] src) {
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(src);
+    }
+}
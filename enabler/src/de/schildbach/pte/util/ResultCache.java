@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import de.schildbach.pte.dto.BinaryCodec;
+
+/**
+ * <p>
+ * Two-tier cache for provider results. The first tier is an on-heap LRU cache holding encoded results, bounded by
+ * their size. The optional second tier is a {@link MappedResultStore}, which survives restarts. A hit in the second
+ * tier is promoted into the first tier.
+ * </p>
+ * 
+ * <p>
+ * Every entry carries its own time to live. Values are encoded using {@link BinaryCodec}, so only the result types
+ * supported by the codec can be cached. Every hit is decoded into a fresh copy, so callers are free to modify the
+ * results they get, and results stored are not affected by later changes to the stored instance.
+ * </p>
+ */
+public final class ResultCache implements Closeable {
+    private final Cache<String, Entry> memory;
+    private final @Nullable MappedResultStore disk;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+    /**
+     * @param maxMemoryBytes
+     *            maximum encoded size of the entries in the first tier
+     * @param disk
+     *            second tier, or {@code null} for a memory-only cache
+     */
+    public ResultCache(final long maxMemoryBytes, final @Nullable MappedResultStore disk) {
+        checkArgument(maxMemoryBytes > 0, "maxMemoryBytes must be positive");
+        this.memory = CacheBuilder.newBuilder().maximumWeight(maxMemoryBytes).weigher(new Weigher<String, Entry>() {
+            @Override
+            public int weigh(final String key, final Entry entry) {
+                return entry.bytes.length;
+            }
+        }).build();
+        this.disk = disk;
+    }
+
+    public @Nullable Object get(final String key) {
+        final long now = System.currentTimeMillis();
+
+        final Entry entry = memory.getIfPresent(key);
+        if (entry != null) {
+            if (entry.expiresAt > now) {
+                final Object value = decode(key, entry.bytes);
+                if (value != null) {
+                    memoryHits.incrementAndGet();
+                    return value;
+                }
+            }
+            memory.invalidate(key);
+        }
+
+        if (disk != null) {
+            final byte[] bytes = disk.get(key, now);
+            if (bytes != null) {
+                final Object value = decode(key, bytes);
+                if (value != null) {
+                    memory.put(key, new Entry(bytes, disk.expiresAt(key)));
+                    diskHits.incrementAndGet();
+                    return value;
+                }
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private static @Nullable Object decode(final String key, final byte[] bytes) {
+        try {
+            return BinaryCodec.decode(bytes);
+        } catch (final IOException x) {
+            log.info("cannot decode cached " + key + ", ignoring", x);
+            return null;
+        }
+    }
+
+    public void put(final String key, final Object value, final long ttlMs) {
+        checkNotNull(key);
+        checkNotNull(value);
+        final long expiresAt = System.currentTimeMillis() + ttlMs;
+        final byte[] bytes;
+        try {
+            bytes = BinaryCodec.encode(value);
+        } catch (final IOException x) {
+            log.info("cannot encode " + key + ", not caching", x);
+            return;
+        }
+        memory.put(key, new Entry(bytes, expiresAt));
+        if (disk != null)
+            disk.put(key, bytes, expiresAt, System.currentTimeMillis());
+    }
+
+    public void invalidateMemory() {
+        memory.invalidateAll();
+    }
+
+    public long memoryHits() {
+        return memoryHits.get();
+    }
+
+    public long diskHits() {
+        return diskHits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null)
+            disk.close();
+    }
+
+    private static final class Entry {
+        public final byte[] bytes;
+        public final long expiresAt;
+
+        public Entry(final byte[] bytes, final long expiresAt) {
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.util.LoopbackServer;
+
+import okhttp3.HttpUrl;
+
+public class AbstractHafasMobileProviderTest {
+    private static final Date DATE = new GregorianCalendar(2017, 4, 2, 6, 0).getTime();
+
+    private LoopbackServer server;
+    private Provider provider;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        final byte[] tripSearch = ByteStreams
+                .toByteArray(getClass().getResourceAsStream("fixtures/hafas-mobile-tripsearch.json"));
+        server = LoopbackServer.start(new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String request = new String(ByteStreams.toByteArray(exchange.getRequestBody()), Charsets.UTF_8);
+                final byte[] body;
+                try {
+                    final JSONArray svcReqL = new JSONObject(request).getJSONArray("svcReqL");
+                    requests.add(request);
+                    if ("TripSearch".equals(svcReqL.getJSONObject(0).getString("meth"))) {
+                        body = tripSearch;
+                    } else {
+                        final StringBuilder svcResL = new StringBuilder();
+                        for (int i = 0; i < svcReqL.length(); i++) {
+                            if (i > 0)
+                                svcResL.append(',');
+                            svcResL.append(svcRes(svcReqL.getJSONObject(i)));
+                        }
+                        body = ("{\"ver\":\"1.11\",\"svcResL\":[" + svcResL + "]}").getBytes(Charsets.UTF_8);
+                    }
+                } catch (final JSONException x) {
+                    throw new IOException(x);
+                }
+                LoopbackServer.respond(exchange, "application/json; charset=UTF-8", body);
+            }
+        });
+        provider = new Provider(server.base());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    // name matches resolve to station 1, unless the name contains "Nowhere"; coordinates resolve to station 2
+    private static String svcRes(final JSONObject svcReq) throws JSONException {
+        final String meth = svcReq.getString("meth");
+        if ("StationBoard".equals(meth)) {
+            return "{\"meth\":\"StationBoard\",\"err\":\"OK\",\"res\":{\"common\":{\"remL\":[],\"opL\":[],"
+                    + "\"prodL\":[],\"locL\":[]},\"jnyL\":[]}}";
+        } else if ("LocMatch".equals(meth)) {
+            final String name = svcReq.getJSONObject("req").getJSONObject("input").getJSONObject("loc")
+                    .getString("name");
+            return "{\"meth\":\"LocMatch\",\"err\":\"OK\",\"res\":{\"common\":{\"remL\":[]},\"match\":{\"locL\":"
+                    + (name.contains("Nowhere") ? "[]" : "[" + station(1) + "]") + "}}}";
+        } else {
+            return "{\"meth\":\"LocGeoPos\",\"err\":\"OK\",\"res\":{\"common\":{\"remL\":[]},\"locL\":["
+                    + station(2) + "]}}";
+        }
+    }
+
+    private static String station(final int index) {
+        return "{\"type\":\"S\",\"name\":\"Station " + index + "\",\"extId\":\"90000000" + index
+                + "\",\"crd\":{\"x\":13000000,\"y\":52000000}}";
+    }
+
+    @Test
+    public void identifyLocationsByNameInSingleRequest() throws IOException {
+        final QueryTripsResult result = provider.queryTrips(
+                new Location(LocationType.ADDRESS, null, "Synthetic", "Main Street 1"), null,
+                new Location(LocationType.ADDRESS, null, 52000000, 13000000, "Synthetic", "High Street 2"), DATE,
+                true, Product.ALL, null, null, null, null);
+
+        assertEquals(QueryTripsResult.Status.OK, result.status);
+        assertEquals(2, requests.size());
+        final String identify = requests.get(0);
+        assertEquals(2, count(identify, "\"meth\":\"LocMatch\""));
+        assertEquals(0, count(identify, "\"meth\":\"LocGeoPos\""));
+        assertTrue(identify, identify.contains("\"formatted\":true"));
+    }
+
+    @Test
+    public void identifyUnmatchedLocationsByCoordinate() throws IOException {
+        final QueryTripsResult result = provider.queryTrips(
+                new Location(LocationType.ADDRESS, null, "Synthetic", "Main Street 1"), null,
+                new Location(LocationType.ADDRESS, null, 52000000, 13000000, "Synthetic", "Nowhere 2"), DATE, true,
+                Product.ALL, null, null, null, null);
+
+        assertEquals(QueryTripsResult.Status.OK, result.status);
+        assertEquals(3, requests.size());
+        final String byName = requests.get(0);
+        assertEquals(2, count(byName, "\"meth\":\"LocMatch\""));
+        assertEquals(0, count(byName, "\"meth\":\"LocGeoPos\""));
+        final String byCoord = requests.get(1);
+        assertEquals(0, count(byCoord, "\"meth\":\"LocMatch\""));
+        assertEquals(1, count(byCoord, "\"meth\":\"LocGeoPos\""));
+        final String tripSearch = requests.get(2);
+        assertTrue(tripSearch, tripSearch.contains("\"depLocL\":[{\"type\":\"S\",\"extId\":\"900000001\"}]"));
+        assertTrue(tripSearch, tripSearch.contains("\"arrLocL\":[{\"type\":\"S\",\"extId\":\"900000002\"}]"));
+    }
+
+    @Test
+    public void unknownLocationSkipsTripSearch() throws IOException {
+        final QueryTripsResult result = provider.queryTrips(new Location(LocationType.STATION, "900000001"),
+                new Location(LocationType.ADDRESS, null, "Synthetic", "Nowhere 3"),
+                new Location(LocationType.STATION, "900000002"), DATE, true, Product.ALL, null, null, null, null);
+
+        assertEquals(QueryTripsResult.Status.UNKNOWN_VIA, result.status);
+        assertEquals(1, requests.size());
+        assertEquals(1, count(requests.get(0), "\"meth\":"));
+    }
+
+    @Test
+    public void batchConcurrentCalls() throws Exception {
+        provider.setBatchWindow(500);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final Future<QueryDeparturesResult> departures = executor.submit(new Callable<QueryDeparturesResult>() {
+                @Override
+                public QueryDeparturesResult call() throws IOException {
+                    return provider.queryDepartures("900000001", DATE, 10, false);
+                }
+            });
+            final Future<SuggestLocationsResult> suggestions = executor.submit(new Callable<SuggestLocationsResult>() {
+                @Override
+                public SuggestLocationsResult call() throws IOException {
+                    return provider.suggestLocations("Main Street");
+                }
+            });
+            final Future<NearbyLocationsResult> nearby = executor.submit(new Callable<NearbyLocationsResult>() {
+                @Override
+                public NearbyLocationsResult call() throws IOException {
+                    return provider.queryNearbyLocations(EnumSet.of(LocationType.STATION),
+                            Location.coord(52000000, 13000000), 0, 0);
+                }
+            });
+
+            assertEquals(QueryDeparturesResult.Status.OK, departures.get().status);
+            assertEquals("900000001", suggestions.get().getLocations().get(0).id);
+            assertEquals("900000002", nearby.get().locations.get(0).id);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, requests.size());
+        assertEquals(3, count(requests.get(0), "\"meth\":"));
+    }
+
+    @Test
+    public void queryDeparturesOfSeveralStations() throws IOException {
+        final List<String> stationIds = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            stationIds.add("9000001" + (10 + i));
+        final List<QueryDeparturesResult> results = provider.queryDepartures(stationIds, DATE, 10, false);
+
+        assertEquals(20, results.size());
+        for (final QueryDeparturesResult result : results)
+            assertEquals(QueryDeparturesResult.Status.OK, result.status);
+        assertEquals(2, requests.size());
+        assertEquals(16, count(requests.get(0), "\"meth\":\"StationBoard\""));
+        assertEquals(4, count(requests.get(1), "\"meth\":\"StationBoard\""));
+        assertTrue(requests.get(1), requests.get(1).contains("\"extId\":\"900000129\""));
+    }
+
+    private static int count(final String string, final String substring) {
+        return string.split(Pattern.quote(substring), -1).length - 1;
+    }
+
+    private static class Provider extends AbstractHafasMobileProvider {
+        public Provider(final HttpUrl apiBase) {
+            super(NetworkId.BVG, apiBase, new Product[] { Product.SUBURBAN_TRAIN, Product.SUBWAY, Product.TRAM,
+                    Product.BUS, Product.FERRY, Product.HIGH_SPEED_TRAIN, Product.REGIONAL_TRAIN });
+            setApiVersion("1.11");
+            setApiAuthorization("{\"type\":\"AID\",\"aid\":\"test\"}");
+            setApiClient("{\"id\":\"BVG\"}");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.util.LoopbackServer;
+import de.schildbach.pte.util.MappedResultStore;
+
+import okhttp3.HttpUrl;
+
+public class AbstractNavitiaProviderTest {
+    private LoopbackServer server;
+    private HttpUrl apiBase;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = LoopbackServer.start(new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                final String query = exchange.getRequestURI().getQuery();
+                requests.add(path);
+                final String json;
+                if (path.endsWith("/departures"))
+                    json = "{\"departures\":[]}";
+                else if (path.matches(".*/coverage/[^/]+"))
+                    json = "{\"regions\":[{\"id\":\"area\",\"shape\":\"MULTIPOLYGON(((2.0 48.0,2.5 48.0000001,"
+                            + "3.0 48.0,3.0 49.0,2.0 49.0,2.0 48.0)))\"}]}";
+                else if (path.endsWith("/stop_points") && query.contains("start_page=0"))
+                    json = stopPoints(0, "1", "2");
+                else if (path.endsWith("/stop_points"))
+                    json = stopPoints(1, "3");
+                else
+                    json = stopPoints(0, path.substring(path.lastIndexOf(':') + 1));
+                LoopbackServer.respondJson(exchange, json);
+            }
+        });
+        apiBase = server.base().resolve("v1/");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    // pages of up to two of three stop points, stop point n belongs to stop area n
+    private static String stopPoints(final int startPage, final String... ids) {
+        final StringBuilder json = new StringBuilder("{\"pagination\":{\"start_page\":" + startPage
+                + ",\"items_on_page\":" + ids.length + ",\"items_per_page\":2,\"total_result\":3},\"stop_points\":[");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("{\"id\":\"stop_point:SP:" + ids[i] + "\",\"stop_area\":{\"id\":\"stop_area:SA:" + ids[i]
+                    + "\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    @Test
+    public void preloadedStopAreaNeedsNoLookup() throws IOException {
+        final Provider provider = new Provider(apiBase, "preload");
+        assertEquals(3, provider.preloadStopAreaIds());
+        assertEquals(2, requests.size());
+        requests.clear();
+
+        final QueryDeparturesResult result = provider.queryDepartures("stop_point:SP:3", new Date(), 10, true);
+        assertEquals(QueryDeparturesResult.Status.OK, result.status);
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0), requests.get(0).endsWith("/coverage/preload/stop_areas/stop_area:SA:3/departures"));
+    }
+
+    @Test
+    public void stopAreaLookedUpOnce() throws IOException {
+        final Provider provider = new Provider(apiBase, "lookup");
+        provider.queryDepartures("stop_point:SP:7", new Date(), 10, true);
+        provider.queryDepartures("stop_point:SP:7", new Date(), 10, true);
+
+        assertEquals(3, requests.size());
+        assertTrue(requests.get(0), requests.get(0).endsWith("/coverage/lookup/stop_points/stop_point:SP:7"));
+        assertTrue(requests.get(1), requests.get(1).endsWith("/stop_areas/stop_area:SA:7/departures"));
+        assertEquals(requests.get(1), requests.get(2));
+    }
+
+    @Test
+    public void areaFetchedOnce() throws IOException {
+        final Point[] area = new Provider(apiBase, "area").getArea();
+        assertEquals(5, area.length);
+        assertEquals(new Point(48000000, 2000000), area[0]);
+        assertEquals(new Point(49000000, 3000000), area[2]);
+        assertTrue(new Provider(apiBase, "area").getAreaPolygon().contains(48500000, 2500000));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void storeSurvivesRestart() throws IOException {
+        final File file = File.createTempFile("navitia", ".store");
+        try {
+            final MappedResultStore store = new MappedResultStore(file, 64 * 1024);
+            AbstractNavitiaProvider.setStore(store);
+            final Provider provider = new Provider(apiBase, "stored");
+            assertEquals(3, provider.preloadStopAreaIds());
+            provider.getArea();
+            store.close();
+
+            AbstractNavitiaProvider.invalidateMemory();
+            final MappedResultStore reopened = new MappedResultStore(file, 64 * 1024);
+            AbstractNavitiaProvider.setStore(reopened);
+            requests.clear();
+            final Provider restarted = new Provider(apiBase, "stored");
+            restarted.queryDepartures("stop_point:SP:2", new Date(), 10, true);
+            assertEquals(5, restarted.getArea().length);
+            reopened.close();
+
+            assertEquals(1, requests.size());
+            assertTrue(requests.get(0),
+                    requests.get(0).endsWith("/coverage/stored/stop_areas/stop_area:SA:2/departures"));
+        } finally {
+            AbstractNavitiaProvider.setStore(null);
+            file.delete();
+        }
+    }
+
+    private static class Provider extends AbstractNavitiaProvider {
+        private final String region;
+
+        public Provider(final HttpUrl apiBase, final String region) {
+            super(NetworkId.PARIS, apiBase, null);
+            this.region = region;
+        }
+
+        @Override
+        protected String region() {
+            return region;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+
+public class AbstractNetworkProviderTest {
+    @Test
+    public void internLine() {
+        final StyledProvider provider = new StyledProvider();
+
+        final Line s1 = provider.internLine(null, "vbb", Product.SUBURBAN_TRAIN, "S1", null, null, null);
+        assertSame(s1, provider.internLine(null, "vbb", Product.SUBURBAN_TRAIN, "S1", null, null, null));
+        assertEquals(Style.RED, s1.style.backgroundColor);
+
+        final Line s1WithMessage = provider.internLine(null, "vbb", Product.SUBURBAN_TRAIN, "S1", null, null,
+                "Diversion");
+        assertNotSame(s1, s1WithMessage);
+        assertEquals("Diversion", s1WithMessage.message);
+        assertSame(s1.style, s1WithMessage.style);
+        assertEquals(1, provider.lineStyleCalls);
+
+        provider.internLine(null, "vbb", Product.SUBURBAN_TRAIN, "S2", null, null, null);
+        assertEquals(2, provider.lineStyleCalls);
+    }
+
+    @Test
+    public void internLineCopiesAttrs() {
+        final StyledProvider provider = new StyledProvider();
+        final Set<Line.Attr> attrs = EnumSet.of(Line.Attr.BICYCLE_CARRIAGE);
+        final Line line = provider.internLine(null, "vbb", Product.BUS, "100", null, attrs, null);
+        attrs.add(Line.Attr.WHEEL_CHAIR_ACCESS);
+
+        assertEquals(EnumSet.of(Line.Attr.BICYCLE_CARRIAGE), line.attrs);
+        assertSame(line, provider.internLine(null, "vbb", Product.BUS, "100", null,
+                EnumSet.of(Line.Attr.BICYCLE_CARRIAGE), null));
+        assertNotSame(line, provider.internLine(null, "vbb", Product.BUS, "100", null, attrs, null));
+    }
+
+    private static class StyledProvider extends AbstractNetworkProvider {
+        public int lineStyleCalls = 0;
+
+        public StyledProvider() {
+            super(NetworkId.VBB);
+            setStyles(ImmutableMap.of("SS1", new Style(Style.RED, Style.WHITE)));
+        }
+
+        @Override
+        public Style lineStyle(final String network, final Product product, final String label) {
+            lineStyleCalls++;
+            return super.lineStyle(network, product, label);
+        }
+
+        @Override
+        protected boolean hasCapability(final Capability capability) {
+            return false;
+        }
+
+        @Override
+        public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+                final int maxDistance, final int maxLocations) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryDeparturesResult queryDepartures(final String stationId, final Date time,
+                final int maxDepartures, final boolean equivs) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryTripsResult queryTrips(final Location from, final Location via, final Location to,
+                final Date date, final boolean dep, final Set<Product> products, final Optimize optimize,
+                final WalkSpeed walkSpeed, final Accessibility accessibility, final Set<Option> options)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.util.ResultCache;
+
+public class CachingNetworkProviderTest {
+    private CountingProvider delegate;
+    private ResultCache cache;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingProvider(NetworkId.RT);
+        cache = new ResultCache(1024 * 1024, null);
+    }
+
+    @Test
+    public void suggestionsAreCachedPerConstraint() throws IOException {
+        final CachingNetworkProvider provider = new CachingNetworkProvider(delegate, cache);
+        provider.suggestLocations("Alexanderplatz");
+        provider.suggestLocations("Alexanderplatz");
+        provider.suggestLocations("Zoo");
+
+        assertEquals(2, delegate.calls.size());
+        assertEquals("Zoo", provider.suggestLocations("Zoo").suggestedLocations.get(0).location.name);
+        assertEquals(2, delegate.calls.size());
+    }
+
+    @Test
+    public void keysIncludeNetwork() throws IOException {
+        new CachingNetworkProvider(delegate, cache).suggestLocations("Alexanderplatz");
+        final CountingProvider other = new CountingProvider(NetworkId.DB);
+        new CachingNetworkProvider(other, cache).suggestLocations("Alexanderplatz");
+
+        assertEquals(1, delegate.calls.size());
+        assertEquals(1, other.calls.size());
+    }
+
+    @Test
+    public void departuresBypassCacheByDefault() throws IOException {
+        final CachingNetworkProvider provider = new CachingNetworkProvider(delegate, cache);
+        final Date time = new Date();
+        provider.queryDepartures("1", time, 10, false);
+        provider.queryDepartures("1", time, 10, false);
+
+        assertEquals(2, delegate.calls.size());
+        assertEquals(0, cache.memoryHits() + cache.misses());
+    }
+
+    @Test
+    public void departuresKeyedByAllParameters() throws IOException {
+        final CachingNetworkProvider provider = new CachingNetworkProvider(delegate, cache)
+                .setTtl(CachingNetworkProvider.Operation.DEPARTURES, 1, TimeUnit.MINUTES);
+        final Date time = new Date();
+        provider.queryDepartures("1", time, 10, false);
+        provider.queryDepartures("1", time, 10, false);
+        provider.queryDepartures("1", time, 10, true);
+        provider.queryDepartures("1", time, 20, false);
+        provider.queryDepartures("1", null, 10, false);
+        provider.queryDepartures("2", time, 10, false);
+
+        assertEquals(5, delegate.calls.size());
+    }
+
+    @Test
+    public void failedResultsAreNotCached() throws IOException {
+        final CachingNetworkProvider provider = new CachingNetworkProvider(delegate, cache);
+        provider.suggestLocations("");
+        provider.suggestLocations("");
+
+        assertEquals(2, delegate.calls.size());
+        assertTrue(cache.misses() > 0);
+    }
+
+    private static class CountingProvider implements NetworkProvider {
+        private final NetworkId network;
+        public final List<String> calls = new ArrayList<>();
+
+        public CountingProvider(final NetworkId network) {
+            this.network = network;
+        }
+
+        @Override
+        public NetworkId id() {
+            return network;
+        }
+
+        @Override
+        public boolean hasCapabilities(final Capability... capabilities) {
+            return true;
+        }
+
+        @Override
+        public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+                final int maxDistance, final int maxLocations) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryDeparturesResult queryDepartures(final String stationId, final Date time,
+                final int maxDepartures, final boolean equivs) throws IOException {
+            calls.add("departures " + stationId);
+            return new QueryDeparturesResult(new ResultHeader(network, "test"));
+        }
+
+        // empty constraints fail
+        @Override
+        public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+            calls.add("suggest " + constraint);
+            if (constraint.length() == 0)
+                return new SuggestLocationsResult(null, SuggestLocationsResult.Status.SERVICE_DOWN);
+            final List<SuggestedLocation> locations = new ArrayList<>();
+            locations.add(new SuggestedLocation(new Location(LocationType.STATION, "1", null, constraint.toString())));
+            return new SuggestLocationsResult(new ResultHeader(network, "test"), locations);
+        }
+
+        @Override
+        public Set<Product> defaultProducts() {
+            return Product.ALL;
+        }
+
+        @Override
+        public QueryTripsResult queryTrips(final Location from, final Location via, final Location to,
+                final Date date, final boolean dep, final Set<Product> products, final Optimize optimize,
+                final WalkSpeed walkSpeed, final Accessibility accessibility, final Set<Option> options)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Style lineStyle(final String network, final Product product, final String label) {
+            return null;
+        }
+
+        @Override
+        public Point[] getArea() throws IOException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.util.AllocationMeter;
+import de.schildbach.pte.util.LoopbackServer;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Guards the allocation per call of the high-volume parse paths against the budgets in
+ * {@code allocation-budget.properties}. The fixtures are served from loopback and include the HTTP client's own
+ * allocation, which is small and stable compared to parsing.
+ */
+public class ParserAllocationTest {
+    private static final int WARMUPS = 100;
+    private static final int ITERATIONS = 50;
+    private static final Date DATE = new GregorianCalendar(2017, 4, 2, 6, 0).getTime();
+    private static final Product[] PRODUCTS_MAP = { Product.SUBURBAN_TRAIN, Product.SUBWAY, Product.TRAM, Product.BUS,
+            Product.FERRY, Product.HIGH_SPEED_TRAIN, Product.REGIONAL_TRAIN, Product.ON_DEMAND, null, null };
+
+    private static Properties budgets;
+    private static AllocationMeter meter;
+
+    private LoopbackServer server;
+    private HttpUrl base;
+    private volatile byte[] fixture;
+    private volatile String contentType;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        budgets = new Properties();
+        final InputStream is = ParserAllocationTest.class.getResourceAsStream("allocation-budget.properties");
+        try {
+            budgets.load(is);
+        } finally {
+            is.close();
+        }
+        meter = AllocationMeter.create();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeNotNull(meter);
+        server = LoopbackServer.start(new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                ByteStreams.exhaust(exchange.getRequestBody());
+                LoopbackServer.respond(exchange, contentType, fixture);
+            }
+        });
+        base = server.base();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null)
+            server.stop();
+    }
+
+    @Test
+    public void hafasLegacyQueryTripsBinary() throws Exception {
+        serve("hafas-trips.bin", "application/octet-stream");
+        final NetworkProvider provider = new HafasLegacyProvider(base);
+        assertWithinBudget("hafasLegacy.queryTripsBinary", new Callable<QueryTripsResult>() {
+            @Override
+            public QueryTripsResult call() throws IOException {
+                final QueryTripsResult result = queryTrips(provider);
+                assertEquals(10, result.trips.size());
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void hafasLegacyXmlStationBoard() throws Exception {
+        serve("hafas-stationboard.xml", "text/xml; charset=ISO-8859-1");
+        final NetworkProvider provider = new HafasLegacyProvider(base);
+        assertWithinBudget("hafasLegacy.xmlStationBoard", new Callable<QueryDeparturesResult>() {
+            @Override
+            public QueryDeparturesResult call() throws IOException {
+                final QueryDeparturesResult result = provider.queryDepartures("900100003", DATE, 40, false);
+                assertEquals(40, result.stationDepartures.get(0).departures.size());
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void efaQueryTrips() throws Exception {
+        serve("efa-trips.xml", "text/xml; charset=UTF-8");
+        final NetworkProvider provider = new VrrProvider(base);
+        assertWithinBudget("efa.queryTrips", new Callable<QueryTripsResult>() {
+            @Override
+            public QueryTripsResult call() throws IOException {
+                final QueryTripsResult result = queryTrips(provider);
+                assertEquals(5, result.trips.size());
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void hafasMobileJsonStationBoard() throws Exception {
+        serve("hafas-mobile-stationboard.json", "application/json; charset=UTF-8");
+        final NetworkProvider provider = new HafasMobileProvider(base);
+        assertWithinBudget("hafasMobile.jsonStationBoard", new Callable<QueryDeparturesResult>() {
+            @Override
+            public QueryDeparturesResult call() throws IOException {
+                final QueryDeparturesResult result = provider.queryDepartures("900100003", DATE, 40, false);
+                assertEquals(40, result.stationDepartures.get(0).departures.size());
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void hafasMobileJsonTripSearch() throws Exception {
+        serve("hafas-mobile-tripsearch.json", "application/json; charset=UTF-8");
+        final NetworkProvider provider = new HafasMobileProvider(base);
+        assertWithinBudget("hafasMobile.jsonTripSearch", new Callable<QueryTripsResult>() {
+            @Override
+            public QueryTripsResult call() throws IOException {
+                final QueryTripsResult result = queryTrips(provider);
+                assertEquals(10, result.trips.size());
+                return result;
+            }
+        });
+    }
+
+    private void serve(final String name, final String contentType) throws IOException {
+        final InputStream is = getClass().getResourceAsStream("fixtures/" + name);
+        assertNotNull(name, is);
+        try {
+            this.fixture = ByteStreams.toByteArray(is);
+        } finally {
+            is.close();
+        }
+        this.contentType = contentType;
+    }
+
+    private static QueryTripsResult queryTrips(final NetworkProvider provider) throws IOException {
+        return provider.queryTrips(new Location(LocationType.STATION, "900000000"), null,
+                new Location(LocationType.STATION, "900000099"), DATE, true, Product.ALL, null, null, null, null);
+    }
+
+    private static void assertWithinBudget(final String key, final Callable<?> operation) throws Exception {
+        final String budget = budgets.getProperty(key);
+        assertNotNull("no budget for " + key, budget);
+        final long bytes = meter.bytesPerOperation(operation, WARMUPS, ITERATIONS);
+        assertTrue(key + " allocated " + bytes + " bytes per call, budget is " + budget
+                + "; if the increase is intended, raise it in allocation-budget.properties",
+                bytes <= Long.parseLong(budget.trim()));
+    }
+
+    private static class HafasLegacyProvider extends AbstractHafasLegacyProvider {
+        public HafasLegacyProvider(final HttpUrl apiBase) {
+            super(NetworkId.VBB, apiBase, "dn", PRODUCTS_MAP);
+        }
+    }
+
+    private static class HafasMobileProvider extends AbstractHafasMobileProvider {
+        public HafasMobileProvider(final HttpUrl apiBase) {
+            super(NetworkId.BVG, apiBase, PRODUCTS_MAP);
+            setApiVersion("1.11");
+            setApiAuthorization("{\"type\":\"AID\",\"aid\":\"test\"}");
+            setApiClient("{\"id\":\"BVG\"}");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import de.schildbach.pte.dto.CompactStopList;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.StatelessQueryTripsContext;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.Trip;
+
+public class PrefetchingNetworkProviderTest {
+    private static final Location FROM = new Location(LocationType.STATION, "1");
+    private static final Location TO = new Location(LocationType.STATION, "2");
+
+    private PagingProvider delegate;
+
+    @Before
+    public void setUp() {
+        delegate = new PagingProvider();
+    }
+
+    @Test
+    public void servesPrefetchedPage() throws Exception {
+        final PrefetchingNetworkProvider provider = new PrefetchingNetworkProvider(delegate,
+                MoreExecutors.newDirectExecutorService(), 2);
+
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        assertEquals(1, delegate.moreTripsCalls);
+        final QueryTripsResult prefetched = delegate.lastMoreTripsResult;
+
+        final QueryTripsResult second = provider.queryMoreTrips(first.context, true);
+        assertSame(prefetched, second);
+        assertEquals(2, delegate.moreTripsCalls); // only the prefetch of the third page
+    }
+
+    @Test
+    public void compactsPrefetchedTrips() throws Exception {
+        final PrefetchingNetworkProvider provider = new PrefetchingNetworkProvider(delegate,
+                MoreExecutors.newDirectExecutorService(), 2);
+
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        assertFalse(first.trips.get(0).getFirstPublicLeg().intermediateStops instanceof CompactStopList);
+        final QueryTripsResult second = provider.queryMoreTrips(first.context, true);
+        final List<Stop> intermediateStops = second.trips.get(0).getFirstPublicLeg().intermediateStops;
+        assertTrue(intermediateStops instanceof CompactStopList);
+        assertEquals("3", intermediateStops.get(0).location.id);
+    }
+
+    @Test
+    public void earlierTripsAreNotPrefetched() throws Exception {
+        final PrefetchingNetworkProvider provider = new PrefetchingNetworkProvider(delegate,
+                MoreExecutors.newDirectExecutorService(), 2);
+
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        provider.queryMoreTrips(first.context, false);
+        assertEquals(2, delegate.moreTripsCalls);
+    }
+
+    @Test
+    public void servesPrefetchedPageForEqualContext() throws Exception {
+        final PrefetchingNetworkProvider provider = new PrefetchingNetworkProvider(delegate,
+                MoreExecutors.newDirectExecutorService(), 2);
+
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        final QueryTripsResult prefetched = delegate.lastMoreTripsResult;
+
+        final QueryTripsResult second = provider.queryMoreTrips(
+                new PagingContext(((PagingContext) first.context).page), true);
+        assertSame(prefetched, second);
+        assertEquals(2, delegate.moreTripsCalls);
+    }
+
+    @Test
+    public void statefulContextsAreNotPrefetched() throws Exception {
+        delegate.stateful = true;
+        final PrefetchingNetworkProvider provider = new PrefetchingNetworkProvider(delegate,
+                MoreExecutors.newDirectExecutorService(), 2);
+
+        final QueryTripsResult first = provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null,
+                null);
+        assertEquals(0, delegate.moreTripsCalls);
+        provider.queryMoreTrips(first.context, true);
+        assertEquals(1, delegate.moreTripsCalls);
+    }
+
+    @Test
+    public void stopsPrefetchingWhenPagesAreNotFollowedUp() throws Exception {
+        final PrefetchingNetworkProvider provider = new PrefetchingNetworkProvider(delegate,
+                MoreExecutors.newDirectExecutorService(), 2, 0.5, 1, 1, Long.MAX_VALUE);
+
+        provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null, null);
+        assertEquals(1, delegate.moreTripsCalls);
+
+        // evicts the first page without a follow-up
+        provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null, null);
+        assertEquals(0, provider.followUpRate(), 0);
+
+        provider.queryTrips(FROM, null, TO, new Date(), true, null, null, null, null, null);
+        assertEquals(2, delegate.moreTripsCalls);
+    }
+
+    private static class PagingProvider implements NetworkProvider {
+        public int moreTripsCalls = 0;
+        public QueryTripsResult lastMoreTripsResult = null;
+        public boolean stateful = false;
+        private int pages = 0;
+
+        @Override
+        public NetworkId id() {
+            return NetworkId.RT;
+        }
+
+        @Override
+        public boolean hasCapabilities(final Capability... capabilities) {
+            return true;
+        }
+
+        @Override
+        public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+                final int maxDistance, final int maxLocations) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryDeparturesResult queryDepartures(final String stationId, final Date time,
+                final int maxDepartures, final boolean equivs) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Product> defaultProducts() {
+            return Product.ALL;
+        }
+
+        @Override
+        public QueryTripsResult queryTrips(final Location from, final Location via, final Location to,
+                final Date date, final boolean dep, final Set<Product> products, final Optimize optimize,
+                final WalkSpeed walkSpeed, final Accessibility accessibility, final Set<Option> options)
+                throws IOException {
+            return page();
+        }
+
+        @Override
+        public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later)
+                throws IOException {
+            moreTripsCalls++;
+            lastMoreTripsResult = page();
+            return lastMoreTripsResult;
+        }
+
+        @Override
+        public Style lineStyle(final String network, final Product product, final String label) {
+            return null;
+        }
+
+        @Override
+        public Point[] getArea() throws IOException {
+            return null;
+        }
+
+        private QueryTripsResult page() {
+            final Date time = new Date();
+            final List<Stop> intermediateStops = new ArrayList<>();
+            intermediateStops.add(new Stop(new Location(LocationType.STATION, "3"), false, time, null, null, null));
+            final List<Trip.Leg> legs = new ArrayList<>();
+            legs.add(new Trip.Public(new Line("1", null, Product.BUS, "100", null), TO,
+                    new Stop(FROM, true, time, null, null, null), new Stop(TO, false, time, null, null, null),
+                    intermediateStops, null, null));
+            final List<Trip> trips = new ArrayList<>();
+            trips.add(new Trip(null, FROM, TO, legs, null, null, 0));
+            final int page = pages++;
+            return new QueryTripsResult(null, null, FROM, null, TO,
+                    stateful ? new SessionContext() : new PagingContext(page), trips);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class PagingContext implements StatelessQueryTripsContext {
+        public final int page;
+
+        public PagingContext(final int page) {
+            this.page = page;
+        }
+
+        @Override
+        public boolean canQueryLater() {
+            return true;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return true;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof PagingContext && ((PagingContext) o).page == page;
+        }
+
+        @Override
+        public int hashCode() {
+            return page;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class SessionContext implements QueryTripsContext {
+        @Override
+        public boolean canQueryLater() {
+            return true;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return true;
+        }
+    }
+}
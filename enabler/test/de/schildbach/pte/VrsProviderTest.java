@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.util.LoopbackServer;
+
+import okhttp3.HttpUrl;
+
+public class VrsProviderTest {
+    private static final String TIMETABLE = "{\"timetable\":[{\"stop\":{\"id\":\"8\",\"name\":\"Hauptbahnhof\","
+            + "\"city\":\"Bonn\",\"x\":50.732,\"y\":7.097},\"events\":[{\"departure\":\"2017-05-02T06:10:00+02:00\","
+            + "\"line\":{\"number\":\"16\",\"product\":\"LightRail\",\"direction\":\"Koeln\"}}]}]}";
+    private static final String HIS_INFO = "{\"his\":{\"lines\":[{\"number\":\"16\",\"postings\":[{\"direction\":"
+            + "\"Koeln\"}]},{\"number\":\"66\",\"postings\":[{\"direction\":\"Siegburg\"}]}]}}";
+
+    private LoopbackServer server;
+    private VrsProvider provider;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final CountDownLatch linesRequested = new CountDownLatch(1);
+    private volatile boolean overlapped = false;
+
+    @Before
+    public void setUp() throws IOException {
+        server = LoopbackServer.start(new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String eid = HttpUrl.parse("http://localhost" + exchange.getRequestURI()).queryParameter("eID");
+                requests.add(eid);
+                if ("tx_vrsinfo_his_info".equals(eid)) {
+                    linesRequested.countDown();
+                    LoopbackServer.respondJson(exchange, HIS_INFO);
+                } else {
+                    // the timetable is only answered once the serving lines are being fetched as well
+                    try {
+                        overlapped = linesRequested.await(5, TimeUnit.SECONDS);
+                    } catch (final InterruptedException x) {
+                        throw new IOException(x);
+                    }
+                    LoopbackServer.respondJson(exchange, TIMETABLE);
+                }
+            }
+        });
+        provider = new VrsProvider();
+        provider.setUpstreamOverride(server.base());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void fetchLinesConcurrently() throws IOException {
+        final QueryDeparturesResult result = provider.queryDepartures("8", null, 10, false);
+
+        assertEquals(QueryDeparturesResult.Status.OK, result.status);
+        assertTrue("serving lines not fetched while the timetable was pending", overlapped);
+        assertEquals(2, requests.size());
+        assertEquals("[16, 66]", labels(result.stationDepartures.get(0).lines).toString());
+    }
+
+    @Test
+    public void cacheLines() throws IOException {
+        provider.queryDepartures("8", null, 10, false);
+        final QueryDeparturesResult result = provider.queryDepartures("8", null, 10, false);
+
+        assertEquals(QueryDeparturesResult.Status.OK, result.status);
+        assertEquals(3, requests.size());
+        assertEquals(1, Collections.frequency(requests, "tx_vrsinfo_his_info"));
+        assertEquals("[16, 66]", labels(result.stationDepartures.get(0).lines).toString());
+    }
+
+    private static List<String> labels(final List<LineDestination> lines) {
+        final List<String> labels = new ArrayList<>();
+        for (final LineDestination line : lines)
+            labels.add(line.line.label);
+        return labels;
+    }
+}
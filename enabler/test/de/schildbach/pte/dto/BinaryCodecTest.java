@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.schildbach.pte.NetworkId;
+
+public class BinaryCodecTest {
+    private static final long T0 = 1483272000000L; // 2017-01-01 12:00 UTC
+
+    @Test
+    public void queryTripsResult() throws Exception {
+        final QueryTripsResult result = sampleQueryTripsResult(6, 12);
+        final QueryTripsResult decoded = BinaryCodec.decode(BinaryCodec.encode(result), QueryTripsResult.class);
+
+        assertEquals(result.status, decoded.status);
+        assertEquals(NetworkId.RT, decoded.header.network);
+        assertEquals(result.queryUri, decoded.queryUri);
+        assertTrue(result.from.equalsAllFields(decoded.from));
+        assertEquals(((SampleContext) result.context).page, ((SampleContext) decoded.context).page);
+        assertEquals(result.trips, decoded.trips);
+
+        for (int i = 0; i < result.trips.size(); i++) {
+            final Trip trip = result.trips.get(i);
+            final Trip decodedTrip = decoded.trips.get(i);
+            assertEquals(trip.fares, decodedTrip.fares);
+            assertArrayEquals(trip.capacity, decodedTrip.capacity);
+            assertEquals(trip.numChanges, decodedTrip.numChanges);
+
+            final Trip.Public leg = (Trip.Public) trip.legs.get(1);
+            final Trip.Public decodedLeg = (Trip.Public) decodedTrip.legs.get(1);
+            assertEquals(leg.line.id, decodedLeg.line.id);
+            assertEquals(leg.line.attrs, decodedLeg.line.attrs);
+            assertEquals(leg.line.style.backgroundColor, decodedLeg.line.style.backgroundColor);
+            assertEquals(leg.path, decodedLeg.path);
+            assertEquals(leg.intermediateStops.size(), decodedLeg.intermediateStops.size());
+            for (int j = 0; j < leg.intermediateStops.size(); j++)
+                assertStopEquals(leg.intermediateStops.get(j), decodedLeg.intermediateStops.get(j));
+
+            final Trip.Individual walk = (Trip.Individual) trip.legs.get(0);
+            final Trip.Individual decodedWalk = (Trip.Individual) decodedTrip.legs.get(0);
+            assertEquals(walk.departureTime, decodedWalk.departureTime);
+            assertEquals(walk.distance, decodedWalk.distance);
+        }
+
+        // lines are shared within a decoded result
+        assertSame(((Trip.Public) decoded.trips.get(0).legs.get(1)).line,
+                ((Trip.Public) decoded.trips.get(1).legs.get(1)).line);
+    }
+
+    @Test
+    public void ambiguousQueryTripsResult() throws Exception {
+        final List<Location> ambiguous = Arrays.asList(new Location(LocationType.STATION, "1", "Berlin", "Zoo"),
+                new Location(LocationType.ADDRESS, null, 52500000, 13400000, "Berlin", "Alexanderplatz 1"));
+        final QueryTripsResult result = new QueryTripsResult(null, ambiguous, null, ambiguous);
+        final QueryTripsResult decoded = BinaryCodec.decode(BinaryCodec.encode(result), QueryTripsResult.class);
+
+        assertNull(decoded.header);
+        assertEquals(QueryTripsResult.Status.AMBIGUOUS, decoded.status);
+        assertEquals(ambiguous, decoded.ambiguousFrom);
+        assertNull(decoded.ambiguousVia);
+        assertEquals(ambiguous, decoded.ambiguousTo);
+    }
+
+    @Test
+    public void queryDeparturesResult() throws Exception {
+        final QueryDeparturesResult result = sampleQueryDeparturesResult(100);
+        final QueryDeparturesResult decoded = BinaryCodec.decode(BinaryCodec.encode(result),
+                QueryDeparturesResult.class);
+
+        assertEquals(result.stationDepartures, decoded.stationDepartures);
+        final Departure departure = result.stationDepartures.get(0).departures.get(0);
+        final Departure decodedDeparture = decoded.stationDepartures.get(0).departures.get(0);
+        assertEquals(departure.position, decodedDeparture.position);
+        assertEquals(departure.message, decodedDeparture.message);
+    }
+
+    @Test
+    public void suggestLocationsResult() throws Exception {
+        final SuggestLocationsResult result = new SuggestLocationsResult(null,
+                Arrays.asList(new SuggestedLocation(new Location(LocationType.STATION, "1", "Berlin", "Zoo"), 10),
+                        new SuggestedLocation(new Location(LocationType.POI, "2", "Berlin", "Reichstag"), 5)));
+        final SuggestLocationsResult decoded = BinaryCodec.decode(BinaryCodec.encode(result),
+                SuggestLocationsResult.class);
+
+        assertEquals(result.suggestedLocations, decoded.suggestedLocations);
+        assertEquals(5, decoded.suggestedLocations.get(1).priority);
+    }
+
+    @Test
+    public void area() throws Exception {
+        final Point[] area = new Point[] { new Point(52500000, 13400000), new Point(-33900000, 151200000),
+                new Point(0, -1) };
+        assertArrayEquals(area, BinaryCodec.decode(BinaryCodec.encode(area), Point[].class));
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersion() throws Exception {
+        final byte[] bytes = BinaryCodec.encode(sampleQueryDeparturesResult(1));
+        bytes[2] = (byte) (BinaryCodec.VERSION + 1);
+        BinaryCodec.decode(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        final byte[] bytes = BinaryCodec.encode(sampleQueryTripsResult(2, 2));
+        BinaryCodec.decode(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    private static void assertStopEquals(final Stop expected, final Stop actual) {
+        assertTrue(expected.location.equalsAllFields(actual.location));
+        assertEquals(expected.plannedArrivalTime, actual.plannedArrivalTime);
+        assertEquals(expected.predictedArrivalTime, actual.predictedArrivalTime);
+        assertEquals(expected.plannedDepartureTime, actual.plannedDepartureTime);
+        assertEquals(expected.predictedDepartureTime, actual.predictedDepartureTime);
+        assertEquals(expected.plannedDeparturePosition, actual.plannedDeparturePosition);
+        assertEquals(expected.arrivalCancelled, actual.arrivalCancelled);
+        assertEquals(expected.departureCancelled, actual.departureCancelled);
+    }
+
+    static QueryTripsResult sampleQueryTripsResult(final int numTrips, final int numIntermediateStops) {
+        final Style style = new Style(Style.Shape.RECT, Style.parseColor("#e30613"), Style.WHITE);
+        final Line line = new Line("de:vbb:S7", "vbb", Product.SUBURBAN_TRAIN, "S7", style,
+                EnumSet.of(Line.Attr.BICYCLE_CARRIAGE));
+        final Location origin = new Location(LocationType.ADDRESS, null, 52520000, 13405000, "Berlin",
+                "Alexanderplatz 1");
+        final List<Location> stations = new ArrayList<>();
+        for (int i = 0; i < numIntermediateStops + 2; i++)
+            stations.add(new Location(LocationType.STATION, Integer.toString(900000000 + i), 52520000 + i * 1000,
+                    13405000 - i * 1500, "Berlin", "Station " + i, EnumSet.of(Product.SUBURBAN_TRAIN, Product.BUS)));
+
+        final List<Trip> trips = new ArrayList<>();
+        for (int t = 0; t < numTrips; t++) {
+            long time = T0 + t * 600000;
+            final List<Trip.Leg> legs = new ArrayList<>();
+            legs.add(new Trip.Individual(Trip.Individual.Type.WALK, origin, new Date(time), stations.get(0),
+                    new Date(time + 240000), null, 320));
+            time += 300000;
+
+            final Stop departureStop = new Stop(stations.get(0), true, new Date(time), new Date(time + 60000),
+                    new Position("1"), new Position("2", "A"));
+            final List<Stop> intermediateStops = new ArrayList<>();
+            final List<Point> path = new ArrayList<>();
+            for (int s = 1; s <= numIntermediateStops; s++) {
+                time += 120000;
+                final Location station = stations.get(s);
+                intermediateStops.add(new Stop(station, new Date(time), new Date(time + 60000), new Position("1"),
+                        null, s % 5 == 0, new Date(time + 30000), new Date(time + 90000), new Position("1"), null,
+                        false));
+                path.add(new Point(station.lat, station.lon));
+                path.add(new Point(station.lat + 300, station.lon - 450));
+            }
+            time += 120000;
+            final Stop arrivalStop = new Stop(stations.get(numIntermediateStops + 1), false, new Date(time), null,
+                    new Position("3"), null);
+            legs.add(new Trip.Public(line, stations.get(stations.size() - 1), departureStop, arrivalStop,
+                    intermediateStops, path, null));
+
+            final List<Fare> fares = Arrays.asList(new Fare("VBB", Fare.Type.ADULT, Currency.getInstance("EUR"),
+                    2.8f, "Zone", "AB"));
+            trips.add(new Trip(null, origin, arrivalStop.location, legs, fares, new int[] { 1, 2 }, 0));
+        }
+
+        final ResultHeader header = new ResultHeader(NetworkId.RT, "hafas", "1.0", null, T0, null);
+        return new QueryTripsResult(header, "http://example.com/trips", origin, null, stations.get(1),
+                new SampleContext(1), trips);
+    }
+
+    static QueryDeparturesResult sampleQueryDeparturesResult(final int numDepartures) {
+        final Location station = new Location(LocationType.STATION, "900100003", 52521481, 13411124, "Berlin",
+                "Alexanderplatz");
+        final List<Departure> departures = new ArrayList<>();
+        final List<LineDestination> lines = new ArrayList<>();
+        for (int i = 0; i < numDepartures; i++) {
+            final Line line = new Line("de:vbb:" + (i % 10), "vbb", Product.BUS, Integer.toString(100 + i % 10),
+                    new Style(Style.YELLOW, Style.BLACK));
+            final Location destination = new Location(LocationType.STATION, Integer.toString(900200000 + i % 10),
+                    "Berlin", "Destination " + (i % 10));
+            departures.add(new Departure(new Date(T0 + i * 60000), i % 3 == 0 ? new Date(T0 + i * 60000 + 45000)
+                    : null, line, new Position(Integer.toString(i % 4 + 1)), destination, null,
+                    i % 7 == 0 ? "Diversion" : null));
+            if (i < 10)
+                lines.add(new LineDestination(line, destination));
+        }
+        final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.VBB, "hafas"));
+        result.stationDepartures.add(new StationDepartures(station, departures, lines));
+        return result;
+    }
+
+    @SuppressWarnings("serial")
+    static final class SampleContext implements QueryTripsContext {
+        public final int page;
+
+        public SampleContext(final int page) {
+            this.page = page;
+        }
+
+        @Override
+        public boolean canQueryLater() {
+            return true;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return true;
+        }
+    }
+}
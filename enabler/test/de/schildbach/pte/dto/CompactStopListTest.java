@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompactStopListTest {
+    @Test
+    public void sameStops() {
+        final QueryTripsResult result = BinaryCodecTest.sampleQueryTripsResult(1, 20);
+        final List<Stop> stops = ((Trip.Public) result.trips.get(0).legs.get(1)).intermediateStops;
+        final List<Stop> compact = CompactStopList.of(stops);
+
+        assertTrue(compact instanceof CompactStopList);
+        assertEquals(stops.size(), compact.size());
+        for (int i = 0; i < stops.size(); i++) {
+            final Stop stop = stops.get(i);
+            final Stop compactStop = compact.get(i);
+            assertSame(stop.location, compactStop.location);
+            assertEquals(stop.plannedArrivalTime, compactStop.plannedArrivalTime);
+            assertEquals(stop.predictedArrivalTime, compactStop.predictedArrivalTime);
+            assertEquals(stop.plannedArrivalPosition, compactStop.plannedArrivalPosition);
+            assertEquals(stop.predictedArrivalPosition, compactStop.predictedArrivalPosition);
+            assertEquals(stop.arrivalCancelled, compactStop.arrivalCancelled);
+            assertEquals(stop.plannedDepartureTime, compactStop.plannedDepartureTime);
+            assertEquals(stop.predictedDepartureTime, compactStop.predictedDepartureTime);
+            assertEquals(stop.plannedDeparturePosition, compactStop.plannedDeparturePosition);
+            assertEquals(stop.predictedDeparturePosition, compactStop.predictedDeparturePosition);
+            assertEquals(stop.departureCancelled, compactStop.departureCancelled);
+        }
+        assertSame(compact, CompactStopList.of(compact));
+    }
+
+    @Test
+    public void compactTrip() {
+        final Trip trip = BinaryCodecTest.sampleQueryTripsResult(1, 5).trips.get(0);
+        final String id = trip.getId();
+        trip.compactIntermediateStops();
+
+        assertTrue(((Trip.Public) trip.legs.get(1)).intermediateStops instanceof CompactStopList);
+        assertEquals(id, trip.getId());
+    }
+}
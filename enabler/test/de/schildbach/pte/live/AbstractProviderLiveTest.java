@@ -19,15 +19,18 @@ package de.schildbach.pte.live;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.Locale;
 import java.util.Properties;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import de.schildbach.pte.AbstractNetworkProvider;
 import de.schildbach.pte.NetworkProvider;
 import de.schildbach.pte.NetworkProvider.Accessibility;
 import de.schildbach.pte.NetworkProvider.WalkSpeed;
@@ -39,6 +42,7 @@ import de.schildbach.pte.dto.QueryDeparturesResult;
 import de.schildbach.pte.dto.QueryTripsContext;
 import de.schildbach.pte.dto.QueryTripsResult;
 import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.util.HttpTape;
 
 /**
  * @author Andreas Schildbach
@@ -48,6 +52,24 @@ public abstract class AbstractProviderLiveTest {
 
     public AbstractProviderLiveTest(final NetworkProvider provider) {
         this.provider = provider;
+
+        // -Dpte.tape=record|replay, optionally with -Dpte.tapeDir=<dir>
+        final String tapeMode = System.getProperty("pte.tape");
+        if (tapeMode != null && provider instanceof AbstractNetworkProvider) {
+            final File tapeFile = new File(System.getProperty("pte.tapeDir", "tapes"), provider.id() + ".tape");
+            final HttpTape tape;
+            if (HttpTape.Mode.valueOf(tapeMode.toUpperCase(Locale.ENGLISH)) == HttpTape.Mode.RECORD) {
+                tapeFile.getParentFile().mkdirs();
+                tape = HttpTape.record(tapeFile);
+            } else {
+                try {
+                    tape = HttpTape.replay(tapeFile);
+                } catch (final IOException x) {
+                    throw new IllegalStateException("cannot replay " + tapeFile, x);
+                }
+            }
+            ((AbstractNetworkProvider) provider).setHttpTape(tape);
+        }
     }
 
     protected final void print(final NearbyLocationsResult result) {
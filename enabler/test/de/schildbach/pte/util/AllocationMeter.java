@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+
+/**
+ * Measures the bytes allocated by the current thread per invocation of an operation, using the thread allocation
+ * counter of HotSpot-based JVMs.
+ */
+public final class AllocationMeter {
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    private AllocationMeter(final com.sun.management.ThreadMXBean threadBean) {
+        this.threadBean = threadBean;
+    }
+
+    /** Returns a meter, or {@code null} if this JVM cannot count allocations per thread. */
+    public static AllocationMeter create() {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        final com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!sunThreadBean.isThreadAllocatedMemorySupported())
+            return null;
+        if (!sunThreadBean.isThreadAllocatedMemoryEnabled())
+            sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+        return new AllocationMeter(sunThreadBean);
+    }
+
+    /**
+     * Runs the operation {@code warmups} times unmeasured, so that class loading and JIT compilation settle, then
+     * returns the mean number of bytes allocated over {@code iterations} further runs.
+     */
+    public long bytesPerOperation(final Callable<?> operation, final int warmups, final int iterations)
+            throws Exception {
+        for (int i = 0; i < warmups; i++)
+            operation.call();
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++)
+            operation.call();
+        final long after = threadBean.getThreadAllocatedBytes(threadId);
+        return (after - before) / iterations;
+    }
+}
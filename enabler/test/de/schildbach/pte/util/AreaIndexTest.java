@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Point;
+
+public class AreaIndexTest {
+    private AreaIndex index;
+
+    @Before
+    public void setUp() {
+        final Map<NetworkId, Point[]> areas = new LinkedHashMap<>();
+        // square around Berlin
+        areas.put(NetworkId.VBB, new Point[] { new Point(52000000, 12500000), new Point(53000000, 12500000),
+                new Point(53000000, 14500000), new Point(52000000, 14500000) });
+        // smaller square inside
+        areas.put(NetworkId.BVG, new Point[] { new Point(52300000, 13000000), new Point(52700000, 13000000),
+                new Point(52700000, 13800000), new Point(52300000, 13800000) });
+        // U shape with its opening towards north, across the equator and the prime meridian
+        areas.put(NetworkId.RT, new Point[] { new Point(-2000000, -2000000), new Point(2000000, -2000000),
+                new Point(2000000, -1000000), new Point(-1000000, -1000000), new Point(-1000000, 1000000),
+                new Point(2000000, 1000000), new Point(2000000, 2000000), new Point(-2000000, 2000000) });
+        areas.put(NetworkId.DB, null);
+        index = new AreaIndex(areas);
+    }
+
+    @Test
+    public void nested() {
+        assertEquals(Arrays.asList(NetworkId.VBB, NetworkId.BVG), index.networksAt(52520000, 13405000));
+        assertEquals(Arrays.asList(NetworkId.VBB), index.networksAt(52100000, 14400000));
+        assertEquals(Collections.emptyList(), index.networksAt(51900000, 13405000));
+    }
+
+    @Test
+    public void concave() {
+        assertEquals(Arrays.asList(NetworkId.RT), index.networksAt(-1500000, 0));
+        assertEquals(Arrays.asList(NetworkId.RT), index.networksAt(1500000, -1500000));
+        assertEquals(Collections.emptyList(), index.networksAt(1500000, 0));
+        assertEquals(Collections.emptyList(), index.networksAt(0, 0));
+    }
+
+    @Test
+    public void mostSpecific() {
+        assertEquals(NetworkId.BVG, index.mostSpecificAt(52520000, 13405000));
+        assertEquals(NetworkId.VBB, index.mostSpecificAt(52100000, 14400000));
+        assertNull(index.mostSpecificAt(51900000, 13405000));
+    }
+
+    @Test
+    public void twoPointsAreBox() {
+        final Map<NetworkId, Point[]> areas = new LinkedHashMap<>();
+        areas.put(NetworkId.BVG, new Point[] { new Point(52700000, 13800000), new Point(52300000, 13000000) });
+        final AreaIndex index = new AreaIndex(areas);
+        assertEquals(Arrays.asList(NetworkId.BVG), index.networksAt(52520000, 13405000));
+        assertEquals(Collections.emptyList(), index.networksAt(52800000, 13405000));
+        assertEquals(4, index.areas().get(NetworkId.BVG).length);
+    }
+
+    @Test
+    public void skipsCentrePoints() {
+        final Map<NetworkId, Point[]> areas = new LinkedHashMap<>();
+        areas.put(NetworkId.MVV, new Point[] { new Point(48140000, 11560000) });
+        final AreaIndex index = new AreaIndex(areas);
+        assertEquals(0, index.size());
+        assertTrue(index.networksAt(48140000, 11560000).isEmpty());
+    }
+
+    @Test
+    public void skipsNetworksWithoutArea() {
+        assertEquals(3, index.size());
+        assertFalse(index.areas().containsKey(NetworkId.DB));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        index.write(os);
+        final AreaIndex read = AreaIndex.read(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(index.size(), read.size());
+        assertEquals(Arrays.asList(NetworkId.VBB, NetworkId.BVG), read.networksAt(52520000, 13405000));
+        assertEquals(Arrays.asList(NetworkId.RT), read.networksAt(-1500000, 0));
+    }
+}
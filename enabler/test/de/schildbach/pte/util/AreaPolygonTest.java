@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.schildbach.pte.dto.Point;
+
+public class AreaPolygonTest {
+    @Test
+    public void parseMultiPolygon() {
+        final int[] ring = AreaPolygon.parseWktRing(
+                "MULTIPOLYGON(((2.2241 48.8156, -1.5 -0.0000004,+3 1.23456789, 2.2241 48.8156)),((0 0,1 1,1 0,0 0)))");
+        assertArrayEquals(new int[] { 48815600, 2224100, 0, -1500000, 1234568, 3000000, 48815600, 2224100 }, ring);
+    }
+
+    @Test
+    public void parsePolygonWithExponent() {
+        final int[] ring = AreaPolygon.parseWktRing("POLYGON ((1e-1 2, 3 4, 5 6, 1e-1 2))");
+        assertArrayEquals(new int[] { 2000000, 100000, 4000000, 3000000, 6000000, 5000000, 2000000, 100000 }, ring);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseMalformed() {
+        AreaPolygon.parseWktRing("POLYGON((1 2;3 4))");
+    }
+
+    @Test
+    public void simplify() {
+        // square with a slightly bent edge and one spike
+        final int[] ring = { 0, 0, 0, 500000, 50, 1000000, 0, 1000000, 1000000, 1000000, 1000000, 500000,
+                1500000, 500000, 1000000, 490000, 1000000, 0, 0, 0 };
+        final int[] simplified = AreaPolygon.simplify(ring, 100);
+        assertArrayEquals(new int[] { 0, 0, 0, 1000000, 1000000, 1000000, 1000000, 500000, 1500000, 500000,
+                1000000, 490000, 1000000, 0, 0, 0 }, simplified);
+    }
+
+    @Test
+    public void simplifyKeepsTinyRing() {
+        final int[] ring = { 0, 0, 0, 10, 10, 10, 10, 0, 0, 0 };
+        assertArrayEquals(ring, AreaPolygon.simplify(ring, 100));
+    }
+
+    // point-in-polygon of concave areas is covered by AreaIndexTest
+    @Test
+    public void boundingBox() {
+        final AreaPolygon polygon = AreaPolygon.fromPoints(new Point[] { new Point(-2000000, 0),
+                new Point(1000000, -1000000), new Point(2000000, 2000000) });
+        assertEquals(-2000000, polygon.minLat);
+        assertEquals(2000000, polygon.maxLat);
+        assertEquals(-1000000, polygon.minLon);
+        assertEquals(2000000, polygon.maxLon);
+        assertTrue(polygon.contains(1000000, 500000));
+        assertFalse(polygon.contains(-2000000, 2000000));
+        assertFalse(polygon.contains(3000000, 0));
+    }
+
+    @Test
+    public void roundTrip() {
+        final int[] ring = { 1, 2, 3, 4, 5, 6, 1, 2 };
+        final AreaPolygon polygon = AreaPolygon.fromBytes(new AreaPolygon(ring).toBytes());
+        assertEquals(4, polygon.size());
+        assertEquals(6, polygon.maxLon);
+        assertEquals(1, polygon.toPoints()[3].lat);
+    }
+}
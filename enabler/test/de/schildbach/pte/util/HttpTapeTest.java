@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import okhttp3.HttpUrl;
+
+public class HttpTapeTest {
+    private LoopbackServer server;
+    private HttpUrl base;
+    private File file;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = LoopbackServer.start(new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                final String requestBody = new String(ByteStreams.toByteArray(is), Charsets.UTF_8);
+                final byte[] body = ("#" + requests.incrementAndGet() + " " + exchange.getRequestURI() + " "
+                        + requestBody).getBytes(Charsets.UTF_8);
+                LoopbackServer.respond(exchange, "text/plain; charset=UTF-8", body);
+            }
+        });
+        base = server.base();
+        file = File.createTempFile("http", ".tape");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    @Test
+    public void recordAndReplay() throws IOException {
+        final HttpClient recorder = new HttpClient();
+        recorder.setTape(HttpTape.record(file));
+        assertEquals("#1 /a?x=1 ", recorder.get(base.resolve("a?x=1")).toString());
+        assertEquals("#2 /a?x=2 ", recorder.get(base.resolve("a?x=2")).toString());
+        assertEquals("#3 /b post", recorder.get(base.resolve("b"), "post", "text/plain").toString());
+        server.stop();
+
+        final HttpClient player = new HttpClient();
+        final HttpTape tape = HttpTape.replay(file);
+        assertEquals(3, tape.size());
+        player.setTape(tape);
+        assertEquals("#2 /a?x=2 ", player.get(base.resolve("a?x=2")).toString());
+        assertEquals("#1 /a?x=1 ", player.get(base.resolve("a?x=1")).toString());
+        assertEquals("#3 /b post", player.get(base.resolve("b"), "post", "text/plain").toString());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void replayWithoutExactMatch() throws IOException {
+        final HttpClient recorder = new HttpClient();
+        recorder.setTape(HttpTape.record(file));
+        recorder.get(base.resolve("a?time=1"));
+        recorder.get(base.resolve("a?time=2"));
+        server.stop();
+
+        final HttpClient player = new HttpClient();
+        player.setTape(HttpTape.replay(file));
+        assertEquals("#1 /a?time=1 ", player.get(base.resolve("a?time=3")).toString());
+        assertEquals("#2 /a?time=2 ", player.get(base.resolve("a?time=4")).toString());
+        assertEquals("#1 /a?time=1 ", player.get(base.resolve("a?time=5")).toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void replayUnknownPath() throws IOException {
+        final HttpClient recorder = new HttpClient();
+        recorder.setTape(HttpTape.record(file));
+        recorder.get(base.resolve("a"));
+        server.stop();
+
+        final HttpClient player = new HttpClient();
+        player.setTape(HttpTape.replay(file));
+        player.get(base.resolve("b"));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Stand-in upstream for tests: an HTTP server on an ephemeral loopback port that passes every request to one
+ * handler. Requests are handled concurrently, so a handler may block until another request arrives.
+ */
+public final class LoopbackServer {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpUrl base;
+
+    private LoopbackServer(final HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        server.setExecutor(executor);
+        server.start();
+        base = HttpUrl.parse("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + server.getAddress().getPort() + "/");
+    }
+
+    public static LoopbackServer start(final HttpHandler handler) throws IOException {
+        return new LoopbackServer(handler);
+    }
+
+    /** Root URL of the server, e.g. {@code http://127.0.0.1:43210/}. */
+    public HttpUrl base() {
+        return base;
+    }
+
+    /** Stops the server. Later requests fail to connect. Can be called more than once. */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void respond(final HttpExchange exchange, final String contentType, final byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        final OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+
+    public static void respondJson(final HttpExchange exchange, final String json) throws IOException {
+        respond(exchange, "application/json; charset=UTF-8", json.getBytes(Charsets.UTF_8));
+    }
+}
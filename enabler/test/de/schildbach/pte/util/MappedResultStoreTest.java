@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedResultStoreTest {
+    private static final long NOW = System.currentTimeMillis();
+    private static final int CAPACITY = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "results.store");
+    }
+
+    @Test
+    public void survivesReopen() throws Exception {
+        final MappedResultStore store = new MappedResultStore(file, CAPACITY);
+        store.put("a", new byte[] { 1, 2, 3 }, NOW + 60000, NOW);
+        store.put("b", new byte[] { 4 }, NOW + 60000, NOW);
+        store.put("a", new byte[] { 5, 6 }, NOW + 60000, NOW);
+        store.close();
+
+        final MappedResultStore reopened = new MappedResultStore(file, CAPACITY);
+        assertEquals(2, reopened.size());
+        assertArrayEquals(new byte[] { 5, 6 }, reopened.get("a", NOW));
+        assertArrayEquals(new byte[] { 4 }, reopened.get("b", NOW));
+        reopened.close();
+    }
+
+    @Test
+    public void expires() throws Exception {
+        final MappedResultStore store = new MappedResultStore(file, CAPACITY);
+        store.put("a", new byte[] { 1 }, NOW + 60000, NOW);
+        assertArrayEquals(new byte[] { 1 }, store.get("a", NOW + 59999));
+        assertNull(store.get("a", NOW + 60000));
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    @Test
+    public void evictsOldestWhenFull() throws Exception {
+        final MappedResultStore store = new MappedResultStore(file, CAPACITY);
+        final byte[] value = new byte[200];
+        for (int i = 0; i < 100; i++)
+            assertTrue(store.put("key" + i, value, NOW + 60000, NOW));
+
+        assertTrue(store.usedBytes() <= CAPACITY);
+        assertNull(store.get("key0", NOW));
+        assertArrayEquals(value, store.get("key99", NOW));
+        final int size = store.size();
+        store.close();
+
+        final MappedResultStore reopened = new MappedResultStore(file, CAPACITY);
+        assertEquals(size, reopened.size());
+        assertArrayEquals(value, reopened.get("key99", NOW));
+        reopened.close();
+    }
+
+    @Test
+    public void rejectsOversizedValue() throws Exception {
+        final MappedResultStore store = new MappedResultStore(file, CAPACITY);
+        assertFalse(store.put("a", new byte[CAPACITY], NOW + 60000, NOW));
+        store.close();
+    }
+
+    @Test
+    public void ignoresTornRecord() throws Exception {
+        final MappedResultStore store = new MappedResultStore(file, CAPACITY);
+        store.put("a", new byte[] { 1, 2, 3 }, NOW + 60000, NOW);
+        store.put("b", new byte[] { 4, 5, 6 }, NOW + 60000, NOW);
+        store.close();
+
+        // corrupt the last byte of the value of b
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(8 + 24 + 1 + 3 + 24 + 1 + 2);
+        raf.write(99);
+        raf.close();
+
+        final MappedResultStore reopened = new MappedResultStore(file, CAPACITY);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reopened.get("a", NOW));
+        assertNull(reopened.get("b", NOW));
+        reopened.close();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.BinaryCodec;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+
+public class ResultCacheTest {
+    private static final long TTL = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SuggestLocationsResult result(final String name) {
+        final List<SuggestedLocation> locations = new ArrayList<>();
+        locations.add(new SuggestedLocation(new Location(LocationType.STATION, "1", null, name)));
+        locations.add(new SuggestedLocation(new Location(LocationType.STATION, "2", null, name + " 2")));
+        return new SuggestLocationsResult(new ResultHeader(NetworkId.RT, "test"), locations);
+    }
+
+    @Test
+    public void hitsAreCopies() {
+        final ResultCache cache = new ResultCache(1024 * 1024, null);
+        final SuggestLocationsResult stored = result("Station");
+        cache.put("a", stored, TTL);
+        stored.suggestedLocations.clear();
+
+        final SuggestLocationsResult first = (SuggestLocationsResult) cache.get("a");
+        assertEquals(2, first.suggestedLocations.size());
+        first.suggestedLocations.clear();
+        final SuggestLocationsResult second = (SuggestLocationsResult) cache.get("a");
+        assertNotSame(first, second);
+        assertEquals(2, second.suggestedLocations.size());
+        assertEquals(2, cache.memoryHits());
+    }
+
+    @Test
+    public void promotesDiskHits() throws Exception {
+        final MappedResultStore disk = new MappedResultStore(folder.newFile(), 64 * 1024);
+        final ResultCache cache = new ResultCache(1024 * 1024, disk);
+        cache.put("a", result("Station"), TTL);
+        cache.invalidateMemory();
+
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.diskHits());
+        assertNotNull(cache.get("a"));
+        assertEquals(1, cache.memoryHits());
+        assertEquals(0, cache.misses());
+        cache.close();
+    }
+
+    @Test
+    public void expires() throws Exception {
+        final MappedResultStore disk = new MappedResultStore(folder.newFile(), 64 * 1024);
+        final ResultCache cache = new ResultCache(1024 * 1024, disk);
+        cache.put("a", result("Station"), 1);
+        Thread.sleep(10);
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.misses());
+        cache.close();
+    }
+
+    @Test
+    public void evictsByEncodedSize() throws Exception {
+        final int size = BinaryCodec.encode(result("Station 000")).length;
+        final ResultCache cache = new ResultCache(20 * size, null);
+        for (int i = 0; i < 200; i++)
+            cache.put("key" + i, result(String.format("Station %03d", i)), TTL);
+
+        int retained = 0;
+        for (int i = 0; i < 200; i++)
+            if (cache.get("key" + i) != null)
+                retained++;
+        assertTrue(Integer.toString(retained), retained > 0 && retained <= 20);
+        assertNotNull(cache.get("key199"));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+import javax.management.MBeanServerConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * <p>
+ * Open-model load generator: requests are started at a given rate, no matter how many are still waiting for a
+ * response. This is what a service sees from many independent clients, and unlike a fixed pool of looping clients it
+ * does not slow down when the service does.
+ * </p>
+ * 
+ * <p>
+ * Latency is measured from the time a request was scheduled to start, so queueing in the generator itself is counted
+ * as well. The paths to request are used round-robin.
+ * </p>
+ */
+public final class LoadGenerator {
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+    private final HttpUrl base;
+    private final List<String> paths;
+    private final double rate;
+    private final boolean poisson;
+    private final OkHttpClient client;
+
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+
+    /**
+     * @param rate
+     *            requests per second
+     * @param poisson
+     *            whether arrivals are exponentially distributed rather than evenly spaced
+     */
+    public LoadGenerator(final HttpUrl base, final List<String> paths, final double rate, final boolean poisson) {
+        this.base = base;
+        this.paths = paths;
+        this.rate = rate;
+        this.poisson = poisson;
+
+        final Dispatcher dispatcher = new Dispatcher(Executors.newCachedThreadPool());
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        client = new OkHttpClient.Builder().dispatcher(dispatcher).connectionPool(new ConnectionPool(256, 1,
+                TimeUnit.MINUTES)).connectTimeout(10, TimeUnit.SECONDS).readTimeout(60, TimeUnit.SECONDS).build();
+    }
+
+    /**
+     * @param serviceJvm
+     *            platform MBeans of the JVM running the service, for the garbage collection in the report
+     */
+    public LoadReport run(final MBeanServerConnection serviceJvm, final int warmupSeconds,
+            final int durationSeconds) throws IOException, InterruptedException {
+        final LoadReport report = new LoadReport(serviceJvm);
+        final Phaser inFlight = new Phaser(1);
+        final long intervalNanos = (long) (1e9 / rate);
+        final long start = System.nanoTime();
+        final long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        log.info("warming up for {} s, then measuring for {} s at {}/s", warmupSeconds, durationSeconds, rate);
+        boolean measuring = false;
+        long next = start;
+        int i = 0;
+        while (next < end) {
+            final long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            if (!measuring && next >= measureStart) {
+                report.start();
+                measuring = true;
+            }
+            inFlight.register();
+            issue(paths.get(i++ % paths.size()), next, measuring ? report : null, inFlight);
+            next += poisson ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * intervalNanos)
+                    : intervalNanos;
+        }
+        report.end();
+
+        try {
+            inFlight.awaitAdvanceInterruptibly(inFlight.arrive(), DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final TimeoutException x) {
+            log.warn("{} requests still outstanding after {} s", inFlight.getUnarrivedParties(),
+                    DRAIN_TIMEOUT_SECONDS);
+        }
+        client.dispatcher().executorService().shutdown();
+        return report;
+    }
+
+    private void issue(final String path, final long scheduledNanos, final @Nullable LoadReport report,
+            final Phaser inFlight) {
+        final HttpUrl url = base.resolve(path);
+        client.newCall(new Request.Builder().url(url).build()).enqueue(new Callback() {
+            @Override
+            public void onResponse(final Call call, final Response response) {
+                String outcome = Integer.toString(response.code());
+                try {
+                    response.body().bytes();
+                } catch (final IOException x) {
+                    outcome = x.getClass().getSimpleName();
+                } finally {
+                    response.close();
+                }
+                if (report != null)
+                    report.record(outcome, latencyUs(scheduledNanos));
+                inFlight.arriveAndDeregister();
+            }
+
+            @Override
+            public void onFailure(final Call call, final IOException x) {
+                if (report != null)
+                    report.record(x.getClass().getSimpleName(), latencyUs(scheduledNanos));
+                inFlight.arriveAndDeregister();
+            }
+        });
+    }
+
+    private static long latencyUs(final long scheduledNanos) {
+        return (System.nanoTime() - scheduledNanos) / 1000;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MBeanServerConnection;
+
+/**
+ * Outcome of a load test run: throughput, latency percentiles, responses by status and garbage collection activity
+ * of the service JVM during the measurement.
+ */
+public final class LoadReport {
+    private final MBeanServerConnection serviceJvm;
+    private long[] latenciesUs = new long[1024];
+    private int size = 0;
+    private final Map<String, Integer> outcomes = new TreeMap<>();
+    private long startNanos;
+    private long endNanos;
+    private Map<String, long[]> gcBefore;
+    private Map<String, long[]> gcAfter;
+
+    /**
+     * @param serviceJvm
+     *            platform MBeans of the JVM running the service, to read its garbage collection from
+     */
+    LoadReport(final MBeanServerConnection serviceJvm) {
+        this.serviceJvm = serviceJvm;
+    }
+
+    void start() throws IOException {
+        gcBefore = gcSnapshot();
+        startNanos = System.nanoTime();
+    }
+
+    void end() throws IOException {
+        endNanos = System.nanoTime();
+        gcAfter = gcSnapshot();
+    }
+
+    /**
+     * @param outcome
+     *            HTTP status code, or exception name for requests that failed without a response
+     * @param latencyUs
+     *            time from the scheduled start of the request until its response was read
+     */
+    synchronized void record(final String outcome, final long latencyUs) {
+        final Integer count = outcomes.get(outcome);
+        outcomes.put(outcome, count != null ? count + 1 : 1);
+        if (size == latenciesUs.length)
+            latenciesUs = Arrays.copyOf(latenciesUs, size * 2);
+        latenciesUs[size++] = latencyUs;
+    }
+
+    public synchronized int count() {
+        return size;
+    }
+
+    public synchronized long percentileUs(final double quantile) {
+        if (size == 0)
+            return 0;
+        final long[] sorted = Arrays.copyOf(latenciesUs, size);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(quantile * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    public double durationSeconds() {
+        return (endNanos - startNanos) / 1e9;
+    }
+
+    public synchronized void print(final PrintStream out) {
+        final double seconds = durationSeconds();
+        out.printf("requests:    %d in %.1f s, %.1f/s%n", size, seconds, size / seconds);
+        for (final Map.Entry<String, Integer> outcome : outcomes.entrySet())
+            out.printf("  %-10s %d%n", outcome.getKey(), outcome.getValue());
+        out.printf("latency ms:  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n", percentileUs(0.5) / 1000.0,
+                percentileUs(0.9) / 1000.0, percentileUs(0.99) / 1000.0, percentileUs(0.999) / 1000.0,
+                percentileUs(1) / 1000.0);
+        for (final Map.Entry<String, long[]> gc : gcAfter.entrySet()) {
+            final long[] before = gcBefore.get(gc.getKey());
+            final long collections = gc.getValue()[0] - (before != null ? before[0] : 0);
+            final long timeMs = gc.getValue()[1] - (before != null ? before[1] : 0);
+            out.printf("gc %-20s %d collections, %d ms (%.1f%% of run)%n", gc.getKey(), collections, timeMs,
+                    timeMs / seconds / 10);
+        }
+    }
+
+    private Map<String, long[]> gcSnapshot() throws IOException {
+        final Map<String, long[]> snapshot = new LinkedHashMap<>();
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getPlatformMXBeans(serviceJvm,
+                GarbageCollectorMXBean.class))
+            snapshot.put(gc.getName(), new long[] { gc.getCollectionCount(), gc.getCollectionTime() });
+        return snapshot;
+    }
+}
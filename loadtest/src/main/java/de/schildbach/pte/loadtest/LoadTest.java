@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+
+import de.schildbach.pte.service.ServiceProperties;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * <p>
+ * Runs the service embedded in Jetty against a {@link MockUpstream} and puts it under load with a
+ * {@link LoadGenerator}. The service runs in a forked JVM (see {@link ServiceMain}) started with
+ * {@code service.jvmArgs}, so that the generator and the mock upstream neither pause it nor show up in its garbage
+ * collection. Garbage collection of the service is read from that JVM over JMX on {@code service.jmxPort}.
+ * </p>
+ * 
+ * <p>
+ * The scenario is read from the properties file given as the only argument, {@code loadtest.properties} by default.
+ * The mock upstream listens on the port of {@code upstream.override} in {@code service.properties} and replays the
+ * tapes in {@code upstream.tapes}. A tape for VRR, which the default scenario uses, is recorded by the live test:
+ * </p>
+ * 
+ * <pre>
+ * gradle :enabler:test -Plive --tests de.schildbach.pte.live.VrrProviderLiveTest -Dpte.tape=record
+ * </pre>
+ * 
+ * <p>
+ * This writes {@code enabler/tapes/VRR.tape}. Requests without a recording are answered with 404.
+ * </p>
+ */
+public final class LoadTest {
+    private static final long READY_TIMEOUT_SECONDS = 120;
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+
+    public static void main(final String[] args) throws Exception {
+        final Properties scenario = new Properties();
+        final InputStream is = new FileInputStream(args.length > 0 ? args[0] : "loadtest.properties");
+        try {
+            scenario.load(is);
+        } finally {
+            is.close();
+        }
+
+        final String upstreamOverride = ServiceProperties.load(ServiceProperties.SERVICE_RESOURCE)
+                .getProperty("upstream.override");
+        if (upstreamOverride == null)
+            throw new IllegalStateException("upstream.override not set in service.properties");
+        final MockUpstream upstream = new MockUpstream(HttpUrl.parse(upstreamOverride.trim()).port(),
+                MockUpstream.loadTapes(new File(scenario.getProperty("upstream.tapes", "../enabler/tapes"))),
+                ServiceProperties.getInt(scenario, "upstream.latencyMs", 50),
+                ServiceProperties.getInt(scenario, "upstream.jitterMs", 0),
+                Double.parseDouble(scenario.getProperty("upstream.errorRate", "0")));
+
+        final int port = ServiceProperties.getInt(scenario, "service.port", 18081);
+        final int jmxPort = ServiceProperties.getInt(scenario, "service.jmxPort", 18082);
+        final Process service = forkService(port, scenario.getProperty("service.webapp", "../service/src/main/webapp"),
+                scenario.getProperty("service.jvmArgs", "-Xmx1g"), jmxPort);
+
+        try {
+            final HttpUrl base = HttpUrl.parse("http://127.0.0.1:" + port + "/");
+            awaitReady(base);
+            final JMXConnector jmx = JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + jmxPort + "/jmxrmi"));
+            try {
+                final LoadGenerator generator = new LoadGenerator(base, requests(scenario),
+                        Double.parseDouble(scenario.getProperty("load.rate", "100")),
+                        !"constant".equals(scenario.getProperty("load.arrival")));
+                final LoadReport report = generator.run(jmx.getMBeanServerConnection(),
+                        ServiceProperties.getInt(scenario, "load.warmupSeconds", 10),
+                        ServiceProperties.getInt(scenario, "load.durationSeconds", 60));
+
+                report.print(System.out);
+                System.out.printf("upstream:    %d requests, %d injected errors, %d without recording%n",
+                        upstream.requests(), upstream.injectedErrors(), upstream.unmatched());
+            } finally {
+                jmx.close();
+            }
+        } finally {
+            service.destroy();
+            service.waitFor();
+            upstream.close();
+        }
+    }
+
+    /**
+     * Starts {@link ServiceMain} with the classpath of this JVM, exposing its platform MBeans on the loopback
+     * interface without authentication.
+     */
+    private static Process forkService(final int port, final String webapp, final String jvmArgs, final int jmxPort)
+            throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(Splitter.on(' ').omitEmptyStrings().splitToList(jvmArgs));
+        command.addAll(Arrays.asList("-Dcom.sun.management.jmxremote.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.host=127.0.0.1", "-Djava.rmi.server.hostname=127.0.0.1",
+                "-Dcom.sun.management.jmxremote.authenticate=false", "-Dcom.sun.management.jmxremote.ssl=false",
+                "-cp", System.getProperty("java.class.path"), ServiceMain.class.getName(), Integer.toString(port),
+                webapp));
+        log.info("starting service: {}", command);
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static List<String> requests(final Properties scenario) {
+        final TreeMap<Integer, String> requests = new TreeMap<>();
+        for (final String name : scenario.stringPropertyNames())
+            if (name.startsWith("request."))
+                requests.put(Integer.parseInt(name.substring("request.".length())), scenario.getProperty(name));
+        if (requests.isEmpty())
+            throw new IllegalStateException("no request.<n> paths configured");
+        return new ArrayList<>(requests.values());
+    }
+
+    private static void awaitReady(final HttpUrl base) throws IOException, InterruptedException {
+        final OkHttpClient client = new OkHttpClient();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(READY_TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            try {
+                final Response response = client.newCall(new Request.Builder().url(base.resolve("ready")).build())
+                        .execute();
+                try {
+                    if (response.isSuccessful())
+                        return;
+                } finally {
+                    response.close();
+                }
+            } catch (final ConnectException x) {
+                // service JVM still starting
+            }
+            log.info("waiting for service warm-up");
+            Thread.sleep(1000);
+        }
+        throw new IllegalStateException("service not ready after " + READY_TIMEOUT_SECONDS + " s");
+    }
+}
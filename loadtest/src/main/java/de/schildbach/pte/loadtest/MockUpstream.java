@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.schildbach.pte.util.HttpTape;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * <p>
+ * Stand-in for the upstream APIs, answering from {@link HttpTape} recordings. The service sends all upstream
+ * requests here when {@code upstream.override} is set, with the original host in the {@code Host} header.
+ * </p>
+ * 
+ * <p>
+ * Every answer is delayed by a fixed latency plus an exponentially distributed jitter. A configurable share of
+ * requests fails with {@code 500 Internal Server Error}; requests without a recording get {@code 404 Not Found}.
+ * </p>
+ */
+public final class MockUpstream implements Closeable {
+    private final List<HttpTape> tapes;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double errorRate;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+
+    private static final Logger log = LoggerFactory.getLogger(MockUpstream.class);
+
+    public MockUpstream(final int port, final List<HttpTape> tapes, final long latencyMs, final long jitterMs,
+            final double errorRate) throws IOException {
+        this.tapes = tapes;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    answer(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        log.info("mock upstream listening on port {} with {} tapes", server.getAddress().getPort(), tapes.size());
+    }
+
+    /** Loads all {@code *.tape} files of the given directory. */
+    public static List<HttpTape> loadTapes(final File dir) throws IOException {
+        final File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(".tape");
+            }
+        });
+        if (files == null || files.length == 0)
+            throw new IllegalStateException("no recorded tapes in " + dir.getAbsolutePath());
+        final List<HttpTape> tapes = new ArrayList<>(files.length);
+        for (final File file : files)
+            tapes.add(HttpTape.replay(file));
+        return tapes;
+    }
+
+    private void answer(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        final InputStream is = exchange.getRequestBody();
+        final byte[] requestBody = ByteStreams.toByteArray(is);
+        is.close();
+
+        delay();
+
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injectedErrors.incrementAndGet();
+            exchange.sendResponseHeaders(500, -1);
+            return;
+        }
+
+        final Response response = find(exchange, requestBody);
+        if (response == null) {
+            unmatched.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        try {
+            final byte[] body = response.body().bytes();
+            final Headers headers = exchange.getResponseHeaders();
+            for (final Map.Entry<String, List<String>> header : response.headers().toMultimap().entrySet())
+                if (!header.getKey().equalsIgnoreCase("Content-Length")
+                        && !header.getKey().equalsIgnoreCase("Transfer-Encoding"))
+                    headers.put(header.getKey(), header.getValue());
+            exchange.sendResponseHeaders(response.code(), body.length > 0 ? body.length : -1);
+            if (body.length > 0) {
+                final OutputStream os = exchange.getResponseBody();
+                os.write(body);
+                os.close();
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private @Nullable Response find(final HttpExchange exchange, final byte[] requestBody) throws IOException {
+        final String host = exchange.getRequestHeaders().getFirst("Host");
+        final HttpUrl url = HttpUrl.parse("http://" + host + exchange.getRequestURI());
+        if (url == null)
+            return null;
+        final String method = exchange.getRequestMethod();
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        final Request request = new Request.Builder().url(url)
+                .method(method,
+                        method.equals("GET") ? null
+                                : RequestBody.create(contentType != null ? MediaType.parse(contentType) : null,
+                                        requestBody))
+                .build();
+        for (final HttpTape tape : tapes) {
+            final Response response = tape.answer(request);
+            if (response != null)
+                return response;
+        }
+        return null;
+    }
+
+    private void delay() {
+        long delayMs = latencyMs;
+        if (jitterMs > 0)
+            delayMs += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * jitterMs);
+        if (delayMs <= 0)
+            return;
+        try {
+            Thread.sleep(delayMs);
+        } catch (final InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long unmatched() {
+        return unmatched.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.loadtest;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+/**
+ * Runs the service embedded in Jetty until the process is killed. {@link LoadTest} starts this in a JVM of its own,
+ * so that the service does not share heap, garbage collector or CPU time with the load generator.
+ */
+public final class ServiceMain {
+    /**
+     * @param args
+     *            port and webapp directory
+     */
+    public static void main(final String[] args) throws Exception {
+        final Server server = new Server(Integer.parseInt(args[0]));
+        final WebAppContext webapp = new WebAppContext(args[1], "/");
+        webapp.setParentLoaderPriority(true);
+        server.setHandler(webapp);
+        server.setStopAtShutdown(true);
+        server.start();
+        server.join();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.util.AreaIndex;
+
+/**
+ * <p>
+ * Finds the networks covering a coordinate, using an {@link AreaIndex} over the areas of all providers that publish
+ * one.
+ * </p>
+ * 
+ * <p>
+ * The index is kept in the file named by {@code areas.file} in the optional {@code service.properties}. If the file
+ * does not exist yet, the areas are collected from all providers in the background and written to it; until then no
+ * network covers anything. Without {@code areas.file}, routing is disabled, as collecting would instantiate every
+ * provider.
+ * </p>
+ */
+@Component
+public class AreaRouter implements InitializingBean {
+    private static final int COLLECT_TIMEOUT_SECONDS = 300;
+
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final @Nullable File file;
+    private volatile AreaIndex index = new AreaIndex(Collections.<NetworkId, Point[]> emptyMap());
+
+    private static final Logger log = LoggerFactory.getLogger(AreaRouter.class);
+
+    @Autowired
+    public AreaRouter(final ProviderRegistry providers, final ProviderExecutors executors) throws IOException {
+        this(providers, executors, ServiceProperties.load(ServiceProperties.SERVICE_RESOURCE));
+    }
+
+    public AreaRouter(final ProviderRegistry providers, final ProviderExecutors executors,
+            final Properties properties) {
+        this.providers = providers;
+        this.executors = executors;
+        final String file = properties.getProperty("areas.file");
+        this.file = file != null ? new File(file) : null;
+    }
+
+    /** Networks covering the coordinate, in no particular order. */
+    public List<NetworkId> networksAt(final int lat, final int lon) {
+        return index.networksAt(lat, lon);
+    }
+
+    /** The network covering the coordinate with the smallest area, or null if none covers it. */
+    public @Nullable NetworkId mostSpecificAt(final int lat, final int lon) {
+        return index.mostSpecificAt(lat, lon);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (file == null)
+            return;
+        if (file.exists()) {
+            try {
+                final InputStream is = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    index = AreaIndex.read(is);
+                    log.info("read {} areas from {}", index.size(), file);
+                    return;
+                } finally {
+                    is.close();
+                }
+            } catch (final IOException x) {
+                log.warn("cannot read areas from " + file + ", collecting them again", x);
+            }
+        }
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                collect();
+            }
+        }, "area-collector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void collect() {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final List<NetworkId> networks = new ArrayList<>(providers.networks());
+        final List<ListenableFuture<Point[]>> futures = new ArrayList<>(networks.size());
+        for (final NetworkId network : networks) {
+            futures.add(executors.submit(network, new Callable<Point[]>() {
+                @Override
+                public Point[] call() throws IOException {
+                    return providers.get(network).getArea();
+                }
+            }));
+        }
+
+        final List<Point[]> results;
+        try {
+            results = Futures.successfulAsList(futures).get(COLLECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException | ExecutionException | TimeoutException x) {
+            log.warn("collecting areas failed", x);
+            return;
+        }
+        final Map<NetworkId, Point[]> areas = new EnumMap<>(NetworkId.class);
+        for (int i = 0; i < networks.size(); i++)
+            if (results.get(i) != null)
+                areas.put(networks.get(i), results.get(i));
+        index = new AreaIndex(areas);
+        log.info("collected {} areas in {}", index.size(), watch);
+
+        try {
+            final OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                index.write(os);
+            } finally {
+                os.close();
+            }
+        } catch (final IOException x) {
+            log.warn("cannot write areas to " + file, x);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Saturation of the per-network bulkheads.
+ */
+@Controller
+public class BulkheadController {
+    private final ProviderExecutors executors;
+
+    @Autowired
+    public BulkheadController(final ProviderExecutors executors) {
+        this.executors = executors;
+    }
+
+    @RequestMapping(value = "/bulkheads", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<NetworkId, ProviderExecutors.Saturation> bulkheads() {
+        return executors.saturation();
+    }
+}
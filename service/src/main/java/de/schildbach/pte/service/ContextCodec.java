@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+
+import de.schildbach.pte.dto.QueryTripsContext;
+
+/**
+ * Turns a {@link QueryTripsContext} into bytes and back. Used by {@link ContextTokens}, which takes care of signing
+ * and encoding the bytes.
+ */
+public interface ContextCodec {
+    byte[] encode(QueryTripsContext context) throws IOException;
+
+    QueryTripsContext decode(byte[] bytes) throws IOException;
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.QueryTripsContext;
+
+/**
+ * <p>
+ * Turns a {@link QueryTripsContext} into a compact, signed, URL-safe token and back, so that any service node can
+ * serve the next page of trips without keeping server-side state.
+ * </p>
+ * 
+ * <p>
+ * A token consists of a version byte, the expiry time, the context as encoded by the {@link ContextCodec} and a
+ * truncated HMAC-SHA256 over all of it and the network id. The secret is read from {@code context.secret} in an
+ * optional {@code service.properties} on the classpath; all nodes serving the same clients need to share it. Without
+ * it a random secret is used, and tokens are only valid on this node until it restarts.
+ * </p>
+ */
+@Component
+public class ContextTokens {
+    private static final String SECRET_PROPERTY = "context.secret";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 1 + 4;
+    private static final int MAC_SIZE = 16;
+    private static final long DEFAULT_TTL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    private final SecretKeySpec key;
+    private final long ttlMs;
+    private ContextCodec codec = new SerializingContextCodec();
+
+    private static final Logger log = LoggerFactory.getLogger(ContextTokens.class);
+
+    public ContextTokens() throws IOException {
+        this(loadSecret(), DEFAULT_TTL_MS);
+    }
+
+    public ContextTokens(final byte[] secret, final long ttlMs) {
+        this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+        this.ttlMs = ttlMs;
+    }
+
+    @Autowired(required = false)
+    public void setCodec(final ContextCodec codec) {
+        this.codec = codec;
+    }
+
+    public String encode(final NetworkId network, final QueryTripsContext context) throws IOException {
+        final byte[] payload = codec.encode(context);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length + MAC_SIZE);
+        buffer.put((byte) VERSION);
+        buffer.putInt((int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + ttlMs));
+        buffer.put(payload);
+        buffer.put(mac(network, buffer.array(), buffer.position()));
+        return ENCODING.encode(buffer.array());
+    }
+
+    public QueryTripsContext decode(final NetworkId network, final String token) {
+        final byte[] bytes;
+        try {
+            bytes = ENCODING.decode(token);
+        } catch (final IllegalArgumentException x) {
+            throw new InvalidContextTokenException("malformed context token", x);
+        }
+        if (bytes.length < HEADER_SIZE + MAC_SIZE)
+            throw new InvalidContextTokenException("context token too short");
+        final int signedLength = bytes.length - MAC_SIZE;
+        final byte[] mac = Arrays.copyOfRange(bytes, signedLength, bytes.length);
+        if (!MessageDigest.isEqual(mac, mac(network, bytes, signedLength)))
+            throw new InvalidContextTokenException("context token signature mismatch");
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, signedLength);
+        final int version = buffer.get() & 0xff;
+        if (version != VERSION)
+            throw new InvalidContextTokenException("unsupported context token version: " + version);
+        final long expires = TimeUnit.SECONDS.toMillis(buffer.getInt() & 0xffffffffL);
+        if (System.currentTimeMillis() > expires)
+            throw new InvalidContextTokenException("context token expired");
+        try {
+            return codec.decode(Arrays.copyOfRange(bytes, HEADER_SIZE, signedLength));
+        } catch (final IOException x) {
+            throw new InvalidContextTokenException("cannot decode context", x);
+        }
+    }
+
+    private byte[] mac(final NetworkId network, final byte[] bytes, final int length) {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            mac.update(network.name().getBytes(Charsets.US_ASCII));
+            mac.update(bytes, 0, length);
+            return Arrays.copyOf(mac.doFinal(), MAC_SIZE);
+        } catch (final GeneralSecurityException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    private static byte[] loadSecret() throws IOException {
+        final Properties properties = ServiceProperties.load(ServiceProperties.SERVICE_RESOURCE);
+        final String secret = properties.getProperty(SECRET_PROPERTY);
+        if (secret != null)
+            return secret.getBytes(Charsets.UTF_8);
+
+        log.warn("no {} configured, context tokens will only be valid on this node", SECRET_PROPERTY);
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+
+/**
+ * Departure boards for many stations in one request, and live departure boards. Batch stations are queried
+ * concurrently, but never more at a time than the network's {@link ProviderExecutors} pool runs, so that a single batch
+ * cannot fill the pool's queue. Each board is written as one line of JSON as soon as it is complete, without holding a
+ * container thread while waiting. Queries for the same station that are already in flight, from this or any other
+ * request, are shared. Live boards are served by {@link LiveDepartures}.
+ */
+@Controller
+public class DeparturesController {
+    private static final int MAX_STATIONS = 50;
+    private static final long TIMEOUT_MS = 30000;
+
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final LiveDepartures liveDepartures;
+    private final ObjectMapper objectMapper;
+    private final ConcurrentMap<String, ListenableFuture<QueryDeparturesResult>> inFlight = new ConcurrentHashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(DeparturesController.class);
+
+    @Autowired
+    public DeparturesController(final ProviderRegistry providers, final ProviderExecutors executors,
+            final LiveDepartures liveDepartures, final MappingJacksonHttpMessageConverter jsonHttpMessageConverter) {
+        this.providers = providers;
+        this.executors = executors;
+        this.liveDepartures = liveDepartures;
+        this.objectMapper = jsonHttpMessageConverter.getObjectMapper();
+    }
+
+    @RequestMapping(value = "/departures/batch", method = RequestMethod.GET)
+    public void batch(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("station") final String[] stationIds,
+            @RequestParam(value = "max", required = false, defaultValue = "10") final int maxDepartures,
+            @RequestParam(value = "equivs", required = false, defaultValue = "true") final boolean equivs,
+            @RequestParam(value = ResultJsonHttpMessageConverter.OMIT_PARAMETER, required = false) final String omit,
+            final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final Set<String> uniqueStationIds = new LinkedHashSet<>(Arrays.asList(stationIds));
+        if (uniqueStationIds.size() > MAX_STATIONS) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "too many stations");
+            return;
+        }
+
+        final NetworkProvider provider = providers.get(network);
+        final ResultJsonWriter writer = new ResultJsonWriter(objectMapper, ResultJsonWriter.parseFields(omit));
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        final AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(TIMEOUT_MS);
+        final Batch batch = new Batch(async, writer, network, provider, maxDepartures, equivs, uniqueStationIds);
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(final AsyncEvent event) {
+                batch.timeout();
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                batch.abort();
+            }
+
+            @Override
+            public void onComplete(final AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+            }
+        });
+        batch.start(executors.maxConcurrent(network));
+    }
+
+    /**
+     * Long-polls a live departure board. Clients pass the version of the last update they got, and are answered as
+     * soon as there is a newer one, with only the departures that were added, changed or removed since.
+     */
+    @RequestMapping(value = "/departures/live", method = RequestMethod.GET)
+    @ResponseBody
+    public DeferredResult<DeparturesUpdate> live(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("station") final String stationId,
+            @RequestParam(value = "since", required = false) final String since) {
+        return liveDepartures.watch(network, stationId, since);
+    }
+
+    ListenableFuture<QueryDeparturesResult> queryDepartures(final NetworkId network,
+            final NetworkProvider provider, final String stationId, final int maxDepartures, final boolean equivs) {
+        final String key = network + "|" + stationId + "|" + maxDepartures + "|" + equivs;
+        final SettableFuture<QueryDeparturesResult> future = SettableFuture.create();
+        final ListenableFuture<QueryDeparturesResult> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null)
+            return existing;
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                inFlight.remove(key, future);
+            }
+        }, MoreExecutors.directExecutor());
+        future.setFuture(executors.submit(network, new Callable<QueryDeparturesResult>() {
+            @Override
+            public QueryDeparturesResult call() throws IOException {
+                return provider.queryDepartures(stationId, new Date(), maxDepartures, equivs);
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Streams the boards of one batch request, in the order they complete. Each completed query starts the next one.
+     * Boards still missing when the request times out are written as errors.
+     */
+    private final class Batch {
+        private final AsyncContext async;
+        private final ResultJsonWriter writer;
+        private final NetworkId network;
+        private final NetworkProvider provider;
+        private final int maxDepartures;
+        private final boolean equivs;
+        private final Set<String> pending;
+        private final Queue<String> waiting;
+        private boolean done = false;
+
+        public Batch(final AsyncContext async, final ResultJsonWriter writer, final NetworkId network,
+                final NetworkProvider provider, final int maxDepartures, final boolean equivs,
+                final Set<String> stationIds) {
+            this.async = async;
+            this.writer = writer;
+            this.network = network;
+            this.provider = provider;
+            this.maxDepartures = maxDepartures;
+            this.equivs = equivs;
+            this.pending = new LinkedHashSet<>(stationIds);
+            this.waiting = new ArrayDeque<>(stationIds);
+        }
+
+        public void start(final int maxConcurrent) {
+            for (int i = 0; i < maxConcurrent; i++)
+                queryNext();
+        }
+
+        private void queryNext() {
+            final String stationId;
+            synchronized (this) {
+                stationId = done ? null : waiting.poll();
+            }
+            if (stationId == null)
+                return;
+            final ListenableFuture<QueryDeparturesResult> future = queryDepartures(network, provider, stationId,
+                    maxDepartures, equivs);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    complete(stationId, future);
+                    queryNext();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private synchronized void complete(final String stationId,
+                final ListenableFuture<QueryDeparturesResult> future) {
+            if (done || !pending.remove(stationId))
+                return;
+            try {
+                final OutputStream os = async.getResponse().getOutputStream();
+                try {
+                    writeLine(os, writer, stationId, Futures.getUnchecked(future), null);
+                } catch (final UncheckedExecutionException x) {
+                    writeLine(os, writer, stationId, null, errorCode(stationId, x.getCause()));
+                }
+                if (pending.isEmpty())
+                    finish();
+            } catch (final IOException x) {
+                // client has gone away
+                finish();
+            }
+        }
+
+        public synchronized void timeout() {
+            if (done)
+                return;
+            try {
+                final OutputStream os = async.getResponse().getOutputStream();
+                for (final String stationId : pending)
+                    writeLine(os, writer, stationId, null, "timeout");
+            } catch (final IOException x) {
+                // client has gone away
+            }
+            finish();
+        }
+
+        public synchronized void abort() {
+            if (!done)
+                finish();
+        }
+
+        private void finish() {
+            done = true;
+            async.complete();
+        }
+    }
+
+    /** Fixed codes only, so that internals of the service and its upstreams do not leak to clients. */
+    private static String errorCode(final String stationId, final Throwable cause) {
+        if (cause instanceof ProviderBusyException)
+            return "saturated";
+        log.info("departures for {} failed: {}", stationId, cause.toString());
+        return cause instanceof IOException ? "upstream" : "internal";
+    }
+
+    private void writeLine(final OutputStream os, final ResultJsonWriter writer, final String stationId,
+            final QueryDeparturesResult result, final String error) throws IOException {
+        final JsonGenerator generator = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        generator.writeStringField("stationId", stationId);
+        if (result != null) {
+            generator.writeFieldName("result");
+            writer.write(generator, result);
+        }
+        if (error != null)
+            generator.writeStringField("error", error);
+        generator.writeEndObject();
+        generator.close();
+        os.write('\n');
+        os.flush();
+    }
+}
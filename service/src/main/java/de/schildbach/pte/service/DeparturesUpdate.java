@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.StationDepartures;
+
+/**
+ * Changes of a live departure board from one version to the next. A full update carries all departures as added.
+ */
+public final class DeparturesUpdate {
+    public final String stationId;
+    public final String version;
+    public final boolean full;
+    public final List<Departure> added;
+    public final List<Departure> changed;
+    public final List<String> removed;
+
+    public DeparturesUpdate(final String stationId, final String version, final boolean full,
+            final List<Departure> added, final List<Departure> changed, final List<String> removed) {
+        this.stationId = stationId;
+        this.version = version;
+        this.full = full;
+        this.added = added;
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    public static DeparturesUpdate unchanged(final String stationId, final String version) {
+        return new DeparturesUpdate(stationId, version, false, Collections.<Departure> emptyList(),
+                Collections.<Departure> emptyList(), Collections.<String> emptyList());
+    }
+
+    public static DeparturesUpdate full(final String stationId, final String version,
+            final Map<String, Departure> departures) {
+        return new DeparturesUpdate(stationId, version, true, new ArrayList<>(departures.values()),
+                Collections.<Departure> emptyList(), Collections.<String> emptyList());
+    }
+
+    public static DeparturesUpdate diff(final String stationId, final String version,
+            final Map<String, Departure> previous, final Map<String, Departure> current) {
+        final List<Departure> added = new ArrayList<>();
+        final List<Departure> changed = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        for (final Map.Entry<String, Departure> entry : current.entrySet()) {
+            final Departure previousDeparture = previous.get(entry.getKey());
+            if (previousDeparture == null)
+                added.add(entry.getValue());
+            else if (!sameState(previousDeparture, entry.getValue()))
+                changed.add(entry.getValue());
+        }
+        for (final String key : previous.keySet())
+            if (!current.containsKey(key))
+                removed.add(key);
+        return new DeparturesUpdate(stationId, version, false, added, changed, removed);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Departures of a result by {@link #key(Departure)}, in result order.
+     */
+    public static Map<String, Departure> departuresByKey(final QueryDeparturesResult result) {
+        final Map<String, Departure> departures = new LinkedHashMap<>();
+        for (final StationDepartures stationDepartures : result.stationDepartures)
+            if (stationDepartures.departures != null)
+                for (final Departure departure : stationDepartures.departures)
+                    departures.put(key(departure), departure);
+        return departures;
+    }
+
+    /**
+     * Identifies a departure across polls. Only includes properties that do not change while it is live.
+     */
+    public static String key(final Departure departure) {
+        final StringBuilder key = new StringBuilder();
+        key.append(departure.plannedTime != null ? departure.plannedTime.getTime()
+                : "p" + departure.predictedTime.getTime());
+        final Line line = departure.line;
+        key.append('|').append(line.network).append('|').append(line.product).append('|').append(line.label);
+        key.append('|');
+        if (departure.destination != null)
+            key.append(departure.destination.id != null ? departure.destination.id : departure.destination.name);
+        return key.toString();
+    }
+
+    private static boolean sameState(final Departure a, final Departure b) {
+        return Objects.equal(a.predictedTime, b.predictedTime) && Objects.equal(a.position, b.position)
+                && Objects.equal(a.message, b.message) && Arrays.equals(a.capacity, b.capacity);
+    }
+}
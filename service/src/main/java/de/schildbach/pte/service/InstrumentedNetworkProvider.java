@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import de.schildbach.pte.ForwardingNetworkProvider;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+
+/**
+ * Records calls, errors and latencies of a provider in {@link ServiceMetrics}.
+ */
+public class InstrumentedNetworkProvider extends ForwardingNetworkProvider {
+    private final ServiceMetrics.Operation nearby;
+    private final ServiceMetrics.Operation departures;
+    private final ServiceMetrics.Operation suggest;
+    private final ServiceMetrics.Operation trips;
+    private final ServiceMetrics.Operation moreTrips;
+    private final ServiceMetrics.Operation area;
+
+    public InstrumentedNetworkProvider(final NetworkProvider delegate, final ServiceMetrics metrics) {
+        super(delegate);
+        this.nearby = metrics.operation(delegate.id(), "nearby");
+        this.departures = metrics.operation(delegate.id(), "departures");
+        this.suggest = metrics.operation(delegate.id(), "suggest");
+        this.trips = metrics.operation(delegate.id(), "trips");
+        this.moreTrips = metrics.operation(delegate.id(), "more_trips");
+        this.area = metrics.operation(delegate.id(), "area");
+    }
+
+    @Override
+    public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+            final int maxDistance, final int maxLocations) throws IOException {
+        final long start = nearby.begin();
+        Throwable error = null;
+        try {
+            return super.queryNearbyLocations(types, location, maxDistance, maxLocations);
+        } catch (final IOException | RuntimeException x) {
+            error = x;
+            throw x;
+        } finally {
+            nearby.end(start, error);
+        }
+    }
+
+    @Override
+    public QueryDeparturesResult queryDepartures(final String stationId, final @Nullable Date time,
+            final int maxDepartures, final boolean equivs) throws IOException {
+        final long start = departures.begin();
+        Throwable error = null;
+        try {
+            return super.queryDepartures(stationId, time, maxDepartures, equivs);
+        } catch (final IOException | RuntimeException x) {
+            error = x;
+            throw x;
+        } finally {
+            departures.end(start, error);
+        }
+    }
+
+    @Override
+    public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+        final long start = suggest.begin();
+        Throwable error = null;
+        try {
+            return super.suggestLocations(constraint);
+        } catch (final IOException | RuntimeException x) {
+            error = x;
+            throw x;
+        } finally {
+            suggest.end(start, error);
+        }
+    }
+
+    @Override
+    public QueryTripsResult queryTrips(final Location from, final @Nullable Location via, final Location to,
+            final Date date, final boolean dep, final @Nullable Set<Product> products,
+            final @Nullable Optimize optimize, final @Nullable WalkSpeed walkSpeed,
+            final @Nullable Accessibility accessibility, final @Nullable Set<Option> options) throws IOException {
+        final long start = trips.begin();
+        Throwable error = null;
+        try {
+            return super.queryTrips(from, via, to, date, dep, products, optimize, walkSpeed, accessibility, options);
+        } catch (final IOException | RuntimeException x) {
+            error = x;
+            throw x;
+        } finally {
+            trips.end(start, error);
+        }
+    }
+
+    @Override
+    public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later) throws IOException {
+        final long start = moreTrips.begin();
+        Throwable error = null;
+        try {
+            return super.queryMoreTrips(context, later);
+        } catch (final IOException | RuntimeException x) {
+            error = x;
+            throw x;
+        } finally {
+            moreTrips.end(start, error);
+        }
+    }
+
+    @Override
+    public Point[] getArea() throws IOException {
+        final long start = area.begin();
+        Throwable error = null;
+        try {
+            return super.getArea();
+        } catch (final IOException | RuntimeException x) {
+            error = x;
+            throw x;
+        } finally {
+            area.end(start, error);
+        }
+    }
+}
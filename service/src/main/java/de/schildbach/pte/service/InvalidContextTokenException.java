@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown if a context token is malformed, has been tampered with or has expired.
+ */
+@SuppressWarnings("serial")
+@ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "invalid context")
+public class InvalidContextTokenException extends RuntimeException {
+    public InvalidContextTokenException(final String message) {
+        super(message);
+    }
+
+    public InvalidContextTokenException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets. Percentiles are estimated as the upper bound of the bucket the
+ * rank falls into.
+ */
+public final class LatencyHistogram {
+    /** Upper bounds of the buckets in milliseconds, the last bucket is unbounded. */
+    public static final long[] BOUNDS_MS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMs = new AtomicLong();
+
+    public void record(final long ms) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MS.length && ms > BOUNDS_MS[bucket])
+            bucket++;
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sumMs.addAndGet(ms);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sumMs() {
+        return sumMs.get();
+    }
+
+    /** Number of recorded latencies in the given bucket, not cumulative. */
+    public long bucketCount(final int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * @return estimated latency in milliseconds, {@link Long#MAX_VALUE} if it is in the unbounded bucket, or -1 if
+     *         nothing has been recorded
+     */
+    public long percentile(final double quantile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++)
+            total += counts.get(i);
+        if (total == 0)
+            return -1;
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return BOUNDS_MS[i];
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+
+/**
+ * Live departure boards for long-polling clients. Each watched station is polled once per interval, no matter how
+ * many clients watch it, and clients are sent only the departures that changed since the version they have. Boards
+ * nobody asked for in a while stop being polled.
+ * 
+ * <p>
+ * Versions are tokens of the form {@code <epoch>.<counter>}. The epoch is random per board, so a version handed out
+ * by a board that has since been dropped, by an earlier run of the service or by another node is never mistaken for
+ * one of the current board; such clients get a full update.
+ * </p>
+ */
+@Component
+public class LiveDepartures implements DisposableBean {
+    private static final long POLL_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final long WAIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(25);
+    private static final int MAX_DEPARTURES = 20;
+
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("live-departures").setDaemon(true).build());
+    private final ConcurrentMap<String, Board> boards = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private static final Logger log = LoggerFactory.getLogger(LiveDepartures.class);
+
+    @Autowired
+    public LiveDepartures(final ProviderRegistry providers, final ProviderExecutors executors) {
+        this.providers = providers;
+        this.executors = executors;
+    }
+
+    /**
+     * Waits for the board of a station to move past the given version. Returns right away if it already has.
+     *
+     * @param since
+     *            version the client has, or {@code null} if it has none
+     */
+    public DeferredResult<DeparturesUpdate> watch(final NetworkId network, final String stationId,
+            final @Nullable String since) {
+        final NetworkProvider provider = providers.get(network);
+        final String key = network + "|" + stationId;
+        while (true) {
+            Board board = boards.get(key);
+            if (board == null) {
+                final Board newBoard = new Board(key, network, provider, stationId, newEpoch());
+                board = boards.putIfAbsent(key, newBoard);
+                if (board == null) {
+                    board = newBoard;
+                    board.start();
+                }
+            }
+            final DeferredResult<DeparturesUpdate> result = board.watch(since);
+            if (result != null)
+                return result;
+            // board was retired while we were joining it, start over
+        }
+    }
+
+    private String newEpoch() {
+        synchronized (random) {
+            return Long.toString(random.nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+        }
+    }
+
+    public int numBoards() {
+        return boards.size();
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    private final class Board implements Runnable {
+        private final String key;
+        private final NetworkId network;
+        private final NetworkProvider provider;
+        private final String stationId;
+        private final String epoch;
+
+        private ScheduledFuture<?> schedule;
+        private boolean retired = false;
+        private long lastWatched = System.currentTimeMillis();
+        private long version = 0;
+        private Map<String, Departure> departures = Collections.emptyMap();
+        private DeparturesUpdate lastDiff = null;
+        private final List<Waiter> waiters = new LinkedList<>();
+
+        public Board(final String key, final NetworkId network, final NetworkProvider provider,
+                final String stationId, final String epoch) {
+            this.key = key;
+            this.network = network;
+            this.provider = provider;
+            this.stationId = stationId;
+            this.epoch = epoch;
+        }
+
+        public synchronized void start() {
+            schedule = scheduler.scheduleWithFixedDelay(this, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return result to wait for, or {@code null} if this board has been retired and must not be joined
+         */
+        public synchronized @Nullable DeferredResult<DeparturesUpdate> watch(final @Nullable String since) {
+            if (retired)
+                return null;
+            lastWatched = System.currentTimeMillis();
+            final long sinceVersion = parseVersion(since);
+            final DeferredResult<DeparturesUpdate> result = new DeferredResult<>(WAIT_TIMEOUT_MS,
+                    DeparturesUpdate.unchanged(stationId, since != null ? since : token(0)));
+            if (version > 0 && sinceVersion != version) {
+                result.setResult(updateSince(sinceVersion));
+            } else {
+                final Waiter waiter = new Waiter(sinceVersion, result);
+                waiters.add(waiter);
+                result.onCompletion(new Runnable() {
+                    @Override
+                    public void run() {
+                        removeWaiter(waiter);
+                    }
+                });
+            }
+            return result;
+        }
+
+        private synchronized void removeWaiter(final Waiter waiter) {
+            waiters.remove(waiter);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (waiters.isEmpty() && System.currentTimeMillis() - lastWatched > IDLE_TIMEOUT_MS) {
+                    retired = true;
+                    boards.remove(key, this);
+                    schedule.cancel(false);
+                    return;
+                }
+            }
+
+            final Date time = new Date();
+            Futures.addCallback(executors.submit(network, new Callable<QueryDeparturesResult>() {
+                @Override
+                public QueryDeparturesResult call() throws IOException {
+                    return provider.queryDepartures(stationId, time, MAX_DEPARTURES, false);
+                }
+            }), new FutureCallback<QueryDeparturesResult>() {
+                @Override
+                public void onSuccess(final QueryDeparturesResult result) {
+                    if (result.status == QueryDeparturesResult.Status.OK)
+                        update(DeparturesUpdate.departuresByKey(result));
+                    else
+                        log.info("polling {} {}: {}", network, stationId, result.status);
+                }
+
+                @Override
+                public void onFailure(final Throwable t) {
+                    log.warn("polling {} {} failed: {}", network, stationId, t.toString());
+                }
+            });
+        }
+
+        private synchronized void update(final Map<String, Departure> current) {
+            final DeparturesUpdate diff = DeparturesUpdate.diff(stationId, token(version + 1), departures,
+                    current);
+            if (version > 0 && diff.isEmpty())
+                return;
+
+            version++;
+            departures = current;
+            lastDiff = diff;
+            for (final Iterator<Waiter> i = waiters.iterator(); i.hasNext();) {
+                final Waiter waiter = i.next();
+                i.remove();
+                waiter.result.setResult(updateSince(waiter.since));
+            }
+        }
+
+        private DeparturesUpdate updateSince(final long since) {
+            if (since == version - 1 && lastDiff != null)
+                return lastDiff;
+            else
+                return DeparturesUpdate.full(stationId, token(version), departures);
+        }
+
+        private String token(final long version) {
+            return epoch + '.' + version;
+        }
+
+        /**
+         * @return counter of a version of this board, or -1 if it belongs to another board or can't be parsed
+         */
+        private long parseVersion(final @Nullable String token) {
+            if (token == null || !token.startsWith(epoch + '.'))
+                return -1;
+            try {
+                return Long.parseLong(token.substring(epoch.length() + 1));
+            } catch (final NumberFormatException x) {
+                return -1;
+            }
+        }
+    }
+
+    private static final class Waiter {
+        public final long since;
+        public final DeferredResult<DeparturesUpdate> result;
+
+        public Waiter(final long since, final DeferredResult<DeparturesUpdate> result) {
+            this.since = since;
+            this.result = result;
+        }
+    }
+}
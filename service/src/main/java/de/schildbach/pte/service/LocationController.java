@@ -19,14 +19,19 @@ package de.schildbach.pte.service;
 
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
-import de.schildbach.pte.RtProvider;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.NearbyLocationsResult;
@@ -37,19 +42,58 @@ import de.schildbach.pte.dto.SuggestLocationsResult;
  */
 @Controller
 public class LocationController {
-    private final RtProvider provider = new RtProvider();
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final AreaRouter areaRouter;
+
+    @Autowired
+    public LocationController(final ProviderRegistry providers, final ProviderExecutors executors,
+            final AreaRouter areaRouter) {
+        this.providers = providers;
+        this.executors = executors;
+        this.areaRouter = areaRouter;
+    }
 
     @RequestMapping(value = "/location/suggest", method = RequestMethod.GET)
     @ResponseBody
-    public SuggestLocationsResult suggest(@RequestParam("q") final String query) throws IOException {
-        return provider.suggestLocations(query);
+    public DeferredResult<SuggestLocationsResult> suggest(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("q") final String query) {
+        final NetworkProvider provider = providers.get(network);
+        return executors.defer(network, new Callable<SuggestLocationsResult>() {
+            @Override
+            public SuggestLocationsResult call() throws IOException {
+                return provider.suggestLocations(query);
+            }
+        });
     }
 
     @RequestMapping(value = "/location/nearby", method = RequestMethod.GET)
     @ResponseBody
-    public NearbyLocationsResult nearby(@RequestParam("lat") final int lat, @RequestParam("lon") final int lon)
-            throws IOException {
+    public DeferredResult<NearbyLocationsResult> nearby(
+            @RequestParam(value = "network", required = false) final NetworkId requestedNetwork,
+            @RequestParam("lat") final int lat, @RequestParam("lon") final int lon) {
+        final NetworkId network = requestedNetwork != null ? requestedNetwork : routeNetwork(lat, lon);
         final Location coord = Location.coord(lat, lon);
-        return provider.queryNearbyLocations(EnumSet.of(LocationType.STATION, LocationType.POI), coord, 5000, 100);
+        final NetworkProvider provider = providers.get(network);
+        return executors.defer(network, new Callable<NearbyLocationsResult>() {
+            @Override
+            public NearbyLocationsResult call() throws IOException {
+                return provider.queryNearbyLocations(EnumSet.of(LocationType.STATION, LocationType.POI), coord, 5000,
+                        100);
+            }
+        });
+    }
+
+    /** Networks whose area covers the coordinate. */
+    @RequestMapping(value = "/location/networks", method = RequestMethod.GET)
+    @ResponseBody
+    public List<NetworkId> networks(@RequestParam("lat") final int lat, @RequestParam("lon") final int lon) {
+        return areaRouter.networksAt(lat, lon);
+    }
+
+    private NetworkId routeNetwork(final int lat, final int lon) {
+        final NetworkId network = areaRouter.mostSpecificAt(lat, lon);
+        return network != null ? network : NetworkId.RT;
     }
 }
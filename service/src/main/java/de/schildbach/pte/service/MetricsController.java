@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.util.ResultCache;
+
+/**
+ * Exposes {@link ServiceMetrics}, cache and bulkhead statistics in the Prometheus text format, and health and
+ * readiness checks.
+ */
+@Controller
+public class MetricsController {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private final ServiceMetrics metrics;
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final WarmUp warmUp;
+
+    @Autowired
+    public MetricsController(final ServiceMetrics metrics, final ProviderRegistry providers,
+            final ProviderExecutors executors, final WarmUp warmUp) {
+        this.metrics = metrics;
+        this.providers = providers;
+        this.executors = executors;
+        this.warmUp = warmUp;
+    }
+
+    @RequestMapping(value = "/health", method = RequestMethod.GET)
+    public void health(final HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        response.getWriter().println("OK");
+    }
+
+    /** Like {@link #health}, but only once {@link WarmUp} has finished. */
+    @RequestMapping(value = "/ready", method = RequestMethod.GET)
+    public void ready(final HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        if (warmUp.isReady()) {
+            response.getWriter().println("OK");
+        } else {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.getWriter().println("WARMING UP");
+        }
+    }
+
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public void metrics(final HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        final PrintWriter out = response.getWriter();
+
+        header(out, "pte_provider_requests_total", "counter", "Provider calls that were not served from the cache.");
+        for (final ServiceMetrics.Operation operation : metrics.operations())
+            sample(out, "pte_provider_requests_total", labels(operation), operation.requests.get());
+
+        header(out, "pte_provider_errors_total", "counter", "Failed provider calls, by exception type.");
+        for (final ServiceMetrics.Operation operation : metrics.operations())
+            for (final Map.Entry<String, AtomicLong> entry : operation.errors.entrySet())
+                sample(out, "pte_provider_errors_total",
+                        labels(operation) + ",exception=\"" + entry.getKey() + "\"", entry.getValue().get());
+
+        header(out, "pte_provider_in_flight", "gauge", "Provider calls in progress.");
+        for (final ServiceMetrics.Operation operation : metrics.operations())
+            sample(out, "pte_provider_in_flight", labels(operation), operation.inFlight.get());
+
+        header(out, "pte_provider_latency_seconds", "histogram", "Latency of provider calls.");
+        for (final ServiceMetrics.Operation operation : metrics.operations()) {
+            final LatencyHistogram latency = operation.latency;
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.BOUNDS_MS.length; i++) {
+                cumulative += latency.bucketCount(i);
+                sample(out, "pte_provider_latency_seconds_bucket",
+                        labels(operation) + ",le=\"" + seconds(LatencyHistogram.BOUNDS_MS[i]) + "\"", cumulative);
+            }
+            cumulative += latency.bucketCount(LatencyHistogram.BOUNDS_MS.length);
+            sample(out, "pte_provider_latency_seconds_bucket", labels(operation) + ",le=\"+Inf\"", cumulative);
+            out.print("pte_provider_latency_seconds_sum{" + labels(operation) + "} ");
+            out.println(seconds(latency.sumMs()));
+            sample(out, "pte_provider_latency_seconds_count", labels(operation), latency.count());
+        }
+
+        header(out, "pte_provider_latency_quantile_seconds", "gauge",
+                "Latency percentiles of provider calls, estimated from the histogram.");
+        for (final ServiceMetrics.Operation operation : metrics.operations()) {
+            for (final double quantile : QUANTILES) {
+                final long ms = operation.latency.percentile(quantile);
+                if (ms >= 0) {
+                    out.print("pte_provider_latency_quantile_seconds{" + labels(operation) + ",quantile=\"" + quantile
+                            + "\"} ");
+                    out.println(ms == Long.MAX_VALUE ? "+Inf" : seconds(ms));
+                }
+            }
+        }
+
+        final ResultCache cache = providers.cache();
+        if (cache != null) {
+            final long memoryHits = cache.memoryHits(), diskHits = cache.diskHits(), misses = cache.misses();
+            header(out, "pte_cache_hits_total", "counter", "Result cache hits, by tier.");
+            sample(out, "pte_cache_hits_total", "tier=\"memory\"", memoryHits);
+            sample(out, "pte_cache_hits_total", "tier=\"disk\"", diskHits);
+            header(out, "pte_cache_misses_total", "counter", "Result cache misses.");
+            sample(out, "pte_cache_misses_total", null, misses);
+            final long lookups = memoryHits + diskHits + misses;
+            header(out, "pte_cache_hit_ratio", "gauge", "Share of result cache lookups that were hits, all networks.");
+            out.print("pte_cache_hit_ratio ");
+            out.println(lookups > 0 ? String.format(Locale.US, "%.4f", (double) (memoryHits + diskHits) / lookups)
+                    : "NaN");
+        }
+
+        final Map<NetworkId, ProviderExecutors.Saturation> saturation = executors.saturation();
+        header(out, "pte_bulkhead_active", "gauge", "Provider calls running in the bulkhead.");
+        for (final Map.Entry<NetworkId, ProviderExecutors.Saturation> entry : saturation.entrySet())
+            sample(out, "pte_bulkhead_active", network(entry.getKey()), entry.getValue().active);
+        header(out, "pte_bulkhead_queued", "gauge", "Provider calls waiting in the bulkhead.");
+        for (final Map.Entry<NetworkId, ProviderExecutors.Saturation> entry : saturation.entrySet())
+            sample(out, "pte_bulkhead_queued", network(entry.getKey()), entry.getValue().queued);
+        header(out, "pte_bulkhead_capacity", "gauge", "Maximum concurrent plus queued provider calls.");
+        for (final Map.Entry<NetworkId, ProviderExecutors.Saturation> entry : saturation.entrySet())
+            sample(out, "pte_bulkhead_capacity", network(entry.getKey()),
+                    entry.getValue().maxConcurrent + entry.getValue().queueSize);
+        header(out, "pte_bulkhead_rejected_total", "counter", "Provider calls rejected by the bulkhead.");
+        for (final Map.Entry<NetworkId, ProviderExecutors.Saturation> entry : saturation.entrySet())
+            sample(out, "pte_bulkhead_rejected_total", network(entry.getKey()), entry.getValue().rejected);
+
+        header(out, "pte_providers_instantiated", "gauge", "Providers instantiated so far.");
+        sample(out, "pte_providers_instantiated", null, providers.instantiated().size());
+
+        out.flush();
+    }
+
+    private static void header(final PrintWriter out, final String name, final String type, final String help) {
+        out.println("# HELP " + name + " " + help);
+        out.println("# TYPE " + name + " " + type);
+    }
+
+    private static void sample(final PrintWriter out, final String name, final String labels, final long value) {
+        out.print(name);
+        if (labels != null)
+            out.print("{" + labels + "}");
+        out.print(' ');
+        out.println(value);
+    }
+
+    private static String labels(final ServiceMetrics.Operation operation) {
+        return network(operation.network) + ",operation=\"" + operation.name + "\"";
+    }
+
+    private static String network(final NetworkId network) {
+        return "network=\"" + network.name() + "\"";
+    }
+
+    private static String seconds(final long ms) {
+        return String.format(Locale.US, "%.3f", ms / 1000.0);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Thrown if the bulkhead of a network is saturated. It has its own status, so clients and load balancers can tell
+ * shed load from failures and timeouts.
+ */
+@SuppressWarnings("serial")
+@ResponseStatus(value = HttpStatus.TOO_MANY_REQUESTS, reason = "network saturated")
+public class ProviderBusyException extends RuntimeException {
+    public ProviderBusyException(final NetworkId network) {
+        super("network saturated: " + network);
+    }
+}
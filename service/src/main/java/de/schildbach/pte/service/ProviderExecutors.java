@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * <p>
+ * Runs provider calls off the servlet container threads, in one bulkhead per network. A bulkhead is a thread pool
+ * limiting the number of concurrent calls, with a bounded queue for calls waiting their turn. Calls that do not fit
+ * are rejected immediately with a {@link ProviderBusyException}, so a slow or failing upstream can only tie up its own
+ * threads while other networks keep their latency.
+ * </p>
+ * 
+ * <p>
+ * Limits are configured in the optional {@code service.properties}, e.g. {@code bulkhead.maxConcurrent=8} and
+ * {@code bulkhead.queueSize=32} for all networks, or {@code bulkhead.VBB.maxConcurrent=16} for a single one.
+ * </p>
+ */
+@Component
+public class ProviderExecutors implements DisposableBean {
+    private static final int DEFAULT_MAX_CONCURRENT = 8;
+    private static final int DEFAULT_QUEUE_SIZE = 32;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final Properties properties;
+    private final LoadingCache<NetworkId, Bulkhead> bulkheads = CacheBuilder.newBuilder()
+            .build(new CacheLoader<NetworkId, Bulkhead>() {
+                @Override
+                public Bulkhead load(final NetworkId network) {
+                    return new Bulkhead(network,
+                            ServiceProperties.getInt(properties, "bulkhead." + network.name() + ".maxConcurrent",
+                                    ServiceProperties.getInt(properties, "bulkhead.maxConcurrent",
+                                            DEFAULT_MAX_CONCURRENT)),
+                            ServiceProperties.getInt(properties, "bulkhead." + network.name() + ".queueSize",
+                                    ServiceProperties.getInt(properties, "bulkhead.queueSize", DEFAULT_QUEUE_SIZE)));
+                }
+            });
+
+    public ProviderExecutors() throws IOException {
+        this(ServiceProperties.load(ServiceProperties.SERVICE_RESOURCE));
+    }
+
+    public ProviderExecutors(final Properties properties) {
+        this.properties = properties;
+    }
+
+    public <T> ListenableFuture<T> submit(final NetworkId network, final Callable<T> call) {
+        final Bulkhead bulkhead = bulkheads.getUnchecked(network);
+        try {
+            return bulkhead.executor.submit(call);
+        } catch (final RejectedExecutionException x) {
+            bulkhead.rejected.incrementAndGet();
+            return Futures.immediateFailedFuture(new ProviderBusyException(network));
+        }
+    }
+
+    /** Number of calls to a network that run at the same time, before further calls are queued. */
+    public int maxConcurrent(final NetworkId network) {
+        return bulkheads.getUnchecked(network).pool.getMaximumPoolSize();
+    }
+
+    /** Submits a call and returns a result for Spring MVC to complete the request with asynchronously. */
+    public <T> DeferredResult<T> defer(final NetworkId network, final Callable<T> call) {
+        final DeferredResult<T> result = new DeferredResult<>();
+        Futures.addCallback(submit(network, call), new FutureCallback<T>() {
+            @Override
+            public void onSuccess(final T value) {
+                result.setResult(value);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                result.setErrorResult(t);
+            }
+        });
+        return result;
+    }
+
+    /** Saturation of all bulkheads that have been used so far, by network. */
+    public Map<NetworkId, Saturation> saturation() {
+        final Map<NetworkId, Saturation> saturation = new TreeMap<>();
+        for (final Bulkhead bulkhead : bulkheads.asMap().values())
+            saturation.put(bulkhead.network, bulkhead.saturation());
+        return saturation;
+    }
+
+    @Override
+    public void destroy() {
+        for (final Bulkhead bulkhead : bulkheads.asMap().values())
+            bulkhead.executor.shutdownNow();
+    }
+
+    public static final class Saturation {
+        public final int maxConcurrent;
+        public final int queueSize;
+        public final int active;
+        public final int queued;
+        public final long completed;
+        public final long rejected;
+
+        public Saturation(final int maxConcurrent, final int queueSize, final int active, final int queued,
+                final long completed, final long rejected) {
+            this.maxConcurrent = maxConcurrent;
+            this.queueSize = queueSize;
+            this.active = active;
+            this.queued = queued;
+            this.completed = completed;
+            this.rejected = rejected;
+        }
+    }
+
+    private static final class Bulkhead {
+        private final NetworkId network;
+        private final int queueSize;
+        private final ThreadPoolExecutor pool;
+        private final ListeningExecutorService executor;
+        private final AtomicLong rejected = new AtomicLong();
+
+        public Bulkhead(final NetworkId network, final int maxConcurrent, final int queueSize) {
+            this.network = network;
+            this.queueSize = queueSize;
+            this.pool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setNameFormat("provider-" + network.name().toLowerCase() + "-%d")
+                            .setDaemon(true).build());
+            this.pool.allowCoreThreadTimeOut(true);
+            this.executor = MoreExecutors.listeningDecorator(pool);
+        }
+
+        public Saturation saturation() {
+            return new Saturation(pool.getMaximumPoolSize(), queueSize, pool.getActiveCount(), pool.getQueue().size(),
+                    pool.getCompletedTaskCount(), rejected.get());
+        }
+    }
+}
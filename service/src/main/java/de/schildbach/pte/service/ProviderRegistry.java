@@ -0,0 +1,359 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import de.schildbach.pte.AbstractHafasMobileProvider;
+import de.schildbach.pte.AbstractNavitiaProvider;
+import de.schildbach.pte.AbstractNetworkProvider;
+import de.schildbach.pte.CachingNetworkProvider;
+import de.schildbach.pte.ForwardingNetworkProvider;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.util.HttpTape;
+import de.schildbach.pte.util.MappedResultStore;
+import de.schildbach.pte.util.ResultCache;
+
+import okhttp3.HttpUrl;
+
+/**
+ * <p>
+ * Resolves a {@link NetworkId} to its provider. Providers are instantiated on first use and shared by all
+ * requests afterwards, so their classes and style tables are only loaded for networks that are actually queried.
+ * </p>
+ * 
+ * <p>
+ * Providers that need an API key or other secrets are configured in an optional {@code providers.properties} on the
+ * classpath. The key is the network id, the value is a comma-separated list of constructor arguments, e.g.
+ * {@code PARIS=secret} or {@code HSL=user,password}. Providers without a configuration are created using their
+ * no-arg constructor.
+ * </p>
+ * 
+ * <p>
+ * Every provider is instrumented for {@link ServiceMetrics}. If {@code cache.memoryBytes} is set in
+ * {@code service.properties}, location and area results are also cached, optionally backed by a memory-mapped
+ * {@code cache.file} of {@code cache.fileBytes}. Cache hits don't reach the instrumented provider; they are counted
+ * by the {@link ResultCache}.
+ * </p>
+ * 
+ * <p>
+ * For load tests, {@code upstream.override} in {@code service.properties} sends all upstream requests to a stand-in
+ * server instead, e.g. {@code http://127.0.0.1:18080/}.
+ * </p>
+ * 
+ * <p>
+ * {@code mgate.batchWindowMs} in {@code service.properties} lets HAFAS mobile providers combine concurrent station
+ * board and location calls arriving within that many milliseconds into one upstream request.
+ * </p>
+ * 
+ * <p>
+ * Navitia providers share their stop point to stop area mappings and areas. {@code navitia.file} of
+ * {@code navitia.fileBytes} persists them, and {@code navitia.preloadStopAreas=true} loads all mappings of a
+ * region in the background when its provider is instantiated.
+ * </p>
+ */
+@Component
+public class ProviderRegistry implements DisposableBean {
+    private static final String PROPERTIES_RESOURCE = "/providers.properties";
+    private static final Map<NetworkId, String> PROVIDER_CLASSES = new EnumMap<>(NetworkId.class);
+
+    static {
+        PROVIDER_CLASSES.put(NetworkId.RT, "RtProvider");
+        PROVIDER_CLASSES.put(NetworkId.DB, "BahnProvider");
+        PROVIDER_CLASSES.put(NetworkId.BVG, "BvgProvider");
+        PROVIDER_CLASSES.put(NetworkId.VBB, "VbbProvider");
+        PROVIDER_CLASSES.put(NetworkId.NVV, "NvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.BAYERN, "BayernProvider");
+        PROVIDER_CLASSES.put(NetworkId.MVV, "MvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.INVG, "InvgProvider");
+        PROVIDER_CLASSES.put(NetworkId.AVV, "AvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.VGN, "VgnProvider");
+        PROVIDER_CLASSES.put(NetworkId.VVM, "VvmProvider");
+        PROVIDER_CLASSES.put(NetworkId.VMV, "VmvProvider");
+        PROVIDER_CLASSES.put(NetworkId.SH, "ShProvider");
+        PROVIDER_CLASSES.put(NetworkId.GVH, "GvhProvider");
+        PROVIDER_CLASSES.put(NetworkId.BSVAG, "BsvagProvider");
+        PROVIDER_CLASSES.put(NetworkId.VBN, "VbnProvider");
+        PROVIDER_CLASSES.put(NetworkId.NASA, "NasaProvider");
+        PROVIDER_CLASSES.put(NetworkId.VMT, "VmtProvider");
+        PROVIDER_CLASSES.put(NetworkId.VVO, "VvoProvider");
+        PROVIDER_CLASSES.put(NetworkId.VMS, "VmsProvider");
+        PROVIDER_CLASSES.put(NetworkId.VGS, "VgsProvider");
+        PROVIDER_CLASSES.put(NetworkId.VRR, "VrrProvider");
+        PROVIDER_CLASSES.put(NetworkId.VRS, "VrsProvider");
+        PROVIDER_CLASSES.put(NetworkId.MVG, "MvgProvider");
+        PROVIDER_CLASSES.put(NetworkId.VRN, "VrnProvider");
+        PROVIDER_CLASSES.put(NetworkId.VVS, "VvsProvider");
+        PROVIDER_CLASSES.put(NetworkId.DING, "DingProvider");
+        PROVIDER_CLASSES.put(NetworkId.KVV, "KvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.VAGFR, "VagfrProvider");
+        PROVIDER_CLASSES.put(NetworkId.NVBW, "NvbwProvider");
+        PROVIDER_CLASSES.put(NetworkId.VVV, "VvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.OEBB, "OebbProvider");
+        PROVIDER_CLASSES.put(NetworkId.VAO, "VaoProvider");
+        PROVIDER_CLASSES.put(NetworkId.VOR, "VorProvider");
+        PROVIDER_CLASSES.put(NetworkId.WIEN, "WienProvider");
+        PROVIDER_CLASSES.put(NetworkId.OOEVV, "OoevvProvider");
+        PROVIDER_CLASSES.put(NetworkId.LINZ, "LinzProvider");
+        PROVIDER_CLASSES.put(NetworkId.SVV, "SvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.VVT, "VvtProvider");
+        PROVIDER_CLASSES.put(NetworkId.IVB, "IvbProvider");
+        PROVIDER_CLASSES.put(NetworkId.STV, "StvProvider");
+        PROVIDER_CLASSES.put(NetworkId.VMOBIL, "VmobilProvider");
+        PROVIDER_CLASSES.put(NetworkId.SBB, "SbbProvider");
+        PROVIDER_CLASSES.put(NetworkId.BVB, "BvbProvider");
+        PROVIDER_CLASSES.put(NetworkId.VBL, "VblProvider");
+        PROVIDER_CLASSES.put(NetworkId.ZVV, "ZvvProvider");
+        PROVIDER_CLASSES.put(NetworkId.PARIS, "ParisProvider");
+        PROVIDER_CLASSES.put(NetworkId.FRANCESOUTHWEST, "FranceSouthWestProvider");
+        PROVIDER_CLASSES.put(NetworkId.FRANCESOUTHEAST, "FranceSouthEastProvider");
+        PROVIDER_CLASSES.put(NetworkId.FRANCENORTHWEST, "FranceNorthWestProvider");
+        PROVIDER_CLASSES.put(NetworkId.FRANCENORTHEAST, "FranceNorthEastProvider");
+        PROVIDER_CLASSES.put(NetworkId.SNCB, "SncbProvider");
+        PROVIDER_CLASSES.put(NetworkId.NS, "NsProvider");
+        PROVIDER_CLASSES.put(NetworkId.NEGENTWEE, "NegentweeProvider");
+        PROVIDER_CLASSES.put(NetworkId.DSB, "DsbProvider");
+        PROVIDER_CLASSES.put(NetworkId.SE, "SeProvider");
+        PROVIDER_CLASSES.put(NetworkId.NRI, "NriProvider");
+        PROVIDER_CLASSES.put(NetworkId.HSL, "HslProvider");
+        PROVIDER_CLASSES.put(NetworkId.LU, "LuProvider");
+        PROVIDER_CLASSES.put(NetworkId.TLEM, "TlemProvider");
+        PROVIDER_CLASSES.put(NetworkId.MERSEY, "MerseyProvider");
+        PROVIDER_CLASSES.put(NetworkId.TFI, "TfiProvider");
+        PROVIDER_CLASSES.put(NetworkId.EIREANN, "EireannProvider");
+        PROVIDER_CLASSES.put(NetworkId.PL, "PlProvider");
+        PROVIDER_CLASSES.put(NetworkId.IT, "ItalyProvider");
+        PROVIDER_CLASSES.put(NetworkId.DUB, "DubProvider");
+        PROVIDER_CLASSES.put(NetworkId.RTACHICAGO, "RtaChicagoProvider");
+        PROVIDER_CLASSES.put(NetworkId.OREGON, "OregonProvider");
+        PROVIDER_CLASSES.put(NetworkId.ONTARIO, "OntarioProvider");
+        PROVIDER_CLASSES.put(NetworkId.QUEBEC, "QuebecProvider");
+        PROVIDER_CLASSES.put(NetworkId.SYDNEY, "SydneyProvider");
+    }
+
+    private final Properties properties;
+    private final LoadingCache<NetworkId, NetworkProvider> providers = CacheBuilder.newBuilder()
+            .build(new CacheLoader<NetworkId, NetworkProvider>() {
+                @Override
+                public NetworkProvider load(final NetworkId network) throws Exception {
+                    NetworkProvider provider = instantiate(network);
+                    if (upstreamOverride != null && provider instanceof AbstractNetworkProvider)
+                        ((AbstractNetworkProvider) provider).setUpstreamOverride(upstreamOverride);
+                    if (mgateBatchWindowMs > 0 && provider instanceof AbstractHafasMobileProvider)
+                        ((AbstractHafasMobileProvider) provider).setBatchWindow(mgateBatchWindowMs);
+                    if (preloadStopAreas && provider instanceof AbstractNavitiaProvider)
+                        preloadStopAreaIds(network, (AbstractNavitiaProvider) provider);
+                    // instrumented inside the cache, so that metrics only count calls that reach upstream
+                    provider = new InstrumentedNetworkProvider(provider, metrics);
+                    if (cache != null)
+                        provider = new CachingNetworkProvider(provider, cache);
+                    return provider;
+                }
+            });
+    private final @Nullable ResultCache cache;
+    private final @Nullable HttpUrl upstreamOverride;
+    private final ServiceMetrics metrics;
+    private final int mgateBatchWindowMs;
+    private final @Nullable MappedResultStore navitiaStore;
+    private final boolean preloadStopAreas;
+    private final ExecutorService preloadExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("navitia-preload").setDaemon(true).build());
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderRegistry.class);
+
+    @Autowired
+    public ProviderRegistry(final ServiceMetrics metrics) throws IOException {
+        this(ServiceProperties.load(PROPERTIES_RESOURCE), ServiceProperties.load(ServiceProperties.SERVICE_RESOURCE),
+                metrics);
+    }
+
+    /**
+     * @param properties
+     *            constructor arguments by network, as in {@code providers.properties}
+     * @param serviceProperties
+     *            cache, upstream and provider settings, as in {@code service.properties}
+     */
+    public ProviderRegistry(final Properties properties, final Properties serviceProperties,
+            final ServiceMetrics metrics) throws IOException {
+        this.properties = properties;
+        this.cache = createCache(serviceProperties);
+        this.upstreamOverride = upstreamOverride(serviceProperties);
+        this.metrics = metrics;
+        this.mgateBatchWindowMs = ServiceProperties.getInt(serviceProperties, "mgate.batchWindowMs", 0);
+        final String navitiaFile = serviceProperties.getProperty("navitia.file");
+        if (navitiaFile != null) {
+            this.navitiaStore = new MappedResultStore(new File(navitiaFile),
+                    ServiceProperties.getInt(serviceProperties, "navitia.fileBytes", 16 * 1024 * 1024));
+            AbstractNavitiaProvider.setStore(navitiaStore);
+        } else {
+            this.navitiaStore = null;
+        }
+        this.preloadStopAreas = Boolean.parseBoolean(serviceProperties.getProperty("navitia.preloadStopAreas"));
+    }
+
+    public NetworkProvider get(final NetworkId network) {
+        try {
+            return providers.get(network);
+        } catch (final ExecutionException | UncheckedExecutionException x) {
+            final Throwable cause = x.getCause();
+            if (cause instanceof UnknownNetworkException)
+                throw (UnknownNetworkException) cause;
+            throw new IllegalStateException("cannot instantiate provider for " + network, cause);
+        }
+    }
+
+    /**
+     * The shared provider of a network without the metrics and cache around it, for calls that should neither be
+     * counted nor cached.
+     */
+    public NetworkProvider getUnwrapped(final NetworkId network) {
+        NetworkProvider provider = get(network);
+        while (provider instanceof ForwardingNetworkProvider)
+            provider = ((ForwardingNetworkProvider) provider).delegate();
+        return provider;
+    }
+
+    /**
+     * A new provider of a network, not shared with anyone, that answers all upstream requests from a recorded tape.
+     */
+    public NetworkProvider replaying(final NetworkId network, final HttpTape tape) throws ReflectiveOperationException {
+        final NetworkProvider provider = instantiate(network);
+        if (!(provider instanceof AbstractNetworkProvider))
+            throw new IllegalArgumentException("cannot replay tapes for " + network);
+        ((AbstractNetworkProvider) provider).setHttpTape(tape);
+        return provider;
+    }
+
+    /** All networks known to the registry, configured or not. */
+    public Set<NetworkId> networks() {
+        return Collections.unmodifiableSet(PROVIDER_CLASSES.keySet());
+    }
+
+    /** Result cache shared by all providers, or null if caching is disabled. */
+    public @Nullable ResultCache cache() {
+        return cache;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        preloadExecutor.shutdownNow();
+        if (cache != null)
+            cache.close();
+        if (navitiaStore != null) {
+            AbstractNavitiaProvider.setStore(null);
+            navitiaStore.close();
+        }
+    }
+
+    /** Providers that have been instantiated so far. */
+    public Map<NetworkId, NetworkProvider> instantiated() {
+        return providers.asMap();
+    }
+
+    private NetworkProvider instantiate(final NetworkId network) throws ReflectiveOperationException {
+        final String className = PROVIDER_CLASSES.get(network);
+        if (className == null)
+            throw new UnknownNetworkException(network.name());
+        final Class<? extends NetworkProvider> providerClass = Class
+                .forName(NetworkProvider.class.getPackage().getName() + "." + className)
+                .asSubclass(NetworkProvider.class);
+
+        final String config = properties.getProperty(network.name());
+        final String[] args = config != null
+                ? Splitter.on(',').trimResults().splitToList(config).toArray(new String[0]) : new String[0];
+        final Class<?>[] parameterTypes = new Class<?>[args.length];
+        Arrays.fill(parameterTypes, String.class);
+        final Constructor<? extends NetworkProvider> constructor;
+        try {
+            constructor = providerClass.getConstructor(parameterTypes);
+        } catch (final NoSuchMethodException x) {
+            throw new UnknownNetworkException(network.name() + " (not configured)");
+        }
+        try {
+            return constructor.newInstance((Object[]) args);
+        } catch (final InvocationTargetException x) {
+            throw new IllegalStateException("cannot instantiate " + className, x.getCause());
+        }
+    }
+
+    private void preloadStopAreaIds(final NetworkId network, final AbstractNavitiaProvider provider) {
+        preloadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Stopwatch watch = Stopwatch.createStarted();
+                try {
+                    final int count = provider.preloadStopAreaIds();
+                    log.info("preloaded {} stop areas of {} in {}", count, network, watch);
+                } catch (final IOException | RuntimeException x) {
+                    log.warn("preloading stop areas of {} failed: {}", network, x.toString());
+                }
+            }
+        });
+    }
+
+    private static @Nullable ResultCache createCache(final Properties properties) throws IOException {
+        final int memoryBytes = ServiceProperties.getInt(properties, "cache.memoryBytes", 0);
+        if (memoryBytes <= 0)
+            return null;
+        final String file = properties.getProperty("cache.file");
+        final MappedResultStore disk = file != null
+                ? new MappedResultStore(new File(file), ServiceProperties.getInt(properties, "cache.fileBytes",
+                        64 * 1024 * 1024))
+                : null;
+        return new ResultCache(memoryBytes, disk);
+    }
+
+    private static @Nullable HttpUrl upstreamOverride(final Properties properties) {
+        final String upstream = properties.getProperty("upstream.override");
+        if (upstream == null)
+            return null;
+        final HttpUrl url = HttpUrl.parse(upstream.trim());
+        if (url == null)
+            throw new IllegalArgumentException("cannot parse upstream.override: " + upstream);
+        return url;
+    }
+}
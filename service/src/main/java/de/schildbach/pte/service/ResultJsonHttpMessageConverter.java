@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.google.common.base.Splitter;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Writes result objects as JSON using {@link ResultJsonWriter}. The {@code omit} request parameter selects fields to
+ * leave out (e.g. {@code omit=path,intermediateStops}), and the response is gzipped if the client accepts it. If
+ * {@link ContextTokens} are set, trip results carry a token for paging, bound to the network of the request.
+ */
+public class ResultJsonHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+    public static final String OMIT_PARAMETER = "omit";
+    public static final String NETWORK_PARAMETER = "network";
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private boolean gzip = true;
+    private ContextTokens contextTokens = null;
+
+    public ResultJsonHttpMessageConverter() {
+        super(new MediaType("application", "json", Charset.forName("UTF-8")));
+    }
+
+    public void setObjectMapper(final ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public void setGzip(final boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public void setContextTokens(final ContextTokens contextTokens) {
+        this.contextTokens = contextTokens;
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return ResultJsonWriter.canWrite(clazz);
+    }
+
+    @Override
+    public boolean canRead(final Class<?> clazz, final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(final Class<? extends Object> clazz, final HttpInputMessage inputMessage)
+            throws IOException {
+        throw new HttpMessageNotReadableException("cannot read " + clazz);
+    }
+
+    @Override
+    protected void writeInternal(final Object result, final HttpOutputMessage outputMessage) throws IOException {
+        final HttpServletRequest request = currentRequest();
+        final Set<ResultJsonWriter.Field> omit = ResultJsonWriter
+                .parseFields(request != null ? request.getParameter(OMIT_PARAMETER) : null);
+        final boolean gzipped = gzip && request != null && acceptsGzip(request.getHeader("Accept-Encoding"));
+
+        // headers must be complete before the body is obtained
+        if (gzipped) {
+            outputMessage.getHeaders().set("Content-Encoding", "gzip");
+            outputMessage.getHeaders().set("Vary", "Accept-Encoding");
+        }
+        final OutputStream os = gzipped ? new GZIPOutputStream(outputMessage.getBody(), GZIP_BUFFER_SIZE)
+                : outputMessage.getBody();
+
+        final JsonGenerator generator = objectMapper.getJsonFactory().createJsonGenerator(os, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        new ResultJsonWriter(objectMapper, omit, contextTokens, requestNetwork(request)).write(generator, result);
+        generator.close();
+        if (gzipped)
+            ((GZIPOutputStream) os).finish();
+        os.flush();
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header allows gzip, i.e. lists {@code gzip} with a non-zero quality, or lists
+     * {@code *} with a non-zero quality and does not mention {@code gzip} at all.
+     */
+    static boolean acceptsGzip(final @Nullable String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+        Boolean gzip = null;
+        Boolean any = null;
+        for (final String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            final Iterator<String> parts = Splitter.on(';').trimResults().split(coding).iterator();
+            final String name = parts.next();
+            double q = 1;
+            while (parts.hasNext()) {
+                final String param = parts.next();
+                if (param.length() > 2 && Character.toLowerCase(param.charAt(0)) == 'q' && param.charAt(1) == '=') {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (final NumberFormatException x) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase("gzip"))
+                gzip = q > 0;
+            else if (name.equals("*"))
+                any = q > 0;
+        }
+        if (gzip != null)
+            return gzip;
+        return any != null && any;
+    }
+
+    /**
+     * Network a request was made to, read like the controllers read it: the {@code network} parameter, defaulting to
+     * {@link NetworkId#RT}.
+     */
+    static @Nullable NetworkId requestNetwork(final @Nullable HttpServletRequest request) {
+        if (request == null)
+            return null;
+        final String network = request.getParameter(NETWORK_PARAMETER);
+        if (network == null)
+            return NetworkId.RT;
+        try {
+            return NetworkId.valueOf(network.trim());
+        } catch (final IllegalArgumentException x) {
+            return null;
+        }
+    }
+
+    private static HttpServletRequest currentRequest() {
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes)
+            return ((ServletRequestAttributes) attributes).getRequest();
+        return null;
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.base.Splitter;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Fare;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Position;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * Writes result objects straight to a {@link JsonGenerator}, without going through Jackson's reflective bean
+ * serialization. By default the output has the same shape as the bean serialization; parts of it can be left out by
+ * passing a set of {@link Field}s to omit.
+ */
+public final class ResultJsonWriter {
+    public enum Field {
+        /** polylines of legs */
+        PATH("path"),
+        /** intermediate stops of public legs */
+        INTERMEDIATE_STOPS("intermediateStops"),
+        /** convenience properties that can be computed from the other properties */
+        DERIVED("derived");
+
+        public final String parameter;
+
+        private Field(final String parameter) {
+            this.parameter = parameter;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Set<Field> omit;
+    private final ContextTokens contextTokens;
+    private final NetworkId network;
+
+    public ResultJsonWriter(final ObjectMapper objectMapper, final Set<Field> omit) {
+        this(objectMapper, omit, null, null);
+    }
+
+    /**
+     * @param contextTokens
+     *            if not null, trip results get a {@code contextToken} for querying more trips
+     * @param network
+     *            network the request was made to, which context tokens are bound to; if null, the network of the
+     *            result header is used
+     */
+    public ResultJsonWriter(final ObjectMapper objectMapper, final Set<Field> omit,
+            final @Nullable ContextTokens contextTokens, final @Nullable NetworkId network) {
+        this.objectMapper = objectMapper;
+        this.omit = omit;
+        this.contextTokens = contextTokens;
+        this.network = network;
+    }
+
+    /**
+     * Parses a comma separated list of {@link Field} parameter names, ignoring unknown names.
+     */
+    public static Set<Field> parseFields(final String fields) {
+        final Set<Field> result = EnumSet.noneOf(Field.class);
+        if (fields == null)
+            return result;
+        for (final String name : Splitter.on(',').trimResults().omitEmptyStrings().split(fields))
+            for (final Field field : Field.values())
+                if (field.parameter.equalsIgnoreCase(name))
+                    result.add(field);
+        return result;
+    }
+
+    public static boolean canWrite(final Class<?> clazz) {
+        return QueryTripsResult.class.isAssignableFrom(clazz) || QueryDeparturesResult.class.isAssignableFrom(clazz)
+                || NearbyLocationsResult.class.isAssignableFrom(clazz)
+                || SuggestLocationsResult.class.isAssignableFrom(clazz)
+                || DeparturesUpdate.class.isAssignableFrom(clazz);
+    }
+
+    public void write(final JsonGenerator g, final Object result) throws IOException {
+        if (result instanceof QueryTripsResult)
+            writeQueryTripsResult(g, (QueryTripsResult) result);
+        else if (result instanceof QueryDeparturesResult)
+            writeQueryDeparturesResult(g, (QueryDeparturesResult) result);
+        else if (result instanceof NearbyLocationsResult)
+            writeNearbyLocationsResult(g, (NearbyLocationsResult) result);
+        else if (result instanceof SuggestLocationsResult)
+            writeSuggestLocationsResult(g, (SuggestLocationsResult) result);
+        else if (result instanceof DeparturesUpdate)
+            writeDeparturesUpdate(g, (DeparturesUpdate) result);
+        else
+            throw new IllegalArgumentException("cannot write: " + result.getClass());
+    }
+
+    private void writeQueryTripsResult(final JsonGenerator g, final QueryTripsResult result) throws IOException {
+        g.writeStartObject();
+        writeHeader(g, result.header);
+        g.writeStringField("status", result.status.name());
+        writeLocations(g, "ambiguousFrom", result.ambiguousFrom);
+        writeLocations(g, "ambiguousVia", result.ambiguousVia);
+        writeLocations(g, "ambiguousTo", result.ambiguousTo);
+        g.writeStringField("queryUri", result.queryUri);
+        writeLocation(g, "from", result.from);
+        writeLocation(g, "via", result.via);
+        writeLocation(g, "to", result.to);
+        writeOpaque(g, "context", result.context);
+        final NetworkId tokenNetwork = network != null ? network
+                : result.header != null ? result.header.network : null;
+        if (contextTokens != null && result.context != null && tokenNetwork != null)
+            g.writeStringField("contextToken", contextTokens.encode(tokenNetwork, result.context));
+        g.writeFieldName("trips");
+        if (result.trips != null) {
+            g.writeStartArray();
+            for (final Trip trip : result.trips)
+                writeTrip(g, trip);
+            g.writeEndArray();
+        } else {
+            g.writeNull();
+        }
+        g.writeEndObject();
+    }
+
+    private void writeQueryDeparturesResult(final JsonGenerator g, final QueryDeparturesResult result)
+            throws IOException {
+        g.writeStartObject();
+        writeHeader(g, result.header);
+        g.writeStringField("status", result.status.name());
+        g.writeArrayFieldStart("stationDepartures");
+        for (final StationDepartures stationDepartures : result.stationDepartures) {
+            g.writeStartObject();
+            writeLocation(g, "location", stationDepartures.location);
+            g.writeFieldName("departures");
+            if (stationDepartures.departures != null) {
+                g.writeStartArray();
+                for (final Departure departure : stationDepartures.departures)
+                    writeDeparture(g, departure);
+                g.writeEndArray();
+            } else {
+                g.writeNull();
+            }
+            g.writeFieldName("lines");
+            if (stationDepartures.lines != null) {
+                g.writeStartArray();
+                for (final LineDestination line : stationDepartures.lines) {
+                    g.writeStartObject();
+                    writeLine(g, "line", line.line);
+                    writeLocation(g, "destination", line.destination);
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+            } else {
+                g.writeNull();
+            }
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    private void writeNearbyLocationsResult(final JsonGenerator g, final NearbyLocationsResult result)
+            throws IOException {
+        g.writeStartObject();
+        writeHeader(g, result.header);
+        g.writeStringField("status", result.status.name());
+        writeLocations(g, "locations", result.locations);
+        g.writeEndObject();
+    }
+
+    private void writeSuggestLocationsResult(final JsonGenerator g, final SuggestLocationsResult result)
+            throws IOException {
+        g.writeStartObject();
+        writeHeader(g, result.header);
+        g.writeStringField("status", result.status.name());
+        g.writeFieldName("suggestedLocations");
+        if (result.suggestedLocations != null) {
+            g.writeStartArray();
+            for (final SuggestedLocation suggestedLocation : result.suggestedLocations) {
+                g.writeStartObject();
+                writeLocation(g, "location", suggestedLocation.location);
+                g.writeNumberField("priority", suggestedLocation.priority);
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+        } else {
+            g.writeNull();
+        }
+        if (!omit.contains(Field.DERIVED))
+            writeLocations(g, "locations", result.suggestedLocations != null ? result.getLocations() : null);
+        g.writeEndObject();
+    }
+
+    private void writeDeparturesUpdate(final JsonGenerator g, final DeparturesUpdate update) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("stationId", update.stationId);
+        g.writeStringField("version", update.version);
+        g.writeBooleanField("full", update.full);
+        g.writeArrayFieldStart("added");
+        for (final Departure departure : update.added)
+            writeDeparture(g, departure, DeparturesUpdate.key(departure));
+        g.writeEndArray();
+        g.writeArrayFieldStart("changed");
+        for (final Departure departure : update.changed)
+            writeDeparture(g, departure, DeparturesUpdate.key(departure));
+        g.writeEndArray();
+        g.writeArrayFieldStart("removed");
+        for (final String key : update.removed)
+            g.writeString(key);
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    private void writeHeader(final JsonGenerator g, final ResultHeader header) throws IOException {
+        g.writeFieldName("header");
+        if (header == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartObject();
+        g.writeStringField("network", header.network != null ? header.network.name() : null);
+        g.writeStringField("serverProduct", header.serverProduct);
+        g.writeStringField("serverVersion", header.serverVersion);
+        g.writeStringField("serverName", header.serverName);
+        g.writeNumberField("serverTime", header.serverTime);
+        writeOpaque(g, "context", header.context);
+        g.writeEndObject();
+    }
+
+    private void writeTrip(final JsonGenerator g, final Trip trip) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("id", trip.getId());
+        writeLocation(g, "from", trip.from);
+        writeLocation(g, "to", trip.to);
+        g.writeArrayFieldStart("legs");
+        for (final Trip.Leg leg : trip.legs)
+            writeLeg(g, leg);
+        g.writeEndArray();
+        g.writeFieldName("fares");
+        if (trip.fares != null) {
+            g.writeStartArray();
+            for (final Fare fare : trip.fares) {
+                g.writeStartObject();
+                g.writeStringField("network", fare.network);
+                g.writeStringField("type", fare.type.name());
+                g.writeStringField("currency", fare.currency.getCurrencyCode());
+                g.writeNumberField("fare", fare.fare);
+                g.writeStringField("unitName", fare.unitName);
+                g.writeStringField("units", fare.units);
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+        } else {
+            g.writeNull();
+        }
+        writeInts(g, "capacity", trip.capacity);
+        writeInteger(g, "numChanges", trip.getNumChanges());
+        if (!omit.contains(Field.DERIVED)) {
+            g.writeNumberField("duration", trip.getDuration());
+            g.writeFieldName("firstPublicLeg");
+            writePublicLeg(g, trip.getFirstPublicLeg());
+            g.writeFieldName("lastPublicLeg");
+            writePublicLeg(g, trip.getLastPublicLeg());
+            writeDate(g, "firstDepartureTime", trip.getFirstDepartureTime());
+            writeDate(g, "lastArrivalTime", trip.getLastArrivalTime());
+            writeDate(g, "firstPublicLegDepartureTime", trip.getFirstPublicLegDepartureTime());
+            writeDate(g, "lastPublicLegArrivalTime", trip.getLastPublicLegArrivalTime());
+            writeLong(g, "publicDuration", trip.getPublicDuration());
+            g.writeBooleanField("travelable", trip.isTravelable());
+            writeDate(g, "minTime", trip.getMinTime());
+            writeDate(g, "maxTime", trip.getMaxTime());
+        }
+        g.writeEndObject();
+    }
+
+    private void writeLeg(final JsonGenerator g, final Trip.Leg leg) throws IOException {
+        if (leg instanceof Trip.Public) {
+            writePublicLeg(g, (Trip.Public) leg);
+        } else {
+            final Trip.Individual individual = (Trip.Individual) leg;
+            g.writeStartObject();
+            writeLegCommon(g, individual);
+            g.writeStringField("type", individual.type.name());
+            writeDate(g, "departureTime", individual.departureTime);
+            writeDate(g, "arrivalTime", individual.arrivalTime);
+            g.writeNumberField("min", individual.min);
+            g.writeNumberField("distance", individual.distance);
+            if (!omit.contains(Field.DERIVED)) {
+                writeDate(g, "minTime", individual.getMinTime());
+                writeDate(g, "maxTime", individual.getMaxTime());
+            }
+            g.writeEndObject();
+        }
+    }
+
+    private void writePublicLeg(final JsonGenerator g, final Trip.Public leg) throws IOException {
+        if (leg == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartObject();
+        writeLegCommon(g, leg);
+        writeLine(g, "line", leg.line);
+        writeLocation(g, "destination", leg.destination);
+        g.writeFieldName("departureStop");
+        writeStop(g, leg.departureStop);
+        g.writeFieldName("arrivalStop");
+        writeStop(g, leg.arrivalStop);
+        if (!omit.contains(Field.INTERMEDIATE_STOPS)) {
+            g.writeFieldName("intermediateStops");
+            if (leg.intermediateStops != null) {
+                g.writeStartArray();
+                for (final Stop stop : leg.intermediateStops)
+                    writeStop(g, stop);
+                g.writeEndArray();
+            } else {
+                g.writeNull();
+            }
+        }
+        g.writeStringField("message", leg.message);
+        if (!omit.contains(Field.DERIVED)) {
+            writeDate(g, "departureTime", leg.getDepartureTime());
+            g.writeBooleanField("departureTimePredicted", leg.isDepartureTimePredicted());
+            writeLong(g, "departureDelay", leg.getDepartureDelay());
+            writePosition(g, "departurePosition", leg.getDeparturePosition());
+            g.writeBooleanField("departurePositionPredicted", leg.isDeparturePositionPredicted());
+            writeDate(g, "arrivalTime", leg.getArrivalTime());
+            g.writeBooleanField("arrivalTimePredicted", leg.isArrivalTimePredicted());
+            writeLong(g, "arrivalDelay", leg.getArrivalDelay());
+            writePosition(g, "arrivalPosition", leg.getArrivalPosition());
+            g.writeBooleanField("arrivalPositionPredicted", leg.isArrivalPositionPredicted());
+            writeDate(g, "minTime", leg.getMinTime());
+            writeDate(g, "maxTime", leg.getMaxTime());
+        }
+        g.writeEndObject();
+    }
+
+    private void writeLegCommon(final JsonGenerator g, final Trip.Leg leg) throws IOException {
+        writeLocation(g, "departure", leg.departure);
+        writeLocation(g, "arrival", leg.arrival);
+        if (!omit.contains(Field.PATH)) {
+            g.writeFieldName("path");
+            if (leg.path != null) {
+                g.writeStartArray();
+                for (final Point point : leg.path) {
+                    g.writeStartObject();
+                    g.writeNumberField("lat", point.lat);
+                    g.writeNumberField("lon", point.lon);
+                    if (!omit.contains(Field.DERIVED)) {
+                        g.writeNumberField("latAsDouble", point.getLatAsDouble());
+                        g.writeNumberField("lonAsDouble", point.getLonAsDouble());
+                    }
+                    g.writeEndObject();
+                }
+                g.writeEndArray();
+            } else {
+                g.writeNull();
+            }
+        }
+    }
+
+    private void writeStop(final JsonGenerator g, final Stop stop) throws IOException {
+        g.writeStartObject();
+        writeLocation(g, "location", stop.location);
+        writeDate(g, "plannedArrivalTime", stop.plannedArrivalTime);
+        writeDate(g, "predictedArrivalTime", stop.predictedArrivalTime);
+        writePosition(g, "plannedArrivalPosition", stop.plannedArrivalPosition);
+        writePosition(g, "predictedArrivalPosition", stop.predictedArrivalPosition);
+        g.writeBooleanField("arrivalCancelled", stop.arrivalCancelled);
+        writeDate(g, "plannedDepartureTime", stop.plannedDepartureTime);
+        writeDate(g, "predictedDepartureTime", stop.predictedDepartureTime);
+        writePosition(g, "plannedDeparturePosition", stop.plannedDeparturePosition);
+        writePosition(g, "predictedDeparturePosition", stop.predictedDeparturePosition);
+        g.writeBooleanField("departureCancelled", stop.departureCancelled);
+        if (!omit.contains(Field.DERIVED)) {
+            writeDate(g, "arrivalTime", stop.getArrivalTime());
+            g.writeBooleanField("arrivalTimePredicted", stop.isArrivalTimePredicted());
+            writeLong(g, "arrivalDelay", stop.getArrivalDelay());
+            writePosition(g, "arrivalPosition", stop.getArrivalPosition());
+            g.writeBooleanField("arrivalPositionPredicted", stop.isArrivalPositionPredicted());
+            writeDate(g, "departureTime", stop.getDepartureTime());
+            g.writeBooleanField("departureTimePredicted", stop.isDepartureTimePredicted());
+            writeLong(g, "departureDelay", stop.getDepartureDelay());
+            writePosition(g, "departurePosition", stop.getDeparturePosition());
+            g.writeBooleanField("departurePositionPredicted", stop.isDeparturePositionPredicted());
+            writeDate(g, "minTime", stop.getMinTime());
+            writeDate(g, "maxTime", stop.getMaxTime());
+        }
+        g.writeEndObject();
+    }
+
+    private void writeDeparture(final JsonGenerator g, final Departure departure) throws IOException {
+        writeDeparture(g, departure, null);
+    }
+
+    private void writeDeparture(final JsonGenerator g, final Departure departure, final String key)
+            throws IOException {
+        g.writeStartObject();
+        if (key != null)
+            g.writeStringField("key", key);
+        writeDate(g, "plannedTime", departure.plannedTime);
+        writeDate(g, "predictedTime", departure.predictedTime);
+        writeLine(g, "line", departure.line);
+        writePosition(g, "position", departure.position);
+        writeLocation(g, "destination", departure.destination);
+        writeInts(g, "capacity", departure.capacity);
+        g.writeStringField("message", departure.message);
+        if (!omit.contains(Field.DERIVED))
+            writeDate(g, "time", departure.getTime());
+        g.writeEndObject();
+    }
+
+    private void writeLocations(final JsonGenerator g, final String fieldName, final List<Location> locations)
+            throws IOException {
+        g.writeFieldName(fieldName);
+        if (locations == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartArray();
+        for (final Location location : locations)
+            writeLocation(g, location);
+        g.writeEndArray();
+    }
+
+    private void writeLocation(final JsonGenerator g, final String fieldName, final Location location)
+            throws IOException {
+        g.writeFieldName(fieldName);
+        writeLocation(g, location);
+    }
+
+    private void writeLocation(final JsonGenerator g, final Location location) throws IOException {
+        if (location == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartObject();
+        g.writeStringField("type", location.type.name());
+        g.writeStringField("id", location.id);
+        g.writeNumberField("lat", location.lat);
+        g.writeNumberField("lon", location.lon);
+        g.writeStringField("place", location.place);
+        g.writeStringField("name", location.name);
+        writeEnums(g, "products", location.products);
+        if (!omit.contains(Field.DERIVED)) {
+            g.writeNumberField("latAsDouble", location.getLatAsDouble());
+            g.writeNumberField("lonAsDouble", location.getLonAsDouble());
+            g.writeBooleanField("identified", location.isIdentified());
+        }
+        g.writeEndObject();
+    }
+
+    private void writeLine(final JsonGenerator g, final String fieldName, final Line line) throws IOException {
+        g.writeFieldName(fieldName);
+        if (line == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartObject();
+        g.writeStringField("id", line.id);
+        g.writeStringField("network", line.network);
+        g.writeStringField("product", line.product != null ? line.product.name() : null);
+        g.writeStringField("label", line.label);
+        g.writeStringField("name", line.name);
+        g.writeFieldName("style");
+        final Style style = line.style;
+        if (style != null) {
+            g.writeStartObject();
+            g.writeStringField("shape", style.shape != null ? style.shape.name() : null);
+            g.writeNumberField("backgroundColor", style.backgroundColor);
+            g.writeNumberField("backgroundColor2", style.backgroundColor2);
+            g.writeNumberField("foregroundColor", style.foregroundColor);
+            g.writeNumberField("borderColor", style.borderColor);
+            g.writeEndObject();
+        } else {
+            g.writeNull();
+        }
+        writeEnums(g, "attrs", line.attrs);
+        g.writeStringField("message", line.message);
+        g.writeEndObject();
+    }
+
+    private void writePosition(final JsonGenerator g, final String fieldName, final Position position)
+            throws IOException {
+        g.writeFieldName(fieldName);
+        if (position == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartObject();
+        g.writeStringField("name", position.name);
+        g.writeStringField("section", position.section);
+        g.writeEndObject();
+    }
+
+    private void writeEnums(final JsonGenerator g, final String fieldName, final Collection<? extends Enum<?>> values)
+            throws IOException {
+        g.writeFieldName(fieldName);
+        if (values == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartArray();
+        for (final Enum<?> value : values)
+            g.writeString(value.name());
+        g.writeEndArray();
+    }
+
+    private void writeInts(final JsonGenerator g, final String fieldName, final int[] values) throws IOException {
+        g.writeFieldName(fieldName);
+        if (values == null) {
+            g.writeNull();
+            return;
+        }
+        g.writeStartArray();
+        for (final int value : values)
+            g.writeNumber(value);
+        g.writeEndArray();
+    }
+
+    private void writeDate(final JsonGenerator g, final String fieldName, final Date date) throws IOException {
+        if (date != null)
+            g.writeNumberField(fieldName, date.getTime());
+        else
+            g.writeNullField(fieldName);
+    }
+
+    private void writeLong(final JsonGenerator g, final String fieldName, final Long value) throws IOException {
+        if (value != null)
+            g.writeNumberField(fieldName, value);
+        else
+            g.writeNullField(fieldName);
+    }
+
+    private void writeInteger(final JsonGenerator g, final String fieldName, final Integer value)
+            throws IOException {
+        if (value != null)
+            g.writeNumberField(fieldName, value);
+        else
+            g.writeNullField(fieldName);
+    }
+
+    private void writeOpaque(final JsonGenerator g, final String fieldName, final Object value) throws IOException {
+        // contexts are provider specific and small, leave them to the bean serialization
+        g.writeFieldName(fieldName);
+        objectMapper.writeValue(g, value);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.collect.ImmutableSet;
+
+import de.schildbach.pte.dto.QueryTripsContext;
+
+/**
+ * Encodes contexts using Java serialization, deflated. Works for every context, since they are all
+ * {@link java.io.Serializable}. Class descriptors are reduced to the class name, so encoder and decoder need the same
+ * versions of the context classes. Only ever decode bytes whose origin has been verified.
+ * 
+ * <p>
+ * As a second line of defence, decoding only resolves the context implementations of the providers, the classes in
+ * {@code de.schildbach.pte.dto} and the few JDK and Guava value and collection types they are made of.
+ * </p>
+ */
+public class SerializingContextCodec implements ContextCodec {
+    private static final String PROVIDER_PACKAGE = "de.schildbach.pte.";
+    private static final String DTO_PACKAGE = "de.schildbach.pte.dto.";
+    // java.lang.Object only appears as the component type of arrays, it is not serializable itself
+    private static final Set<String> ALLOWED_CLASSES = ImmutableSet.of("java.lang.Object", "java.lang.Boolean",
+            "java.lang.Byte", "java.lang.Character", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Float", "java.lang.Double", "java.lang.Number", "java.lang.Enum", "java.util.Date",
+            "java.util.Currency", "java.util.ArrayList", "java.util.LinkedList", "java.util.Arrays$ArrayList",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet", "java.util.HashMap",
+            "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.EnumSet$SerializationProxy",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableSet",
+            "java.util.Collections$UnmodifiableMap", "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptySet", "java.util.Collections$EmptyMap",
+            "java.util.Collections$SingletonList", "java.util.Collections$SingletonSet",
+            "com.google.common.collect.ImmutableEnumSet$EnumSerializedForm",
+            "com.google.common.collect.ImmutableList$SerializedForm",
+            "com.google.common.collect.ImmutableSet$SerializedForm");
+
+    @Override
+    public byte[] encode(final QueryTripsContext context) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            final ObjectOutputStream os = new CompactObjectOutputStream(new DeflaterOutputStream(bytes, deflater));
+            os.writeObject(context);
+            os.close();
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public QueryTripsContext decode(final byte[] bytes) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            final ObjectInputStream is = new CompactObjectInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(bytes), inflater));
+            try {
+                return (QueryTripsContext) is.readObject();
+            } finally {
+                is.close();
+            }
+        } catch (final ClassNotFoundException | ClassCastException x) {
+            throw new IOException(x);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static class CompactObjectOutputStream extends ObjectOutputStream {
+        public CompactObjectOutputStream(final OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+        }
+
+        @Override
+        protected void writeClassDescriptor(final ObjectStreamClass desc) throws IOException {
+            writeUTF(desc.getName());
+        }
+    }
+
+    private static class CompactObjectInputStream extends ObjectInputStream {
+        public CompactObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected void readStreamHeader() {
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            final String name = readUTF();
+            if (!isAllowed(name))
+                throw new InvalidClassException(name, "not allowed in contexts");
+            final ObjectStreamClass desc = ObjectStreamClass.lookup(loadClass(name));
+            if (desc == null)
+                throw new InvalidClassException(name, "not serializable");
+            return desc;
+        }
+
+        private static boolean isAllowed(final String name) throws ClassNotFoundException {
+            if (name.startsWith("[L") && name.endsWith(";"))
+                return isAllowed(name.substring(2, name.length() - 1));
+            if (name.startsWith("["))
+                return name.length() == 2 || isAllowed(name.substring(1));
+            if (ALLOWED_CLASSES.contains(name))
+                return true;
+            if (name.startsWith(DTO_PACKAGE) && name.indexOf('.', DTO_PACKAGE.length()) == -1)
+                return true;
+            if (name.startsWith(PROVIDER_PACKAGE) && name.indexOf('.', PROVIDER_PACKAGE.length()) == -1)
+                return QueryTripsContext.class.isAssignableFrom(loadClass(name));
+            return false;
+        }
+
+        private static Class<?> loadClass(final String name) throws ClassNotFoundException {
+            return Class.forName(name, false, SerializingContextCodec.class.getClassLoader());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import de.schildbach.pte.NetworkId;
+
+/**
+ * Counters and latencies of provider calls, by network and operation.
+ */
+@Component
+public class ServiceMetrics {
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    public Operation operation(final NetworkId network, final String name) {
+        final String key = network.name() + '|' + name;
+        Operation operation = operations.get(key);
+        if (operation == null) {
+            final Operation newOperation = new Operation(network, name);
+            operation = operations.putIfAbsent(key, newOperation);
+            if (operation == null)
+                operation = newOperation;
+        }
+        return operation;
+    }
+
+    public Iterable<Operation> operations() {
+        return operations.values();
+    }
+
+    public static final class Operation {
+        public final NetworkId network;
+        public final String name;
+        public final AtomicLong requests = new AtomicLong();
+        public final AtomicInteger inFlight = new AtomicInteger();
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+        private Operation(final NetworkId network, final String name) {
+            this.network = network;
+            this.name = name;
+        }
+
+        /** @return start time to pass to {@link #end(long, Throwable)} */
+        public long begin() {
+            requests.incrementAndGet();
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void end(final long startNanos, final Throwable error) {
+            inFlight.decrementAndGet();
+            latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            if (error != null) {
+                final String type = error.getClass().getSimpleName();
+                AtomicLong count = errors.get(type);
+                if (count == null) {
+                    final AtomicLong newCount = new AtomicLong();
+                    count = errors.putIfAbsent(type, newCount);
+                    if (count == null)
+                        count = newCount;
+                }
+                count.incrementAndGet();
+            }
+        }
+    }
+}
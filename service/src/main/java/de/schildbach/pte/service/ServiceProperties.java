@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Loads optional configuration files from the classpath.
+ */
+public final class ServiceProperties {
+    /** General service configuration. */
+    public static final String SERVICE_RESOURCE = "/service.properties";
+
+    private ServiceProperties() {
+    }
+
+    /** Loads the given properties resource, or returns empty properties if it does not exist. */
+    public static Properties load(final String resource) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream is = ServiceProperties.class.getResourceAsStream(resource);
+        if (is != null) {
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return properties;
+    }
+
+    /** Returns an integer property, or the default if it is not set. */
+    public static int getInt(final Properties properties, final String key, final int defaultValue) {
+        final String value = properties.getProperty(key);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+}
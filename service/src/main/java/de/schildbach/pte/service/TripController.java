@@ -19,19 +19,24 @@ package de.schildbach.pte.service;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.Callable;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
 import de.schildbach.pte.NetworkProvider.Accessibility;
 import de.schildbach.pte.NetworkProvider.WalkSpeed;
-import de.schildbach.pte.RtProvider;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.LocationType;
 import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsContext;
 import de.schildbach.pte.dto.QueryTripsResult;
 
 /**
@@ -39,20 +44,57 @@ import de.schildbach.pte.dto.QueryTripsResult;
  */
 @Controller
 public class TripController {
-    private final RtProvider provider = new RtProvider();
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final ContextTokens contextTokens;
+
+    @Autowired
+    public TripController(final ProviderRegistry providers, final ProviderExecutors executors,
+            final ContextTokens contextTokens) {
+        this.providers = providers;
+        this.executors = executors;
+        this.contextTokens = contextTokens;
+    }
 
     @RequestMapping(value = "/trip", method = RequestMethod.GET)
     @ResponseBody
-    public QueryTripsResult trip(
+    public DeferredResult<QueryTripsResult> trip(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
             @RequestParam(value = "fromType", required = false, defaultValue = "ANY") final LocationType fromType,
             @RequestParam(value = "from", required = false) final String from,
             @RequestParam(value = "fromId", required = false) final String fromId,
             @RequestParam(value = "toType", required = false, defaultValue = "ANY") final LocationType toType,
             @RequestParam(value = "to", required = false) final String to,
-            @RequestParam(value = "toId", required = false) final String toId) throws IOException {
+            @RequestParam(value = "toId", required = false) final String toId) {
         final Location fromLocation = new Location(fromType, fromId, null, from);
         final Location toLocation = new Location(toType, toId, null, to);
-        return provider.queryTrips(fromLocation, null, toLocation, new Date(), true, Product.ALL, null,
-                WalkSpeed.NORMAL, Accessibility.NEUTRAL, null);
+        final NetworkProvider provider = providers.get(network);
+        final Date date = new Date();
+        return executors.defer(network, new Callable<QueryTripsResult>() {
+            @Override
+            public QueryTripsResult call() throws IOException {
+                return provider.queryTrips(fromLocation, null, toLocation, date, true, Product.ALL, null,
+                        WalkSpeed.NORMAL, Accessibility.NEUTRAL, null);
+            }
+        });
+    }
+
+    /**
+     * Queries earlier or later trips, continuing from the {@code contextToken} of a previous result.
+     */
+    @RequestMapping(value = "/trip/more", method = RequestMethod.GET)
+    @ResponseBody
+    public DeferredResult<QueryTripsResult> more(
+            @RequestParam(value = "network", required = false, defaultValue = "RT") final NetworkId network,
+            @RequestParam("context") final String contextToken,
+            @RequestParam(value = "later", required = false, defaultValue = "true") final boolean later) {
+        final NetworkProvider provider = providers.get(network);
+        final QueryTripsContext context = contextTokens.decode(network, contextToken);
+        return executors.defer(network, new Callable<QueryTripsResult>() {
+            @Override
+            public QueryTripsResult call() throws IOException {
+                return provider.queryMoreTrips(context, later);
+            }
+        });
     }
 }
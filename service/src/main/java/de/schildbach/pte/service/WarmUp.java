@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.util.HttpTape;
+
+/**
+ * <p>
+ * Warms up selected providers in the background after startup, so that class loading, style tables, DNS lookups, TLS
+ * handshakes and JIT compilation of the parsers do not land on the first user requests. The service reports
+ * readiness once warm-up has finished or timed out.
+ * </p>
+ * 
+ * <p>
+ * The configured queries go to the shared providers once, bypassing metrics and cache, which opens their connections.
+ * If a network has a tape recorded with {@link HttpTape}, the queries are then repeated against a separate provider
+ * instance replaying it, so the parsers get hot without putting load on upstream. Without a tape, the live queries
+ * are repeated instead.
+ * </p>
+ * 
+ * <p>
+ * Configured in the optional {@code service.properties}:
+ * </p>
+ * <ul>
+ * <li>{@code warmup.networks}: comma-separated networks to warm up, none by default</li>
+ * <li>{@code warmup.<NETWORK>.suggest}: comma-separated terms to query location suggestions for</li>
+ * <li>{@code warmup.<NETWORK>.departures}: comma-separated station ids to query departures for</li>
+ * <li>{@code warmup.<NETWORK>.tape}: tape file to replay the queries from</li>
+ * <li>{@code warmup.iterations}: how often to repeat the queries, default 3</li>
+ * <li>{@code warmup.timeoutSeconds}: when to report readiness anyway, default 60</li>
+ * </ul>
+ */
+@Component
+public class WarmUp implements InitializingBean {
+    private static final int DEFAULT_ITERATIONS = 3;
+    private static final int DEFAULT_TIMEOUT_SECONDS = 60;
+    private static final Splitter LIST_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final ProviderRegistry providers;
+    private final ProviderExecutors executors;
+    private final Properties properties;
+    private volatile boolean ready = false;
+
+    private static final Logger log = LoggerFactory.getLogger(WarmUp.class);
+
+    @Autowired
+    public WarmUp(final ProviderRegistry providers, final ProviderExecutors executors) throws IOException {
+        this(providers, executors, ServiceProperties.load(ServiceProperties.SERVICE_RESOURCE));
+    }
+
+    public WarmUp(final ProviderRegistry providers, final ProviderExecutors executors, final Properties properties) {
+        this.providers = providers;
+        this.executors = executors;
+        this.properties = properties;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, "warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp() {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final int iterations = ServiceProperties.getInt(properties, "warmup.iterations", DEFAULT_ITERATIONS);
+        final int timeoutSeconds = ServiceProperties.getInt(properties, "warmup.timeoutSeconds",
+                DEFAULT_TIMEOUT_SECONDS);
+        final List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (final String name : LIST_SPLITTER.split(properties.getProperty("warmup.networks", ""))) {
+            final NetworkId network;
+            try {
+                network = NetworkId.valueOf(name);
+            } catch (final IllegalArgumentException x) {
+                log.warn("cannot warm up unknown network {}", name);
+                continue;
+            }
+            futures.add(executors.submit(network, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    warmUp(network, iterations);
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            Futures.successfulAsList(futures).get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (final TimeoutException x) {
+            log.warn("warm-up did not finish within {} seconds", timeoutSeconds);
+        } catch (final InterruptedException | ExecutionException x) {
+            log.warn("warm-up aborted", x);
+        }
+        ready = true;
+        log.info("warm-up of {} networks done after {}", futures.size(), watch);
+    }
+
+    private void warmUp(final NetworkId network, final int iterations) {
+        final Stopwatch watch = Stopwatch.createStarted();
+        final NetworkProvider provider = providers.getUnwrapped(network);
+        for (final Product product : Product.ALL)
+            provider.lineStyle(null, product, "1");
+
+        final List<String> terms = LIST_SPLITTER
+                .splitToList(properties.getProperty("warmup." + network + ".suggest", ""));
+        final List<String> stationIds = LIST_SPLITTER
+                .splitToList(properties.getProperty("warmup." + network + ".departures", ""));
+        final NetworkProvider replaying = replaying(network);
+        if (replaying != null) {
+            query(network, provider, terms, stationIds);
+            for (int i = 0; i < iterations; i++)
+                query(network, replaying, terms, stationIds);
+        } else {
+            for (int i = 0; i < iterations; i++)
+                query(network, provider, terms, stationIds);
+        }
+        log.info("warmed up {}{} in {}", network, replaying != null ? " from tape" : "", watch);
+    }
+
+    private @Nullable NetworkProvider replaying(final NetworkId network) {
+        final String tape = properties.getProperty("warmup." + network + ".tape");
+        if (tape == null)
+            return null;
+        try {
+            return providers.replaying(network, HttpTape.replay(new File(tape)));
+        } catch (final IOException | ReflectiveOperationException | RuntimeException x) {
+            log.warn("cannot replay warm-up tape {} for {}: {}", tape, network, x.toString());
+            return null;
+        }
+    }
+
+    private void query(final NetworkId network, final NetworkProvider provider, final List<String> terms,
+            final List<String> stationIds) {
+        try {
+            for (final String term : terms)
+                provider.suggestLocations(term);
+            for (final String stationId : stationIds)
+                provider.queryDepartures(stationId, new Date(), 10, false);
+        } catch (final IOException | RuntimeException x) {
+            log.info("warm-up query for {} failed: {}", network, x.toString());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.NetworkProvider;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+
+public class DeparturesControllerTest {
+    private ProviderRegistry providers;
+    private ProviderExecutors executors;
+    private LiveDepartures liveDepartures;
+    private DeparturesController controller;
+
+    @Before
+    public void setUp() throws IOException {
+        providers = new ProviderRegistry(new Properties(), new Properties(), new ServiceMetrics());
+        executors = new ProviderExecutors(new Properties());
+        liveDepartures = new LiveDepartures(providers, executors);
+        controller = new DeparturesController(providers, executors, liveDepartures,
+                new MappingJacksonHttpMessageConverter());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        liveDepartures.destroy();
+        executors.destroy();
+        providers.destroy();
+    }
+
+    @Test
+    public void queriesDeparturesFromNow() throws Exception {
+        final DeparturesProvider provider = new DeparturesProvider();
+        final long before = System.currentTimeMillis();
+        final QueryDeparturesResult result = controller.queryDepartures(NetworkId.RT, provider, "1", 10, false)
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals("1", result.header.serverProduct);
+        assertEquals(1, provider.times.size());
+        final long time = provider.times.get(0).getTime();
+        assertTrue(time >= before && time <= System.currentTimeMillis());
+    }
+
+    /** Like the HAFAS providers, rejects queries without a time. */
+    private static class DeparturesProvider implements NetworkProvider {
+        public final List<Date> times = new ArrayList<>();
+
+        @Override
+        public NetworkId id() {
+            return NetworkId.RT;
+        }
+
+        @Override
+        public boolean hasCapabilities(final Capability... capabilities) {
+            return true;
+        }
+
+        @Override
+        public NearbyLocationsResult queryNearbyLocations(final EnumSet<LocationType> types, final Location location,
+                final int maxDistance, final int maxLocations) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized QueryDeparturesResult queryDepartures(final String stationId, final Date time,
+                final int maxDepartures, final boolean equivs) throws IOException {
+            times.add(checkNotNull(time, "time"));
+            return new QueryDeparturesResult(new ResultHeader(NetworkId.RT, stationId));
+        }
+
+        @Override
+        public SuggestLocationsResult suggestLocations(final CharSequence constraint) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Product> defaultProducts() {
+            return Product.ALL;
+        }
+
+        @Override
+        public QueryTripsResult queryTrips(final Location from, final Location via, final Location to,
+                final Date date, final boolean dep, final Set<Product> products, final Optimize optimize,
+                final WalkSpeed walkSpeed, final Accessibility accessibility, final Set<Option> options)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public QueryTripsResult queryMoreTrips(final QueryTripsContext context, final boolean later)
+                throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Style lineStyle(final String network, final Product product, final String label) {
+            return null;
+        }
+
+        @Override
+        public Point[] getArea() throws IOException {
+            return null;
+        }
+    }
+}
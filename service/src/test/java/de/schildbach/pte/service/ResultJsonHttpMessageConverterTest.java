@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResultJsonHttpMessageConverterTest {
+    @Test
+    public void acceptsGzip() {
+        assertTrue(ResultJsonHttpMessageConverter.acceptsGzip("gzip"));
+        assertTrue(ResultJsonHttpMessageConverter.acceptsGzip("deflate, gzip;q=1.0, *;q=0.5"));
+        assertTrue(ResultJsonHttpMessageConverter.acceptsGzip("GZIP ; q=0.1"));
+        assertTrue(ResultJsonHttpMessageConverter.acceptsGzip("br, *"));
+    }
+
+    @Test
+    public void rejectsGzip() {
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip(null));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip(""));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip("identity"));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip("gzip;q=0"));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip("gzip;q=0.000, deflate"));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip("x-gzip"));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip("*;q=1, gzip;q=0"));
+        assertFalse(ResultJsonHttpMessageConverter.acceptsGzip("*;q=0"));
+    }
+}
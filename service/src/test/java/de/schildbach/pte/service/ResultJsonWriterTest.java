@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Test;
+
+import de.schildbach.pte.AbstractHafasMobileProvider;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.Fare;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.NearbyLocationsResult;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Position;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.QueryTripsResult;
+import de.schildbach.pte.dto.ResultHeader;
+import de.schildbach.pte.dto.StationDepartures;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.SuggestLocationsResult;
+import de.schildbach.pte.dto.SuggestedLocation;
+import de.schildbach.pte.dto.Trip;
+
+public class ResultJsonWriterTest {
+    private static final long T0 = 1483272000000L; // 2017-01-01 12:00 UTC
+    private static final Location ORIGIN = new Location(LocationType.ADDRESS, null, 52520000, 13405000, "Berlin",
+            "Alexanderplatz 1");
+    private static final Location STATION_A = new Location(LocationType.STATION, "900100003", 52521481, 13411124,
+            "Berlin", "Alexanderplatz", EnumSet.of(Product.SUBURBAN_TRAIN, Product.BUS));
+    private static final Location STATION_B = new Location(LocationType.STATION, "900003201", 52525589, 13369548,
+            "Berlin", "Hauptbahnhof", null);
+    private static final Location STATION_C = new Location(LocationType.STATION, "900024101", 52503733, 13282552,
+            "Berlin", "Westkreuz");
+    private static final Line LINE = new Line("de:vbb:S7", "vbb", Product.SUBURBAN_TRAIN, "S7",
+            new Style(Style.Shape.RECT, Style.parseColor("#7760b0"), Style.WHITE),
+            EnumSet.of(Line.Attr.BICYCLE_CARRIAGE), "Construction work");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void tripsMatchBeanSerialization() throws IOException {
+        assertMatches(queryTripsResult());
+    }
+
+    @Test
+    public void departuresMatchBeanSerialization() throws IOException {
+        assertMatches(queryDeparturesResult());
+    }
+
+    @Test
+    public void nearbyLocationsMatchBeanSerialization() throws IOException {
+        assertMatches(new NearbyLocationsResult(new ResultHeader(NetworkId.VBB, "hafas"),
+                Arrays.asList(STATION_A, STATION_B, STATION_C)));
+        assertMatches(new NearbyLocationsResult(null, NearbyLocationsResult.Status.INVALID_ID));
+    }
+
+    @Test
+    public void suggestedLocationsMatchBeanSerialization() throws IOException {
+        final List<SuggestedLocation> locations = new ArrayList<>();
+        locations.add(new SuggestedLocation(STATION_A, 10));
+        locations.add(new SuggestedLocation(ORIGIN));
+        assertMatches(new SuggestLocationsResult(new ResultHeader(NetworkId.VBB, "hafas"), locations));
+    }
+
+    @Test
+    public void omitPathAndIntermediateStops() throws IOException {
+        final QueryTripsResult result = queryTripsResult();
+        final JsonNode expected = removeFields(beanJson(result), "path", "intermediateStops");
+        assertEquals(expected, writerJson(result, ResultJsonWriter.parseFields("path, intermediateStops")));
+    }
+
+    @Test
+    public void omitDerived() throws IOException {
+        final String json = writerJson(queryTripsResult(), EnumSet.of(ResultJsonWriter.Field.DERIVED)).toString();
+        assertTrue(json, json.contains("\"plannedArrivalTime\""));
+        assertFalse(json, json.contains("\"identified\""));
+        assertFalse(json, json.contains("\"latAsDouble\""));
+        assertFalse(json, json.contains("\"firstPublicLeg\""));
+        assertFalse(json, json.contains("\"departureDelay\""));
+    }
+
+    @Test
+    public void contextTokenWithoutHeader() throws IOException {
+        final ContextTokens contextTokens = new ContextTokens(new byte[32], TimeUnit.HOURS.toMillis(1));
+        final QueryTripsResult result = new QueryTripsResult(null, null, ORIGIN, null, STATION_C,
+                new AbstractHafasMobileProvider.JsonContext(ORIGIN, null, STATION_C, new Date(T0), true,
+                        EnumSet.allOf(Product.class), "later", null),
+                new ArrayList<Trip>());
+        final StringWriter json = new StringWriter();
+        final JsonGenerator generator = objectMapper.getJsonFactory().createJsonGenerator(json);
+        new ResultJsonWriter(objectMapper, EnumSet.noneOf(ResultJsonWriter.Field.class), contextTokens,
+                NetworkId.NEGENTWEE).write(generator, result);
+        generator.close();
+        final JsonNode token = objectMapper.readTree(json.toString()).get("contextToken");
+        assertNotNull(json.toString(), token);
+        assertNotNull(contextTokens.decode(NetworkId.NEGENTWEE, token.getTextValue()));
+    }
+
+    private void assertMatches(final Object result) throws IOException {
+        assertEquals(beanJson(result), writerJson(result, EnumSet.noneOf(ResultJsonWriter.Field.class)));
+    }
+
+    private JsonNode beanJson(final Object result) throws IOException {
+        return objectMapper.readTree(objectMapper.writeValueAsString(result));
+    }
+
+    private JsonNode writerJson(final Object result, final Set<ResultJsonWriter.Field> omit) throws IOException {
+        final StringWriter json = new StringWriter();
+        final JsonGenerator generator = objectMapper.getJsonFactory().createJsonGenerator(json);
+        new ResultJsonWriter(objectMapper, omit).write(generator, result);
+        generator.close();
+        return objectMapper.readTree(json.toString());
+    }
+
+    private static JsonNode removeFields(final JsonNode node, final String... fieldNames) {
+        if (node instanceof ObjectNode)
+            ((ObjectNode) node).remove(Arrays.asList(fieldNames));
+        for (final Iterator<JsonNode> i = node.getElements(); i.hasNext();)
+            removeFields(i.next(), fieldNames);
+        return node;
+    }
+
+    private static QueryTripsResult queryTripsResult() {
+        final List<Trip.Leg> legs = new ArrayList<>();
+        legs.add(new Trip.Individual(Trip.Individual.Type.WALK, ORIGIN, new Date(T0), STATION_A,
+                new Date(T0 + 240000), Arrays.asList(new Point(52520000, 13405000), new Point(52521481, 13411124)),
+                320));
+        final List<Stop> intermediateStops = new ArrayList<>();
+        intermediateStops.add(new Stop(STATION_B, new Date(T0 + 900000), new Date(T0 + 960000), new Position("5"),
+                null, false, new Date(T0 + 960000), null, new Position("5"), new Position("6", "B"), false));
+        legs.add(new Trip.Public(LINE, STATION_C,
+                new Stop(STATION_A, true, new Date(T0 + 300000), new Date(T0 + 360000), new Position("1"), null),
+                new Stop(STATION_C, false, new Date(T0 + 1500000), null, new Position("3"), null), intermediateStops,
+                Arrays.asList(new Point(52521481, 13411124), new Point(52503733, 13282552)), null));
+        final List<Trip> trips = new ArrayList<>();
+        trips.add(new Trip("trip-1", ORIGIN, STATION_C, legs, Arrays.asList(new Fare("VBB", Fare.Type.ADULT,
+                Currency.getInstance("EUR"), 2.8f, "Zone", "AB")), new int[] { 1, 2 }, 0));
+        return new QueryTripsResult(new ResultHeader(NetworkId.VBB, "hafas", "1.0", null, T0, null),
+                "http://example.com/trips", ORIGIN, null, STATION_C, new Context(), trips);
+    }
+
+    private static QueryDeparturesResult queryDeparturesResult() {
+        final QueryDeparturesResult result = new QueryDeparturesResult(new ResultHeader(NetworkId.VBB, "hafas"));
+        final List<Departure> departures = new ArrayList<>();
+        departures.add(new Departure(new Date(T0), new Date(T0 + 60000), LINE, new Position("1"), STATION_C,
+                new int[] { 1, 1 }, "Delayed"));
+        departures.add(new Departure(new Date(T0 + 600000), null, LINE, null, STATION_B, null, null));
+        final List<LineDestination> lines = new ArrayList<>();
+        lines.add(new LineDestination(LINE, STATION_C));
+        result.stationDepartures.add(new StationDepartures(STATION_A, departures, lines));
+        result.stationDepartures.add(new StationDepartures(STATION_B, new ArrayList<Departure>(), null));
+        return result;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Context implements QueryTripsContext {
+        public final String laterUrl = "http://example.com/trips?later";
+
+        @Override
+        public boolean canQueryLater() {
+            return true;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return false;
+        }
+    }
+}
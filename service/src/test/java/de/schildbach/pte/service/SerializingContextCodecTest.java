@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 the original author or authors.
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.pte.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import de.schildbach.pte.AbstractHafasMobileProvider;
+import de.schildbach.pte.HslProvider;
+import de.schildbach.pte.dto.Line;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryTripsContext;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Trip;
+
+public class SerializingContextCodecTest {
+    private static final Location FROM = new Location(LocationType.STATION, "1", 52520000, 13405000, "Berlin",
+            "Alexanderplatz", EnumSet.of(Product.BUS, Product.TRAM));
+    private static final Location TO = new Location(LocationType.ADDRESS, null, 52525589, 13369548, null,
+            "Europaplatz 1");
+
+    private final SerializingContextCodec codec = new SerializingContextCodec();
+
+    @Test
+    public void roundTripsProviderContext() throws IOException {
+        final AbstractHafasMobileProvider.JsonContext context = new AbstractHafasMobileProvider.JsonContext(FROM,
+                null, TO, new Date(1483272000000L), true, EnumSet.of(Product.SUBURBAN_TRAIN), "later", null);
+        final AbstractHafasMobileProvider.JsonContext decoded = (AbstractHafasMobileProvider.JsonContext) codec
+                .decode(codec.encode(context));
+        assertEquals(FROM, decoded.from);
+        assertEquals(TO, decoded.to);
+        assertEquals(context.date, decoded.date);
+        assertEquals(context.products, decoded.products);
+        assertEquals("later", decoded.laterContext);
+    }
+
+    @Test
+    public void roundTripsContextHoldingTrips() throws IOException {
+        final HslProvider.QueryTripsHslContext context = new HslProvider.QueryTripsHslContext("http://example.com",
+                FROM, null, TO, new Date(1483272000000L));
+        final Line line = new Line("1", "hsl", Product.TRAM, "4", null,
+                Sets.immutableEnumSet(Line.Attr.WHEEL_CHAIR_ACCESS), null);
+        final Trip.Leg leg = new Trip.Public(line, TO, new Stop(FROM, true, new Date(1483272000000L), null, null, null),
+                new Stop(TO, false, new Date(1483272600000L), null, null, null), null, null, null);
+        context.trips.add(new Trip("t", FROM, TO, Arrays.asList(leg), null, null, 0));
+        final HslProvider.QueryTripsHslContext decoded = (HslProvider.QueryTripsHslContext) codec
+                .decode(codec.encode(context));
+        assertEquals(1, decoded.trips.size());
+        assertEquals(line, decoded.trips.get(0).getFirstPublicLeg().line);
+        assertEquals(line.attrs, decoded.trips.get(0).getFirstPublicLeg().line.attrs);
+    }
+
+    @Test
+    public void rejectsUnknownClasses() throws IOException {
+        final byte[] bytes = codec.encode(new Context());
+        try {
+            codec.decode(bytes);
+            fail();
+        } catch (final IOException x) {
+            // expected
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Context implements QueryTripsContext {
+        @Override
+        public boolean canQueryLater() {
+            return false;
+        }
+
+        @Override
+        public boolean canQueryEarlier() {
+            return false;
+        }
+    }
+}